@@ -6,6 +6,7 @@ import {
     Box,
     Typography,
     Paper,
+    MenuItem,
 } from '@mui/material';
 
 interface ConnectionFormProps {
@@ -19,6 +20,7 @@ const ConnectionForm: React.FC<ConnectionFormProps> = ({ onConnect }) => {
         database: 'default',
         username: 'default',
         jwtToken: '',
+        compression: 'NONE',
     });
 
     const handleChange = (e: React.ChangeEvent<HTMLInputElement>) => {
@@ -87,6 +89,20 @@ const ConnectionForm: React.FC<ConnectionFormProps> = ({ onConnect }) => {
                     required
                     type="password"
                 />
+                <TextField
+                    select
+                    fullWidth
+                    label="Wire compression"
+                    name="compression"
+                    value={config.compression}
+                    onChange={handleChange}
+                    margin="normal"
+                    helperText="Compresses inserts and results; helps when bandwidth to ClickHouse is the limit"
+                >
+                    <MenuItem value="NONE">None</MenuItem>
+                    <MenuItem value="LZ4">LZ4</MenuItem>
+                    <MenuItem value="ZSTD">ZSTD</MenuItem>
+                </TextField>
                 <Button
                     type="submit"
                     variant="contained"
@@ -17,7 +17,9 @@ const FileUpload = ({ onUpload }: FileUploadProps) => {
     const { getRootProps, getInputProps, isDragActive } = useDropzone({
         onDrop,
         accept: {
-            'text/csv': ['.csv'],
+            'text/csv': ['.csv', '.csv.gz', '.csv.zst', '.csv.lz4'],
+            'application/x-ndjson': ['.ndjson', '.jsonl', '.ndjson.gz', '.ndjson.zst', '.ndjson.lz4'],
+            'application/vnd.apache.parquet': ['.parquet'],
         },
         maxFiles: 1,
     });
@@ -14,7 +14,7 @@ import {
   Alert,
 } from '@mui/material';
 import { PreviewDataProps } from '../types';
-import { ingestFromFile, exportToFile } from '../services/api';
+import { ingestFromFile, exportToFile, previewTable } from '../services/api';
 
 const PreviewData = ({ direction, config, tableName, selectedColumns, fileData }: PreviewDataProps) => {
   const [previewData, setPreviewData] = useState<any[]>([]);
@@ -29,16 +29,18 @@ const PreviewData = ({ direction, config, tableName, selectedColumns, fileData }
         const rows = fileData.content.split('\n').slice(0, 5);
         setPreviewData(rows.map(row => row.split(',')));
       } else if (direction === 'clickhouse-to-file') {
-        // For export, show a sample of the data that will be exported
-        setPreviewData([
-          selectedColumns,
-          ...Array(4).fill(selectedColumns.map(() => 'Sample Data')),
-        ]);
+        // For export, show the first rows of the selected columns only
+        try {
+          const preview = await previewTable(config, tableName, selectedColumns);
+          setPreviewData(preview.rows.map(row => row.map(cell => (cell == null ? '' : String(cell)))));
+        } catch (err) {
+          setError(err instanceof Error ? err.message : 'An error occurred');
+        }
       }
     };
 
     fetchPreviewData();
-  }, [direction, fileData, selectedColumns]);
+  }, [direction, config, tableName, fileData, selectedColumns]);
 
   const handleProcess = async () => {
     setLoading(true);
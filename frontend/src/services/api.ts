@@ -1,5 +1,5 @@
 import axios from 'axios';
-import { ClickHouseConfig, ColumnInfo, IngestionConfig, IngestionStatus, ApiError, TableSchema, ConnectionConfig, FileData } from '../types';
+import { ClickHouseConfig, ColumnInfo, IngestionConfig, IngestionStatus, ApiError, TableSchema, ConnectionConfig, FileData, PreviewResult, RowSelection } from '../types';
 
 const API_BASE_URL = 'http://localhost:8081/api/ingestion';
 
@@ -30,12 +30,8 @@ export const testConnection = async (config: ClickHouseConfig): Promise<boolean>
 
 export const getTableSchema = async (config: ConnectionConfig & { tableName: string }): Promise<TableSchema> => {
     try {
-        const response = await api.post(`/columns?tableName=${config.tableName}`, config);
-        const columns = response.data;
-        return columns.reduce((schema: TableSchema, column: string) => {
-            schema[column] = 'Unknown'; // We'll enhance this later to include column types
-            return schema;
-        }, {});
+        const response = await api.post(`/columns/types?tableName=${encodeURIComponent(config.tableName)}`, config);
+        return response.data as TableSchema;
     } catch (error) {
         if (axios.isAxiosError(error) && error.response) {
             throw new Error((error.response.data as ApiError).message);
@@ -68,6 +64,17 @@ export const getIngestionStatus = async (jobId: string): Promise<IngestionStatus
     }
 };
 
+export const cancelIngestion = async (jobId: string): Promise<void> => {
+    try {
+        await api.post(`/ingestion/cancel/${jobId}`);
+    } catch (error) {
+        if (axios.isAxiosError(error) && error.response) {
+            throw new Error((error.response.data as ApiError).message);
+        }
+        throw new Error('Failed to cancel ingestion');
+    }
+};
+
 export const login = async (username: string, password: string): Promise<{ token: string; user: any }> => {
     try {
         const response = await api.post('/auth/login', { username, password });
@@ -140,23 +147,67 @@ export const ingestFromFile = async (
     }
 };
 
+// Spring binds indexed request parameters onto the lists of RowSelection
+const appendSelection = (params: URLSearchParams, selection?: RowSelection) => {
+    selection?.filters?.forEach((filter, i) => {
+        params.append(`filters[${i}].column`, filter.column);
+        params.append(`filters[${i}].operator`, filter.operator);
+        if (filter.value !== undefined) params.append(`filters[${i}].value`, filter.value);
+        filter.values?.forEach((value) => params.append(`filters[${i}].values`, value));
+        if (filter.prewhere) params.append(`filters[${i}].prewhere`, 'true');
+    });
+    selection?.orderBy?.forEach((key, i) => {
+        params.append(`orderBy[${i}].column`, key.column);
+        if (key.descending) params.append(`orderBy[${i}].descending`, 'true');
+    });
+    if (selection?.limit !== undefined) params.append('limit', String(selection.limit));
+    if (selection?.sample !== undefined) params.append('sample', String(selection.sample));
+};
+
+export const previewTable = async (
+    config: ConnectionConfig,
+    tableName: string,
+    columns: string[],
+    limit = 5,
+    offset = 0,
+    selection?: RowSelection
+): Promise<PreviewResult> => {
+    const params = new URLSearchParams({ tableName, limit: String(limit), offset: String(offset) });
+    columns.forEach((column) => params.append('columns', column));
+    appendSelection(params, { ...selection, limit: undefined });
+    const response = await fetch(`http://localhost:8081/api/ingestion/preview/compact?${params}`, {
+        method: 'POST',
+        headers: {
+            'Content-Type': 'application/json',
+        },
+        body: JSON.stringify(config),
+    });
+
+    if (!response.ok) {
+        throw new Error('Failed to preview data');
+    }
+
+    return response.json();
+};
+
 export const exportToFile = async (
     config: ConnectionConfig,
     tableName: string,
     columns: string[],
-    fileName: string
+    fileName: string,
+    compression: 'NONE' | 'GZIP' | 'ZSTD' | 'LZ4' = 'NONE',
+    fileFormat: 'CSV' | 'NDJSON' | 'PARQUET' = 'CSV',
+    selection?: RowSelection
 ): Promise<void> => {
-    const response = await fetch('http://localhost:8081/api/ingestion/export', {
+    const params = new URLSearchParams({ tableName, fileName, compression, fileFormat });
+    columns.forEach((column) => params.append('columns', column));
+    appendSelection(params, selection);
+    const response = await fetch(`http://localhost:8081/api/ingestion/export/download?${params}`, {
         method: 'POST',
         headers: {
             'Content-Type': 'application/json',
         },
-        body: JSON.stringify({
-            config,
-            tableName,
-            columns,
-            fileName,
-        }),
+        body: JSON.stringify(config),
     });
 
     if (!response.ok) {
@@ -167,7 +218,7 @@ export const exportToFile = async (
     const url = window.URL.createObjectURL(blob);
     const a = document.createElement('a');
     a.href = url;
-    a.download = fileName;
+    a.download = fileName + ({ NONE: '', GZIP: '.gz', ZSTD: '.zst', LZ4: '.lz4' })[compression];
     document.body.appendChild(a);
     a.click();
     window.URL.revokeObjectURL(url);
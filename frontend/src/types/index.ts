@@ -1,9 +1,11 @@
 export interface ConnectionConfig {
+    profileId?: string; // server-side profile; when set, the other fields come from it
     host: string;
     port: number;
     database: string;
     username: string;
     password: string;
+    compression?: 'NONE' | 'LZ4' | 'ZSTD'; // wire compression to ClickHouse
 }
 
 export interface TableSchema {
@@ -70,11 +72,52 @@ export interface PreviewData {
 }
 
 export interface IngestionStatus {
-    status: 'PENDING' | 'IN_PROGRESS' | 'COMPLETED' | 'FAILED';
-    progress: number;
+    jobId: string;
+    type: 'INGEST' | 'EXPORT' | 'MIGRATE';
+    tableName: string;
+    status: 'PENDING' | 'IN_PROGRESS' | 'COMPLETED' | 'FAILED' | 'CANCELLED';
+    progress: number; // -1 when the total is unknown
+    rowsProcessed: number;
+    bytesProcessed: number;
+    rowsRejected: number;
+    rejectFile?: string;
+    totalRows: number;
+    totalBytes: number;
+    rowsPerSecond: number;
+    bytesPerSecond: number;
+    batchesInserted: number;
+    insertMillis: number;
+    parseMillis: number;
+    etaSeconds: number; // -1 when unknown
+    startedAt: number;
+    finishedAt: number;
     error?: string;
 }
 
+export interface PreviewResult {
+    columns: string[];
+    types: string[];
+    rows: unknown[][];
+    offset: number;
+    hasMore: boolean;
+}
+
+export interface RowFilter {
+    column: string;
+    operator: 'EQ' | 'NE' | 'LT' | 'LE' | 'GT' | 'GE' | 'IN' | 'NOT_IN' | 'LIKE' | 'NOT_LIKE' | 'IS_NULL' | 'IS_NOT_NULL';
+    value?: string;
+    values?: string[]; // IN and NOT_IN
+    prewhere?: boolean;
+}
+
+// Rows to export or preview, evaluated by ClickHouse
+export interface RowSelection {
+    filters?: RowFilter[];
+    orderBy?: { column: string; descending?: boolean }[];
+    limit?: number; // ignored by preview, which pages with limit and offset
+    sample?: number; // fraction (0-1], needs a sampling key
+}
+
 export type Direction = 'clickhouse-to-file' | 'file-to-clickhouse';
 
 export interface PreviewDataProps {
@@ -0,0 +1,64 @@
+package com.clickhouse.ingestion.benchmark;
+
+import com.clickhouse.ingestion.model.Compression;
+import com.clickhouse.ingestion.service.IngestionProgress;
+import com.clickhouse.ingestion.support.BenchmarkFixture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ResultSet-to-CSV export through {@code exportToStream}, as used by file
+ * and download exports, writing to a discarding stream.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExportBenchmark {
+
+    @Param({"8", "32"})
+    public int width;
+
+    @Param({"100000"})
+    public long rows;
+
+    @Param({"NONE", "GZIP"})
+    public Compression compression;
+
+    private BenchmarkFixture fixture;
+    private List<String> columns;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fixture = new BenchmarkFixture(width, rows);
+        columns = fixture.getTable().columnNames();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public void exportToStream() {
+        fixture.getService().exportToStream(fixture.getConfig(), BenchmarkFixture.TABLE, columns,
+            OutputStream.nullOutputStream(), compression, IngestionProgress.NONE);
+    }
+}
@@ -0,0 +1,98 @@
+package com.clickhouse.ingestion.benchmark;
+
+import com.clickhouse.ingestion.service.IngestionProgress;
+import com.clickhouse.ingestion.support.BenchmarkFixture;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CSV ingest: parsing plus row building alone, and the full
+ * {@code ingestFromStream} path with typed binding into the JDBC stand-in.
+ * One operation is one pass over the whole data set.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IngestBenchmark {
+
+    @Param({"8", "32"})
+    public int width;
+
+    @Param({"100000"})
+    public long rows;
+
+    private BenchmarkFixture fixture;
+    private List<String> columns;
+    private byte[] csv;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fixture = new BenchmarkFixture(width, rows);
+        columns = fixture.getTable().columnNames();
+        csv = fixture.getTable().toCsv();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public void parseAndBuildRows(Blackhole blackhole) throws IOException {
+        try (Reader reader = new BufferedReader(
+                 new InputStreamReader(new ByteArrayInputStream(csv), StandardCharsets.UTF_8),
+                 fixture.getIngestionProperties().getReadBufferSize());
+             CSVParser parser = CSVFormat.DEFAULT.builder()
+                 .setHeader()
+                 .setSkipHeaderRecord(true)
+                 .build()
+                 .parse(reader)) {
+            int[] positions = new int[columns.size()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = parser.getHeaderMap().get(columns.get(i));
+            }
+            String[] row = new String[positions.length];
+            for (CSVRecord record : parser) {
+                for (int i = 0; i < positions.length; i++) {
+                    row[i] = record.get(positions[i]);
+                }
+                blackhole.consume(row);
+            }
+        }
+    }
+
+    @Benchmark
+    public long ingestFromStream() {
+        long before = fixture.getServer().getInsertedRows();
+        fixture.getService().ingestFromStream(fixture.getConfig(), BenchmarkFixture.TABLE, columns,
+            new ByteArrayInputStream(csv), 1, IngestionProgress.NONE);
+        return fixture.getServer().getInsertedRows() - before;
+    }
+}
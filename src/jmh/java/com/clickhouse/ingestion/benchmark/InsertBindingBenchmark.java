@@ -0,0 +1,132 @@
+package com.clickhouse.ingestion.benchmark;
+
+import com.clickhouse.ingestion.service.impl.BatchInserter;
+import com.clickhouse.ingestion.service.impl.ColumnConverter;
+import com.clickhouse.ingestion.support.BenchmarkFixture;
+import com.clickhouse.ingestion.support.SyntheticTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ways of getting already-parsed rows onto the wire: the legacy quoted
+ * string literal INSERT, prepared binding as strings and by column type, and
+ * the native format passthrough, which only copies bytes in the JVM.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InsertBindingBenchmark {
+
+    @Param({"8", "32"})
+    public int width;
+
+    @Param({"10000"})
+    public long rows;
+
+    private BenchmarkFixture fixture;
+    private List<String> columns;
+    private List<String[]> data;
+    private ColumnConverter[] converters;
+    private byte[] csv;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fixture = new BenchmarkFixture(width, rows);
+        SyntheticTable table = fixture.getTable();
+        columns = table.columnNames();
+        converters = BatchInserter.converters(columns, table.columnTypes());
+        data = new ArrayList<>();
+        for (long row = 0; row < rows; row++) {
+            String[] values = new String[width];
+            for (int column = 0; column < width; column++) {
+                values[column] = table.value(row, column);
+            }
+            data.add(values);
+        }
+        csv = table.toCsv();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.close();
+    }
+
+    /**
+     * The statement text built by the original string-literal insert path.
+     */
+    @Benchmark
+    public int literalValues() {
+        StringBuilder query = new StringBuilder("INSERT INTO ")
+            .append(BenchmarkFixture.TABLE)
+            .append(" (")
+            .append(String.join(", ", columns))
+            .append(") VALUES ");
+        boolean first = true;
+        for (String[] row : data) {
+            query.append(first ? "(" : ", (");
+            first = false;
+            for (int i = 0; i < row.length; i++) {
+                if (i > 0) {
+                    query.append(", ");
+                }
+                String value = row[i];
+                query.append(value == null ? "NULL" : "'" + value.replace("'", "''") + "'");
+            }
+            query.append(')');
+        }
+        return query.length();
+    }
+
+    @Benchmark
+    public long stringBinding() throws SQLException {
+        return insert(null);
+    }
+
+    @Benchmark
+    public long typedBinding() throws SQLException {
+        return insert(converters);
+    }
+
+    @Benchmark
+    public long nativePassthrough() throws IOException {
+        try (InputStream in = new ByteArrayInputStream(csv)) {
+            return in.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+    private long insert(ColumnConverter[] converters) throws SQLException {
+        try (Connection conn = fixture.getServer().connection();
+             BatchInserter inserter = new BatchInserter(conn, BenchmarkFixture.TABLE, columns, converters,
+                 fixture.getIngestionProperties().getBatchRows(), fixture.getIngestionProperties().getBatchBytes())) {
+            for (String[] row : data) {
+                inserter.add(row);
+            }
+            inserter.flush();
+            return inserter.getRowsWritten();
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package com.clickhouse.ingestion.benchmark;
+
+import com.clickhouse.ingestion.IngestionApplication;
+import com.clickhouse.ingestion.service.ClickHouseConnectionPool;
+import com.clickhouse.ingestion.support.BenchmarkFixture;
+import com.clickhouse.ingestion.support.FakeClickHouse;
+import com.clickhouse.ingestion.support.FakeConnectionPool;
+import com.clickhouse.ingestion.support.SyntheticTable;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+/**
+ * End-to-end load test: boots the application with {@link FakeClickHouse}
+ * in place of the connection pool and drives {@code /ingest},
+ * {@code /export/download} and {@code /preview/compact} through MockMvc, so
+ * that request binding, the controllers and the services are all measured.
+ * Each scenario sends {@code loadtest.requests} requests (ten times as many
+ * for the short preview) from {@code loadtest.concurrency} threads after a
+ * warmup, and reports rows/s, p50/p99 latency and the peak heap used.
+ *
+ * <p>Rows/s depend on the machine, so the check does not use them directly.
+ * A {@code reference} scenario, run before and after the others, hashes the
+ * fields of the ingest upload with plain JDK code, and each scenario is gated
+ * on its throughput relative to that one. The ratios are compared with the
+ * baseline file named by {@code loadtest.baseline}; a scenario more than
+ * {@code loadtest.tolerance} (a fraction, default 0.2) below its baseline
+ * ratio fails the run with exit code 1. Record new ratios with
+ * {@code -Dloadtest.update-baseline=true} after a change that is meant to
+ * move them. Data set sizes are set with
+ * {@code loadtest.width}, {@code loadtest.rows-per-request} and {@code loadtest.export-rows}.
+ */
+public final class LoadTest {
+    private static final int WIDTH = Integer.getInteger("loadtest.width", 8);
+    private static final int ROWS_PER_REQUEST = Integer.getInteger("loadtest.rows-per-request", 10_000);
+    private static final long EXPORT_ROWS = Long.getLong("loadtest.export-rows", 20_000);
+    private static final int PREVIEW_ROWS = 100;
+    private static final int REQUESTS = Integer.getInteger("loadtest.requests", 50);
+    private static final int WARMUP_REQUESTS = Integer.getInteger("loadtest.warmup-requests", 10);
+    private static final int CONCURRENCY = Integer.getInteger("loadtest.concurrency", 4);
+    private static final double TOLERANCE = Double.parseDouble(System.getProperty("loadtest.tolerance", "0.2"));
+    private static final String REFERENCE = "reference";
+    // Scenarios with requests much shorter than an ingest send this many times more, for a steady rate
+    private static final int SHORT_REQUEST_FACTOR = 10;
+
+    // Keeps the reference work from being optimized away
+    private static volatile long sink;
+
+    private LoadTest() {
+    }
+
+    /**
+     * Replaces the connection pool of the application with one serving the synthetic table.
+     */
+    static class StandIn {
+        @Bean
+        @Primary
+        ClickHouseConnectionPool fakeConnectionPool() {
+            return new FakeConnectionPool(new FakeClickHouse(BenchmarkFixture.TABLE,
+                new SyntheticTable(WIDTH, EXPORT_ROWS)));
+        }
+    }
+
+    static final class Result {
+        final String scenario;
+        final double rowsPerSecond;
+        final double p50Millis;
+        final double p99Millis;
+        final long peakHeapBytes;
+
+        Result(String scenario, double rowsPerSecond, double p50Millis, double p99Millis, long peakHeapBytes) {
+            this.scenario = scenario;
+            this.rowsPerSecond = rowsPerSecond;
+            this.p50Millis = p50Millis;
+            this.p99Millis = p99Millis;
+            this.peakHeapBytes = peakHeapBytes;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<Result> results = new ArrayList<>();
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(IngestionApplication.class,
+                StandIn.class)
+                // As arguments, so that they win over application.yml
+                .run("--server.port=0", "--logging.level.com.clickhouse.ingestion=WARN",
+                    "--file.upload.directory=target/loadtest/uploads",
+                    "--ingestion.reject-directory=target/loadtest/rejects")) {
+            MockMvc mvc = MockMvcBuilders.webAppContextSetup((WebApplicationContext) context).build();
+            SyntheticTable table = new SyntheticTable(WIDTH, ROWS_PER_REQUEST);
+            byte[] config = new ObjectMapper().writeValueAsBytes(Map.of(
+                "host", "localhost", "port", 8123, "database", "default", "username", "default"));
+            String[] columns = table.columnNames().toArray(new String[0]);
+
+            byte[] csv = table.toCsv();
+            results.add(run(REFERENCE, ROWS_PER_REQUEST, REQUESTS * SHORT_REQUEST_FACTOR, () -> reference(csv)));
+
+            MockMultipartFile configPart = new MockMultipartFile("config", "", MediaType.APPLICATION_JSON_VALUE, config);
+            MockMultipartFile filePart = new MockMultipartFile("file", "load.csv", "text/csv", csv);
+            results.add(run(mvc, "ingest", ROWS_PER_REQUEST, REQUESTS, () -> multipart("/api/ingestion/ingest")
+                .file(configPart)
+                .file(filePart)
+                .param("tableName", BenchmarkFixture.TABLE)
+                .param("columns", columns)));
+
+            results.add(run(mvc, "export", EXPORT_ROWS, REQUESTS, () -> post("/api/ingestion/export/download")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(config)
+                .param("tableName", BenchmarkFixture.TABLE)
+                .param("columns", columns)));
+
+            results.add(run(mvc, "preview", PREVIEW_ROWS, REQUESTS * SHORT_REQUEST_FACTOR,
+                () -> post("/api/ingestion/preview/compact")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(config)
+                .param("tableName", BenchmarkFixture.TABLE)
+                .param("limit", String.valueOf(PREVIEW_ROWS))));
+
+            // Measured again at the end, keeping the faster run, so that one slow moment does not skew every ratio
+            Result again = run(REFERENCE, ROWS_PER_REQUEST, REQUESTS * SHORT_REQUEST_FACTOR, () -> reference(csv));
+            if (again.rowsPerSecond > results.get(0).rowsPerSecond) {
+                results.set(0, again);
+            }
+        }
+
+        System.out.printf("%n%-10s %14s %10s %10s %12s%n", "scenario", "rows/s", "p50 ms", "p99 ms", "peak heap MB");
+        for (Result result : results) {
+            System.out.printf("%-10s %14.0f %10.2f %10.2f %12.1f%n", result.scenario, result.rowsPerSecond,
+                result.p50Millis, result.p99Millis, result.peakHeapBytes / (1024.0 * 1024.0));
+        }
+        String report = System.getProperty("loadtest.report");
+        if (report != null) {
+            writeReport(Paths.get(report), results);
+        }
+        String baseline = System.getProperty("loadtest.baseline");
+        if (baseline == null) {
+            return;
+        }
+        if (Boolean.getBoolean("loadtest.update-baseline")) {
+            writeBaseline(Paths.get(baseline), results);
+            System.out.println("Baseline written to " + baseline);
+            return;
+        }
+        if (!compare(Paths.get(baseline), results)) {
+            System.exit(1);
+        }
+    }
+
+    private static Result run(MockMvc mvc, String scenario, long rowsPerRequest, int requests,
+                              RequestSupplier request) throws Exception {
+        return run(scenario, rowsPerRequest, requests, () -> send(mvc, request.get()));
+    }
+
+    private static Result run(String scenario, long rowsPerRequest, int requests, Task task) throws Exception {
+        for (int i = 0; i < WARMUP_REQUESTS * requests / REQUESTS; i++) {
+            task.run();
+        }
+        System.gc();
+        List<MemoryPoolMXBean> heap = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heap.add(pool);
+            }
+        }
+
+        long[] latencies = new long[requests];
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(CONCURRENCY);
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < CONCURRENCY; t++) {
+                workers.add(executor.submit(() -> {
+                    for (int i = next.getAndIncrement(); i < requests; i = next.getAndIncrement()) {
+                        long sent = System.nanoTime();
+                        task.run();
+                        latencies[i] = System.nanoTime() - sent;
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        // Sum of the peaks of each pool, so an upper bound: the pools need not peak at the same moment
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : heap) {
+            peakHeap += pool.getPeakUsage().getUsed();
+        }
+        Arrays.sort(latencies);
+        return new Result(scenario, (double) requests * rowsPerRequest * 1e9 / elapsed,
+            percentile(latencies, 0.50) / 1e6, percentile(latencies, 0.99) / 1e6, peakHeap);
+    }
+
+    /**
+     * Decodes {@code csv} and hashes its fields, without any application code,
+     * as a measure of how fast this machine is.
+     */
+    private static void reference(byte[] csv) {
+        String text = new String(csv, StandardCharsets.UTF_8);
+        long hash = 0;
+        int field = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == ',' || c == '\n') {
+                hash = 31 * hash + field;
+                field = 0;
+            } else {
+                field = 31 * field + c;
+            }
+        }
+        sink = hash;
+    }
+
+    private static void send(MockMvc mvc, RequestBuilder request) throws Exception {
+        MvcResult result = mvc.perform(request).andReturn();
+        if (result.getRequest().isAsyncStarted()) {
+            // Streamed responses finish on a second dispatch
+            result.getAsyncResult();
+            result = mvc.perform(asyncDispatch(result)).andReturn();
+        }
+        int status = result.getResponse().getStatus();
+        if (status != 200) {
+            throw new IllegalStateException(result.getRequest().getRequestURI() + " returned " + status);
+        }
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)];
+    }
+
+    /**
+     * @return false if a scenario fell more than the tolerance below its baseline ratio to the reference
+     */
+    private static boolean compare(Path baseline, List<Result> results) throws IOException {
+        Properties expected = new Properties();
+        try (InputStream in = Files.newInputStream(baseline)) {
+            expected.load(in);
+        }
+        Map<String, Double> ratios = relativeThroughput(results);
+        boolean passed = true;
+        for (Map.Entry<String, Double> ratio : ratios.entrySet()) {
+            String value = expected.getProperty(ratio.getKey() + ".relative-throughput");
+            if (value == null) {
+                System.out.println(ratio.getKey() + ": no baseline");
+                continue;
+            }
+            double floor = Double.parseDouble(value) * (1 - TOLERANCE);
+            if (ratio.getValue() < floor) {
+                System.out.printf("%s: REGRESSION, %.4g of the reference is below %.4g (baseline %s - %.0f%%)%n",
+                    ratio.getKey(), ratio.getValue(), floor, value, TOLERANCE * 100);
+                passed = false;
+            } else {
+                System.out.printf("%s: ok, %.4g of the reference against baseline %s%n", ratio.getKey(),
+                    ratio.getValue(), value);
+            }
+        }
+        return passed;
+    }
+
+    /**
+     * Rows/s of each scenario divided by those of the reference scenario.
+     */
+    private static Map<String, Double> relativeThroughput(List<Result> results) {
+        double reference = results.stream()
+            .filter(result -> result.scenario.equals(REFERENCE))
+            .findFirst()
+            .orElseThrow()
+            .rowsPerSecond;
+        Map<String, Double> ratios = new LinkedHashMap<>();
+        for (Result result : results) {
+            if (!result.scenario.equals(REFERENCE)) {
+                ratios.put(result.scenario, result.rowsPerSecond / reference);
+            }
+        }
+        return ratios;
+    }
+
+    private static void writeBaseline(Path baseline, List<Result> results) throws IOException {
+        Map<String, String> values = new LinkedHashMap<>();
+        relativeThroughput(results).forEach((scenario, ratio) ->
+            values.put(scenario + ".relative-throughput", String.format(Locale.ROOT, "%.4g", ratio)));
+        write(baseline, values, "Load test throughput relative to the reference scenario, width=" + WIDTH
+            + " rows-per-request=" + ROWS_PER_REQUEST + " export-rows=" + EXPORT_ROWS + " concurrency=" + CONCURRENCY);
+    }
+
+    private static void writeReport(Path report, List<Result> results) throws IOException {
+        Map<String, String> values = new LinkedHashMap<>();
+        for (Result result : results) {
+            values.put(result.scenario + ".rows-per-second", String.valueOf(Math.round(result.rowsPerSecond)));
+            values.put(result.scenario + ".p50-millis", String.format("%.2f", result.p50Millis));
+            values.put(result.scenario + ".p99-millis", String.format("%.2f", result.p99Millis));
+            values.put(result.scenario + ".peak-heap-bytes", String.valueOf(result.peakHeapBytes));
+        }
+        relativeThroughput(results).forEach((scenario, ratio) ->
+            values.put(scenario + ".relative-throughput", String.format(Locale.ROOT, "%.4g", ratio)));
+        write(report, values, "Load test results");
+    }
+
+    private static void write(Path path, Map<String, String> values, String comment) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        StringBuilder text = new StringBuilder("# ").append(comment).append('\n');
+        values.forEach((key, value) -> text.append(key).append('=').append(value).append('\n'));
+        Files.writeString(path, text);
+    }
+
+    @FunctionalInterface
+    private interface RequestSupplier {
+        RequestBuilder get() throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface Task {
+        void run() throws Exception;
+    }
+}
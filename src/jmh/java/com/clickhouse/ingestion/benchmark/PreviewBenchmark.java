@@ -0,0 +1,66 @@
+package com.clickhouse.ingestion.benchmark;
+
+import com.clickhouse.ingestion.dto.PreviewOptions;
+import com.clickhouse.ingestion.dto.PreviewResult;
+import com.clickhouse.ingestion.support.BenchmarkFixture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Row map construction in {@code previewData} against the columnar
+ * {@code previewCompact} result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PreviewBenchmark {
+
+    @Param({"8", "32"})
+    public int width;
+
+    @Param({"100", "10000"})
+    public int limit;
+
+    private BenchmarkFixture fixture;
+    private PreviewOptions options;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fixture = new BenchmarkFixture(width, limit);
+        options = new PreviewOptions();
+        options.setLimit(limit);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> previewData() {
+        return fixture.getService().previewData(fixture.getConfig(), BenchmarkFixture.TABLE, limit);
+    }
+
+    @Benchmark
+    public PreviewResult previewCompact() {
+        return fixture.getService().previewCompact(fixture.getConfig(), BenchmarkFixture.TABLE, options);
+    }
+}
@@ -0,0 +1,25 @@
+package com.clickhouse.ingestion.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ProblemDetail;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+/**
+ * Answers requests that services refuse with {@link IllegalArgumentException},
+ * such as a filter on a column the table does not have, with 400 and the
+ * reason instead of 500.
+ */
+@Slf4j
+@RestControllerAdvice
+public class BadRequestAdvice {
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<ProblemDetail> badRequest(IllegalArgumentException e) {
+        log.debug("Request rejected: {}", e.getMessage());
+        return ResponseEntity.badRequest().body(ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST,
+            e.getMessage()));
+    }
+}
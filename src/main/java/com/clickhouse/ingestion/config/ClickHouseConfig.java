@@ -1,8 +1,16 @@
 package com.clickhouse.ingestion.config;
 
+import com.clickhouse.ingestion.model.ConnectionConfig;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The server under {@code clickhouse.*} becomes the connection profile
+ * {@code default}; {@code clickhouse.profiles.<id>.*} adds further ones.
+ */
 @Configuration
 @ConfigurationProperties(prefix = "clickhouse")
 public class ClickHouseConfig {
@@ -12,6 +20,7 @@ public class ClickHouseConfig {
     private String username;
     private String password;
     private String jwtToken;
+    private Map<String, ConnectionConfig> profiles = new LinkedHashMap<>();
 
     // Getters and Setters
     public String getHost() {
@@ -61,4 +70,12 @@ public class ClickHouseConfig {
     public void setJwtToken(String jwtToken) {
         this.jwtToken = jwtToken;
     }
-} 
\ No newline at end of file
+
+    public Map<String, ConnectionConfig> getProfiles() {
+        return profiles;
+    }
+
+    public void setProfiles(Map<String, ConnectionConfig> profiles) {
+        this.profiles = profiles;
+    }
+}
@@ -0,0 +1,22 @@
+package com.clickhouse.ingestion.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "clickhouse.pool")
+public class ConnectionPoolProperties {
+    // Upper bound of open connections per host/port/database/user
+    private int maxSizePerKey = 8;
+    private long acquireTimeoutMillis = 30_000;
+
+    // Connections idle for longer than this are closed by the evictor
+    private long idleTimeoutMillis = 300_000;
+    private long evictionIntervalMillis = 60_000;
+
+    // Connections idle for longer than this are checked with isValid() before reuse
+    private long validationIntervalMillis = 5_000;
+    private int validationTimeoutSeconds = 5;
+}
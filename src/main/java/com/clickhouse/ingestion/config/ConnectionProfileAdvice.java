@@ -0,0 +1,57 @@
+package com.clickhouse.ingestion.config;
+
+import com.clickhouse.ingestion.controller.ClickHouseController;
+import com.clickhouse.ingestion.controller.IngestionController;
+import com.clickhouse.ingestion.dto.MigrationRequest;
+import com.clickhouse.ingestion.model.ConnectionConfig;
+import com.clickhouse.ingestion.service.ConnectionProfileService;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.RequestBodyAdviceAdapter;
+
+import java.lang.reflect.Type;
+
+/**
+ * Replaces connection settings that name a profile with the profile itself,
+ * as request bodies are read, so that controllers and services only ever
+ * see complete settings. A migration must name both of its sides; neither
+ * falls back to the default profile.
+ */
+@ControllerAdvice(assignableTypes = {IngestionController.class, ClickHouseController.class})
+public class ConnectionProfileAdvice extends RequestBodyAdviceAdapter {
+    private final ConnectionProfileService profiles;
+
+    public ConnectionProfileAdvice(ConnectionProfileService profiles) {
+        this.profiles = profiles;
+    }
+
+    @Override
+    public boolean supports(MethodParameter parameter, Type targetType,
+                            Class<? extends HttpMessageConverter<?>> converterType) {
+        return parameter.getParameterType() == ConnectionConfig.class
+            || parameter.getParameterType() == MigrationRequest.class;
+    }
+
+    @Override
+    public Object afterBodyRead(Object body, HttpInputMessage inputMessage, MethodParameter parameter,
+                                Type targetType, Class<? extends HttpMessageConverter<?>> converterType) {
+        try {
+            if (body instanceof MigrationRequest) {
+                MigrationRequest request = (MigrationRequest) body;
+                if (request.getSource() == null || request.getTarget() == null) {
+                    throw new IllegalArgumentException("Migration needs both a source and a target connection");
+                }
+                request.setSource(profiles.resolve(request.getSource()));
+                request.setTarget(profiles.resolve(request.getTarget()));
+                return request;
+            }
+            return profiles.resolve((ConnectionConfig) body);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.clickhouse.ingestion.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "ingestion")
+public class IngestionProperties {
+    // A batch is sent as soon as either limit is reached
+    private int batchRows = 100_000;
+    private long batchBytes = 32L * 1024 * 1024;
+
+    // Parsed loads size batches by their round trip instead, between batch-min-rows and the limits above,
+    // and retry batches that fail with too many parts, too many queries or memory limit errors. Retries make
+    // delivery at-least-once: rows of a batch the server partly applied before failing are sent again.
+    // With insert-retries at 0, no copy of a pending batch is kept for a retry.
+    private boolean adaptiveBatching = true;
+    private int batchMinRows = 1_000;
+    private long batchTargetMillis = 2_000;
+    private int insertRetries = 5;
+    private long retryBackoffMillis = 500;
+    private long retryMaxBackoffMillis = 30_000;
+
+    // Size of the character buffer in front of the CSV parser
+    private int readBufferSize = 256 * 1024;
+
+    // Size of the character buffer in front of export output
+    private int writeBufferSize = 256 * 1024;
+
+    // Insert workers per parsed ingest, and batches queued ahead of them
+    private int parallelism = 1;
+    private int parallelQueueCapacity = 4;
+
+    // Rows that fail type conversion go to a CSV here; past max-rejects (negative: unlimited) the load fails
+    private String rejectDirectory = "./uploads/rejects";
+    private long maxRejects = 1000;
+
+    // Small uploads in BUFFER mode are combined per table into one INSERT of up to coalesce-rows or
+    // coalesce-bytes, sent at the latest coalesce-delay-millis after the oldest arrived. A table with
+    // coalesce-max-buffered-bytes waiting turns further uploads away; larger uploads are refused outright.
+    // Buffers sent on the delay go out on coalesce-flush-threads workers, and a buffer left empty for
+    // coalesce-idle-millis is dropped along with its meters.
+    private int coalesceRows = 100_000;
+    private long coalesceBytes = 16L * 1024 * 1024;
+    private long coalesceDelayMillis = 1_000;
+    private long coalesceMaxBufferedBytes = 64L * 1024 * 1024;
+    private int coalesceFlushThreads = 2;
+    private long coalesceIdleMillis = 60_000;
+
+    // Largest page the compact preview returns; larger limits are a bad request
+    private int previewMaxRows = 10_000;
+
+    // Asynchronous jobs: running at once, waiting in the queue, and how long finished ones stay queryable
+    private int maxConcurrentJobs = 4;
+    private int maxQueuedJobs = 16;
+    private long jobRetentionMillis = 3_600_000;
+}
@@ -0,0 +1,14 @@
+package com.clickhouse.ingestion.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "ingestion.metadata-cache")
+public class MetadataCacheProperties {
+    private long ttlMillis = 60_000;
+    // Entries per cache (table lists and column lists are cached separately)
+    private long maxEntries = 10_000;
+}
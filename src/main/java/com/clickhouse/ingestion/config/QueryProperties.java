@@ -0,0 +1,17 @@
+package com.clickhouse.ingestion.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "query")
+public class QueryProperties {
+    // Upper bounds for ad-hoc queries, enforced by the server; requests may only ask for less
+    private long maxResultRows = 1_000_000;
+    private int maxExecutionTimeSeconds = 60;
+
+    // Largest page a paged query may ask for
+    private int maxPageSize = 10_000;
+}
@@ -1,32 +1,50 @@
 package com.clickhouse.ingestion.controller;
 
-import com.clickhouse.ingestion.config.ClickHouseConfig;
+import com.clickhouse.ingestion.dto.QueryRequest;
+import com.clickhouse.ingestion.model.ConnectionConfig;
 import com.clickhouse.ingestion.service.ClickHouseService;
+import com.clickhouse.ingestion.service.ConnectionProfileService;
+import com.clickhouse.ingestion.service.QueryService;
+import com.clickhouse.ingestion.service.impl.RowRejectedException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.sql.ResultSet;
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.List;
 
+/**
+ * Direct access to a ClickHouse server. The connection is the request body,
+ * usually just {@code {"profileId": "..."}}; without a body the default
+ * profile from {@code clickhouse.*} is used.
+ */
+@Slf4j
 @RestController
-@RequestMapping("/api/ingestion")
+@RequestMapping("/api/clickhouse")
 public class ClickHouseController {
     private final ClickHouseService clickHouseService;
+    private final QueryService queryService;
+    private final ConnectionProfileService profiles;
 
-    public ClickHouseController(ClickHouseService clickHouseService) {
+    public ClickHouseController(ClickHouseService clickHouseService, QueryService queryService,
+                                ConnectionProfileService profiles) {
         this.clickHouseService = clickHouseService;
+        this.queryService = queryService;
+        this.profiles = profiles;
     }
 
     @PostMapping("/test-connection")
-    public ResponseEntity<Boolean> testConnection(@RequestBody ClickHouseConfig config) {
-        return ResponseEntity.ok(clickHouseService.testConnection());
+    public ResponseEntity<Boolean> testConnection(@RequestBody(required = false) ConnectionConfig config) {
+        return ResponseEntity.ok(clickHouseService.testConnection(orDefault(config)));
     }
 
     @PostMapping("/tables")
-    public ResponseEntity<List<String>> getTables(@RequestBody ClickHouseConfig config) {
+    public ResponseEntity<List<String>> getTables(@RequestBody(required = false) ConnectionConfig config) {
         try {
-            return ResponseEntity.ok(clickHouseService.getTables());
+            return ResponseEntity.ok(clickHouseService.getTables(orDefault(config)));
         } catch (SQLException e) {
             return ResponseEntity.badRequest().build();
         }
@@ -34,44 +52,75 @@ public class ClickHouseController {
 
     @PostMapping("/columns")
     public ResponseEntity<List<String>> getColumns(
-            @RequestBody ClickHouseConfig config,
+            @RequestBody(required = false) ConnectionConfig config,
             @RequestParam String tableName) {
         try {
-            return ResponseEntity.ok(clickHouseService.getColumns(tableName));
+            return ResponseEntity.ok(clickHouseService.getColumns(orDefault(config), tableName));
         } catch (SQLException e) {
             return ResponseEntity.badRequest().build();
         }
     }
 
+    /**
+     * Streams the result of an ad-hoc query in the requested format; see {@link QueryRequest}
+     * for paging and limits.
+     */
     @PostMapping("/query")
-    public ResponseEntity<String> executeQuery(
-            @RequestBody ClickHouseConfig config,
-            @RequestParam String query) {
+    public ResponseEntity<StreamingResponseBody> executeQuery(
+            @RequestBody(required = false) ConnectionConfig config,
+            @ModelAttribute QueryRequest request) {
+        QueryService.PreparedQuery query;
         try {
-            ResultSet resultSet = clickHouseService.executeQuery(query);
-            // Convert ResultSet to JSON or CSV format
-            // This is a simplified example
-            StringBuilder result = new StringBuilder();
-            while (resultSet.next()) {
-                result.append(resultSet.getString(1)).append("\n");
-            }
-            return ResponseEntity.ok(result.toString());
-        } catch (SQLException e) {
+            query = queryService.prepare(request);
+        } catch (IllegalArgumentException e) {
             return ResponseEntity.badRequest().build();
         }
+        ConnectionConfig target = orDefault(config);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+            .contentType(MediaType.parseMediaType(query.getFormat().getContentType()))
+            .header("X-Query-Id", query.getQueryId());
+        if (query.getNextPageToken() != null) {
+            response.header("X-Next-Page-Token", query.getNextPageToken());
+        }
+        return response.body(out -> {
+            try {
+                queryService.stream(target, query, out);
+            } catch (SQLException e) {
+                throw new IOException("Query " + query.getQueryId() + " failed: " + e.getMessage(), e);
+            }
+        });
     }
 
+    /**
+     * Inserts the rows of the body. The body carries the data, so the
+     * connection is named by {@code profileId} (default profile if absent).
+     */
     @PostMapping("/ingest")
     public ResponseEntity<Void> ingestData(
-            @RequestBody ClickHouseConfig config,
+            @RequestParam(required = false) String profileId,
             @RequestParam String tableName,
             @RequestParam List<String> columns,
             @RequestBody List<List<String>> data) {
+        ConnectionConfig config;
+        try {
+            ConnectionConfig requested = new ConnectionConfig();
+            requested.setProfileId(profileId != null ? profileId : ConnectionProfileService.DEFAULT_PROFILE);
+            config = profiles.resolve(requested);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
         try {
-            clickHouseService.executeInsert(tableName, columns, data);
+            clickHouseService.executeInsert(config, tableName, columns, data);
             return ResponseEntity.ok().build();
         } catch (SQLException e) {
             return ResponseEntity.badRequest().build();
+        } catch (RowRejectedException | IllegalArgumentException e) {
+            log.debug("Insert into {} rejected: {}", tableName, e.getMessage());
+            return ResponseEntity.badRequest().build();
         }
     }
-} 
\ No newline at end of file
+
+    private ConnectionConfig orDefault(ConnectionConfig config) {
+        return config != null ? config : profiles.resolve(null);
+    }
+}
@@ -0,0 +1,39 @@
+package com.clickhouse.ingestion.controller;
+
+import com.clickhouse.ingestion.model.ConnectionConfig;
+import com.clickhouse.ingestion.service.ConnectionProfileService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+/**
+ * Manages server-side connection profiles. Passwords and tokens are accepted
+ * but never returned. Profiles from configuration, {@code default} among
+ * them, are read-only here: writing or deleting one is a bad request.
+ */
+@RestController
+@RequestMapping("/api/profiles")
+public class ConnectionProfileController {
+    private final ConnectionProfileService profiles;
+
+    public ConnectionProfileController(ConnectionProfileService profiles) {
+        this.profiles = profiles;
+    }
+
+    @GetMapping
+    public ResponseEntity<List<ConnectionConfig>> getProfiles() {
+        return ResponseEntity.ok(profiles.list());
+    }
+
+    @PutMapping("/{profileId}")
+    public ResponseEntity<Void> saveProfile(@PathVariable String profileId, @RequestBody ConnectionConfig profile) {
+        profiles.save(profileId, profile);
+        return ResponseEntity.noContent().build();
+    }
+
+    @DeleteMapping("/{profileId}")
+    public ResponseEntity<Void> deleteProfile(@PathVariable String profileId) {
+        return profiles.delete(profileId) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
+}
@@ -1,16 +1,60 @@
 package com.clickhouse.ingestion.controller;
 
+import com.clickhouse.ingestion.config.IngestionProperties;
+import com.clickhouse.ingestion.dto.IncrementalExportOptions;
+import com.clickhouse.ingestion.dto.IngestionRequest;
+import com.clickhouse.ingestion.dto.IngestionStatus;
+import com.clickhouse.ingestion.dto.MigrationRequest;
+import com.clickhouse.ingestion.dto.PartitionedExportOptions;
+import com.clickhouse.ingestion.dto.PreviewOptions;
+import com.clickhouse.ingestion.dto.PreviewResult;
+import com.clickhouse.ingestion.dto.RowSelection;
+import com.clickhouse.ingestion.dto.UploadStatus;
+import com.clickhouse.ingestion.format.FileFormat;
+import com.clickhouse.ingestion.format.FileFormats;
+import com.clickhouse.ingestion.format.RecordReader;
+import com.clickhouse.ingestion.format.RowFileFormat;
+import com.clickhouse.ingestion.model.Checkpoint;
+import com.clickhouse.ingestion.model.CacheMetrics;
+import com.clickhouse.ingestion.model.Compression;
 import com.clickhouse.ingestion.model.ConnectionConfig;
+import com.clickhouse.ingestion.model.DataFormat;
+import com.clickhouse.ingestion.model.PoolMetrics;
+import com.clickhouse.ingestion.model.SmallUploadMode;
+import com.clickhouse.ingestion.model.Watermark;
+import com.clickhouse.ingestion.service.CheckpointStore;
+import com.clickhouse.ingestion.service.ClickHouseConnectionPool;
+import com.clickhouse.ingestion.service.IngestionJobService;
+import com.clickhouse.ingestion.service.IngestionProgress;
+import com.clickhouse.ingestion.service.SchemaMetadataCache;
 import com.clickhouse.ingestion.service.IngestionService;
+import com.clickhouse.ingestion.service.InsertCoalescer;
+import com.clickhouse.ingestion.service.UploadStore;
+import com.clickhouse.ingestion.service.WatermarkStore;
+import com.clickhouse.ingestion.service.impl.RowRejectedException;
+import com.clickhouse.ingestion.util.CountingInputStream;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
+@Slf4j
 @RestController
 @RequestMapping("/api/ingestion")
 @RequiredArgsConstructor
@@ -20,52 +64,439 @@ public class IngestionController {
     @Autowired
     private IngestionService ingestionService;
 
+    @Autowired
+    private ClickHouseConnectionPool connectionPool;
+
+    @Autowired
+    private IngestionJobService ingestionJobService;
+
+    @Autowired
+    private SchemaMetadataCache metadataCache;
+
+    @Autowired
+    private UploadStore uploadStore;
+
+    @Autowired
+    private CheckpointStore checkpointStore;
+
+    @Autowired
+    private WatermarkStore watermarkStore;
+
+    @Autowired
+    private InsertCoalescer insertCoalescer;
+
+    @Autowired
+    private IngestionProperties ingestionProperties;
+
     @PostMapping("/test-connection")
     public ResponseEntity<Void> testConnection(@RequestBody ConnectionConfig config) {
-        System.out.println("Testing connection with config: " + config);
+        log.debug("Testing connection to {}:{}/{}", config.getHost(), config.getPort(), config.getDatabase());
         ingestionService.testConnection(config);
         return ResponseEntity.ok().build();
     }
 
     @PostMapping("/tables")
     public ResponseEntity<List<String>> getTables(@RequestBody ConnectionConfig config) {
-        System.out.println("Received getTables request with config: " + config);
         List<String> tables = ingestionService.getTables(config);
-        System.out.println("Returning tables: " + tables);
+        log.debug("Found {} tables in {}", tables.size(), config.getDatabase());
         return ResponseEntity.ok(tables);
     }
 
     @PostMapping("/columns")
     public ResponseEntity<List<String>> getColumns(@RequestBody ConnectionConfig config, 
                                                  @RequestParam String tableName) {
-        System.out.println("Received getColumns request for table: " + tableName + " with config: " + config);
         List<String> columns = ingestionService.getColumns(config, tableName);
-        System.out.println("Returning columns: " + columns);
+        log.debug("Found {} columns in {}", columns.size(), tableName);
         return ResponseEntity.ok(columns);
     }
 
+    @PostMapping("/columns/types")
+    public ResponseEntity<Map<String, String>> getColumnTypes(@RequestBody ConnectionConfig config,
+                                                              @RequestParam String tableName) {
+        return ResponseEntity.ok(ingestionService.getColumnTypes(config, tableName));
+    }
+
+    @PostMapping("/cache/invalidate")
+    public ResponseEntity<Void> invalidateMetadataCache(@RequestBody ConnectionConfig config,
+                                                        @RequestParam(required = false) String tableName) {
+        if (tableName == null) {
+            metadataCache.invalidateAll(config);
+        } else {
+            metadataCache.invalidate(config, tableName);
+        }
+        return ResponseEntity.ok().build();
+    }
+
+    @GetMapping("/cache/metrics")
+    public ResponseEntity<List<CacheMetrics>> getCacheMetrics() {
+        return ResponseEntity.ok(metadataCache.getMetrics());
+    }
+
+    /**
+     * Loads an uploaded file. Its file format ({@code CSV}, {@code NDJSON} or
+     * {@code PARQUET}) is taken from {@code fileFormat} or else the file name;
+     * a {@code .gz}, {@code .zst} or {@code .lz4} file is decompressed on the
+     * fly unless {@code compression} says otherwise. Producers sending many
+     * small files should set {@code smallUpload}; see {@link SmallUploadMode}.
+     */
     @PostMapping("/ingest")
     public ResponseEntity<Void> ingestFromFile(@RequestPart ConnectionConfig config,
                                              @RequestParam String tableName,
                                              @RequestParam List<String> columns,
-                                             @RequestPart MultipartFile file) {
-        ingestionService.ingestFromFile(config, tableName, columns, file);
+                                             @RequestPart MultipartFile file,
+                                             @RequestParam(required = false) DataFormat format,
+                                             @RequestParam(required = false) Integer parallelism,
+                                             @RequestParam(required = false) Compression compression,
+                                             @RequestParam(required = false) String fileFormat,
+                                             @RequestParam(required = false) SmallUploadMode smallUpload) {
+        if (smallUpload == SmallUploadMode.BUFFER) {
+            return ingestBuffered(config, tableName, columns, file, format, compression, fileFormat);
+        }
+        if (smallUpload == SmallUploadMode.ASYNC_INSERT) {
+            config.setAsyncInsert(true);
+        }
+        if (format == null && parallelism == null && compression == null && fileFormat == null
+                && FileFormats.forFileName(file.getOriginalFilename()) == FileFormats.CSV) {
+            ingestionService.ingestFromFile(config, tableName, columns, file);
+            return ResponseEntity.ok().build();
+        }
+        Compression codec = compression != null ? compression : Compression.forFileName(file.getOriginalFilename());
+        try (InputStream input = file.getInputStream()) {
+            if (format != null) {
+                ingestionService.ingestNative(config, tableName, columns, input, format, codec, IngestionProgress.NONE);
+            } else {
+                ingestionService.ingestFile(config, tableName, columns, input, fileFormat(fileFormat, file), codec,
+                    parallelism != null ? parallelism : ingestionProperties.getParallelism(), IngestionProgress.NONE);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read upload", e);
+        }
         return ResponseEntity.ok().build();
     }
 
+    /**
+     * Parses a small upload and hands its rows to the table's coalescing
+     * buffer, returning once the combined INSERT they went out in succeeds.
+     */
+    private ResponseEntity<Void> ingestBuffered(ConnectionConfig config, String tableName, List<String> columns,
+                                                MultipartFile file, DataFormat format, Compression compression,
+                                                String fileFormat) {
+        FileFormat parsed = fileFormat(fileFormat, file);
+        if (format != null || !(parsed instanceof RowFileFormat)) {
+            return ResponseEntity.badRequest().build(); // passthrough bytes cannot be merged with other uploads
+        }
+        RowFileFormat reader = (RowFileFormat) parsed;
+        Compression codec = compression != null ? compression : Compression.forFileName(file.getOriginalFilename());
+        List<String[]> rows = new ArrayList<>();
+        // The limit is on what gets buffered, so count the bytes after decompression
+        CountingInputStream decompressed;
+        try {
+            decompressed = new CountingInputStream(codec.decompress(file.getInputStream()));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read upload", e);
+        }
+        try (RecordReader records = reader.openReader(decompressed, columns, ingestionProperties.getReadBufferSize())) {
+            String[] row = new String[columns.size()];
+            while (records.next(row)) {
+                if (decompressed.getCount() > ingestionProperties.getCoalesceBytes()) {
+                    return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+                }
+                rows.add(row.clone());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read upload", e);
+        }
+        if (decompressed.getCount() > ingestionProperties.getCoalesceBytes()) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        }
+        try {
+            insertCoalescer.insert(config, tableName, columns, rows, decompressed.getCount());
+            return ResponseEntity.ok().build();
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
+        } catch (RowRejectedException | IllegalArgumentException e) {
+            log.debug("Buffered upload to {} rejected: {}", tableName, e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @PostMapping("/ingestion/start")
+    public ResponseEntity<Map<String, String>> startIngestion(@RequestPart ConnectionConfig config,
+                                                              @RequestParam String tableName,
+                                                              @RequestParam List<String> columns,
+                                                              @RequestPart MultipartFile file,
+                                                              @RequestParam(required = false) DataFormat format,
+                                                              @RequestParam(required = false) Integer parallelism,
+                                                              @RequestParam(required = false) Compression compression,
+                                                              @RequestParam(required = false) String fileFormat) {
+        try {
+            String jobId = ingestionJobService.submitIngest(config, tableName, columns, file, format,
+                fileFormat(fileFormat, file), parallelism,
+                compression != null ? compression : Compression.forFileName(file.getOriginalFilename()));
+            return ResponseEntity.accepted().body(Map.of("jobId", jobId));
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
+        }
+    }
+
+    @PostMapping("/uploads")
+    public ResponseEntity<UploadStatus> createUpload() throws IOException {
+        return ResponseEntity.ok(new UploadStatus(uploadStore.create(), 0));
+    }
+
+    /**
+     * Creates an upload from the whole request body in one go, streamed to
+     * disk without servlet-side buffering.
+     */
+    @PostMapping(path = "/uploads", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<UploadStatus> spoolUpload(InputStream body) throws IOException {
+        String uploadId = uploadStore.create();
+        return ResponseEntity.ok(new UploadStatus(uploadId, uploadStore.append(uploadId, 0, body)));
+    }
+
+    /**
+     * Appends the request body to an upload. {@code offset} must be the size
+     * staged so far; on a mismatch the current size is returned with 409 so
+     * the client can continue from there.
+     */
+    @PutMapping(path = "/uploads/{uploadId}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<UploadStatus> appendUpload(@PathVariable String uploadId,
+                                                     @RequestParam long offset,
+                                                     InputStream body) throws IOException {
+        if (uploadStore.size(uploadId) < 0) {
+            return ResponseEntity.notFound().build();
+        }
+        try {
+            return ResponseEntity.ok(new UploadStatus(uploadId, uploadStore.append(uploadId, offset, body)));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                .body(new UploadStatus(uploadId, uploadStore.size(uploadId)));
+        }
+    }
+
+    @GetMapping("/uploads/{uploadId}")
+    public ResponseEntity<UploadStatus> getUpload(@PathVariable String uploadId) throws IOException {
+        long size = uploadStore.size(uploadId);
+        return size < 0 ? ResponseEntity.notFound().build() : ResponseEntity.ok(new UploadStatus(uploadId, size));
+    }
+
+    @DeleteMapping("/uploads/{uploadId}")
+    public ResponseEntity<Void> deleteUpload(@PathVariable String uploadId) throws IOException {
+        uploadStore.delete(uploadId);
+        checkpointStore.delete(uploadId);
+        return ResponseEntity.noContent().build();
+    }
+
+    /**
+     * Starts, or resumes from its checkpoint, a load of a staged upload.
+     */
+    @PostMapping("/ingestion/resumable")
+    public ResponseEntity<Map<String, String>> startResumableIngestion(@RequestBody ConnectionConfig config,
+                                                                       @RequestParam String uploadId,
+                                                                       @RequestParam String tableName,
+                                                                       @RequestParam List<String> columns) {
+        try {
+            String jobId = ingestionJobService.submitResumable(config, tableName, columns, uploadId);
+            return ResponseEntity.accepted().body(Map.of("jobId", jobId));
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
+        }
+    }
+
+    /**
+     * Loads a staged CSV upload with segmented parallel parsing. Uses
+     * {@code tableName}, {@code selectedColumns}, {@code delimiter} and
+     * {@code charset} of the request; the connection comes from the body.
+     */
+    @PostMapping("/ingestion/spooled")
+    public ResponseEntity<Map<String, String>> startSpooledIngestion(@RequestBody ConnectionConfig config,
+                                                                     @RequestParam String uploadId,
+                                                                     @ModelAttribute IngestionRequest request,
+                                                                     @RequestParam(required = false) Integer parallelism) {
+        String delimiter = request.getDelimiter() == null || request.getDelimiter().isEmpty()
+            ? "," : request.getDelimiter();
+        if (delimiter.length() != 1) {
+            throw new IllegalArgumentException("Delimiter must be a single character");
+        }
+        Charset charset = request.getCharset() == null || request.getCharset().isBlank()
+            ? StandardCharsets.UTF_8 : Charset.forName(request.getCharset());
+        try {
+            String jobId = ingestionJobService.submitSpooled(config, request.getTableName(),
+                request.getSelectedColumns(), uploadId, charset, delimiter.charAt(0), parallelism);
+            return ResponseEntity.accepted().body(Map.of("jobId", jobId));
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
+        }
+    }
+
+    @GetMapping("/ingestion/checkpoints/{uploadId}")
+    public ResponseEntity<Checkpoint> getCheckpoint(@PathVariable String uploadId) throws IOException {
+        Checkpoint checkpoint = checkpointStore.load(uploadId);
+        return checkpoint == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(checkpoint);
+    }
+
+    /**
+     * Exports the selected columns as a job, of the rows of {@code selection} only if given;
+     * see {@link RowSelection}.
+     */
+    @PostMapping("/ingestion/export")
+    public ResponseEntity<Map<String, String>> startExport(@RequestBody ConnectionConfig config,
+                                                           @RequestParam String tableName,
+                                                           @RequestParam List<String> columns,
+                                                           @RequestParam String filePath,
+                                                           @ModelAttribute RowSelection selection) {
+        try {
+            String jobId = ingestionJobService.submitExport(config, tableName, columns, selection, filePath);
+            return ResponseEntity.accepted().body(Map.of("jobId", jobId));
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
+        }
+    }
+
+    @PostMapping("/ingestion/export/partitioned")
+    public ResponseEntity<Map<String, String>> startPartitionedExport(@RequestBody ConnectionConfig config,
+                                                                      @RequestParam String tableName,
+                                                                      @RequestParam List<String> columns,
+                                                                      @RequestParam String filePath,
+                                                                      @ModelAttribute PartitionedExportOptions options) {
+        try {
+            String jobId = ingestionJobService.submitPartitionedExport(config, tableName, columns, filePath, options);
+            return ResponseEntity.accepted().body(Map.of("jobId", jobId));
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
+        }
+    }
+
+    /**
+     * Exports the rows added since the last run to the same destination as a job;
+     * see {@link IncrementalExportOptions}.
+     */
+    @PostMapping("/ingestion/export/incremental")
+    public ResponseEntity<Map<String, String>> startIncrementalExport(@RequestBody ConnectionConfig config,
+                                                                      @RequestParam String tableName,
+                                                                      @RequestParam List<String> columns,
+                                                                      @RequestParam String filePath,
+                                                                      @ModelAttribute IncrementalExportOptions options) {
+        try {
+            String jobId = ingestionJobService.submitIncrementalExport(config, tableName, columns, filePath, options);
+            return ResponseEntity.accepted().body(Map.of("jobId", jobId));
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
+        }
+    }
+
+    @GetMapping("/export/watermarks")
+    public ResponseEntity<List<Watermark>> getWatermarks() throws IOException {
+        return ResponseEntity.ok(watermarkStore.list());
+    }
+
+    /**
+     * Forgets a watermark, so that the next incremental export starts over from the first row.
+     */
+    @DeleteMapping("/export/watermarks/{id}")
+    public ResponseEntity<Void> deleteWatermark(@PathVariable String id) throws IOException {
+        return watermarkStore.delete(id) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Copies a table between two ClickHouse servers as a job; see {@link MigrationRequest}.
+     */
+    @PostMapping("/ingestion/migrate")
+    public ResponseEntity<Map<String, String>> startMigration(@RequestBody MigrationRequest request) {
+        try {
+            String jobId = ingestionJobService.submitMigration(request);
+            return ResponseEntity.accepted().body(Map.of("jobId", jobId));
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
+        }
+    }
+
+    @GetMapping("/ingestion/status/{jobId}")
+    public ResponseEntity<IngestionStatus> getIngestionStatus(@PathVariable String jobId) {
+        IngestionStatus status = ingestionJobService.getStatus(jobId);
+        return status == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(status);
+    }
+
+    @GetMapping("/ingestion/jobs")
+    public ResponseEntity<List<IngestionStatus>> getIngestionJobs() {
+        return ResponseEntity.ok(ingestionJobService.getJobs());
+    }
+
+    @PostMapping("/ingestion/cancel/{jobId}")
+    public ResponseEntity<Void> cancelIngestion(@PathVariable String jobId) {
+        return ingestionJobService.cancel(jobId)
+            ? ResponseEntity.accepted().build()
+            : ResponseEntity.notFound().build();
+    }
+
     @PostMapping("/export")
     public ResponseEntity<Void> exportToFile(@RequestBody ConnectionConfig config,
                                            @RequestParam String tableName,
                                            @RequestParam List<String> columns,
-                                           @RequestParam String filePath) {
-        ingestionService.exportToFile(config, tableName, columns, filePath);
+                                           @RequestParam String filePath,
+                                           @ModelAttribute RowSelection selection) {
+        ingestionService.exportToFile(config, tableName, columns, selection, filePath, IngestionProgress.NONE);
         return ResponseEntity.ok().build();
     }
 
+    /**
+     * Streams the table as a download, in a ClickHouse passthrough
+     * {@code format} or else in {@code fileFormat} (CSV by default), of the
+     * rows of {@code selection} only if given.
+     */
+    @PostMapping("/export/download")
+    public ResponseEntity<StreamingResponseBody> downloadExport(@RequestBody ConnectionConfig config,
+                                                                @RequestParam String tableName,
+                                                                @RequestParam List<String> columns,
+                                                                @RequestParam(required = false) String fileName,
+                                                                @RequestParam(defaultValue = "NONE") Compression compression,
+                                                                @RequestParam(required = false) DataFormat format,
+                                                                @RequestParam(defaultValue = "CSV") String fileFormat,
+                                                                @ModelAttribute RowSelection selection) {
+        FileFormat writer = FileFormats.forName(fileFormat);
+        // Once the body streams the status is sent, so a bad selection has to be refused here
+        ingestionService.validateSelection(config, tableName, columns, selection);
+        String extension = format == null ? writer.getExtensions().get(0) : format.getExtension();
+        String name = (fileName == null || fileName.isBlank() ? tableName + extension : fileName)
+            + compression.getExtension();
+        StreamingResponseBody body = format == null
+            ? out -> ingestionService.exportFile(config, tableName, columns, selection, out, writer, compression,
+                IngestionProgress.NONE)
+            : out -> ingestionService.exportNative(config, tableName, columns, selection, out, format, compression,
+                IngestionProgress.NONE);
+        String contentType = compression != Compression.NONE ? compression.getContentType()
+            : format == null ? writer.getContentType() : format.getContentType();
+        // No Content-Length, so the response goes out with chunked transfer encoding
+        return ResponseEntity.ok()
+            .contentType(MediaType.parseMediaType(contentType))
+            .header(HttpHeaders.CONTENT_DISPOSITION,
+                ContentDisposition.attachment().filename(name).build().toString())
+            .body(body);
+    }
+
     @PostMapping("/preview")
     public ResponseEntity<List<Map<String, Object>>> previewData(@RequestBody ConnectionConfig config,
                                                                @RequestParam String tableName,
                                                                @RequestParam(defaultValue = "100") int limit) {
         return ResponseEntity.ok(ingestionService.previewData(config, tableName, limit));
     }
-} 
\ No newline at end of file
+
+    /**
+     * Columnar, paged preview of selected columns; see {@link PreviewOptions}.
+     */
+    @PostMapping("/preview/compact")
+    public ResponseEntity<PreviewResult> previewCompact(@RequestBody ConnectionConfig config,
+                                                        @RequestParam String tableName,
+                                                        @ModelAttribute PreviewOptions options) {
+        return ResponseEntity.ok(ingestionService.previewCompact(config, tableName, options));
+    }
+
+    @GetMapping("/pool/metrics")
+    public ResponseEntity<List<PoolMetrics>> getPoolMetrics() {
+        return ResponseEntity.ok(connectionPool.getMetrics());
+    }
+
+    private static FileFormat fileFormat(String name, MultipartFile file) {
+        return name != null ? FileFormats.forName(name) : FileFormats.forFileName(file.getOriginalFilename());
+    }
+}
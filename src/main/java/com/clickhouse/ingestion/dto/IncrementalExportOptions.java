@@ -0,0 +1,12 @@
+package com.clickhouse.ingestion.dto;
+
+import com.clickhouse.ingestion.model.TimeBucket;
+import lombok.Data;
+
+@Data
+public class IncrementalExportOptions {
+    private String watermarkColumn; // a Date/DateTime or monotonically growing numeric column
+    // Names the feed the watermark is kept for; defaults to the file path, set it when file names vary per run
+    private String destination;
+    private TimeBucket bucket; // null: one file for the whole range; otherwise one file per non-empty bucket
+}
@@ -20,5 +20,6 @@ public class IngestionRequest {
     // Flat File specific
     private String filePath;
     private String delimiter;
+    private String charset; // defaults to UTF-8
     private String outputFileName;
 } 
\ No newline at end of file
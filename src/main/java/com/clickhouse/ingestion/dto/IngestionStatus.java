@@ -0,0 +1,31 @@
+package com.clickhouse.ingestion.dto;
+
+import com.clickhouse.ingestion.model.JobStatus;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class IngestionStatus {
+    private String jobId;
+    private String type; // "INGEST", "EXPORT" or "MIGRATE"
+    private String tableName;
+    private JobStatus status;
+    private double progress; // 0-100, or -1 when the total is unknown
+    private long rowsProcessed;
+    private long bytesProcessed;
+    private long rowsRejected;
+    private String rejectFile; // set once a row has been rejected
+    private long totalRows;
+    private long totalBytes;
+    private double rowsPerSecond;
+    private double bytesPerSecond;
+    private long batchesInserted;
+    private long insertMillis; // summed over insert workers, so may exceed the wall time
+    private long parseMillis;
+    private long etaSeconds; // -1 when unknown
+    private long startedAt;
+    private long finishedAt;
+    private String error;
+    private List<ShardStatus> shards; // only for jobs split into shards or partitions
+}
@@ -0,0 +1,26 @@
+package com.clickhouse.ingestion.dto;
+
+import com.clickhouse.ingestion.model.ConnectionConfig;
+import com.clickhouse.ingestion.model.MigrationMode;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class MigrationRequest {
+    private ConnectionConfig source;
+    private ConnectionConfig target;
+    private String sourceTable;
+    private String targetTable; // defaults to sourceTable; must already exist
+    private List<String> columns; // empty: all columns of the source table
+    private MigrationMode mode = MigrationMode.AUTO;
+    // Named collection on the target holding the source address and credentials for remote(), so that
+    // no password appears in the query; see MigrationMode.REMOTE
+    private String remoteCollection;
+    // Native-protocol address the target uses to reach the source with remote() when there is no
+    // remote collection; defaults to source host:9000
+    private String remoteAddress;
+    private int parallelism = 4; // partitions copied at once
+    // Compare row count and sum(cityHash64(columns)) of each partition on both sides afterwards
+    private boolean verify = true;
+}
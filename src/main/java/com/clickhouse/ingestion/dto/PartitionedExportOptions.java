@@ -0,0 +1,14 @@
+package com.clickhouse.ingestion.dto;
+
+import com.clickhouse.ingestion.model.ShardStrategy;
+import lombok.Data;
+
+@Data
+public class PartitionedExportOptions {
+    private ShardStrategy strategy = ShardStrategy.HASH;
+    private String shardKey; // HASH defaults to all exported columns; required for RANGE
+    private int shards = 8;
+    private int parallelism = 4;
+    // true: one file, shards concatenated in order; false: one file per shard
+    private boolean merge;
+}
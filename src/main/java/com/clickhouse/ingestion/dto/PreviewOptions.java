@@ -0,0 +1,18 @@
+package com.clickhouse.ingestion.dto;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+public class PreviewOptions {
+    private List<String> columns; // empty: all columns
+    private int limit = 100; // at most ingestion.preview-max-rows
+    private long offset;
+    // Fraction of the table to read with SAMPLE (0-1]; needs a table with a sampling key
+    private Double sample;
+    // As in RowSelection; paging is only stable with an orderBy
+    private List<RowFilter> filters = new ArrayList<>();
+    private List<SortOrder> orderBy = new ArrayList<>();
+}
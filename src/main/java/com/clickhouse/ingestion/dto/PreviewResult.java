@@ -0,0 +1,18 @@
+package com.clickhouse.ingestion.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Preview rows in columnar form: names and types once, then one value array
+ * per row in column order.
+ */
+@Data
+public class PreviewResult {
+    private List<String> columns;
+    private List<String> types;
+    private List<Object[]> rows;
+    private long offset;
+    private boolean hasMore; // another page is available at offset + rows.size()
+}
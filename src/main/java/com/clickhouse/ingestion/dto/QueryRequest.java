@@ -0,0 +1,17 @@
+package com.clickhouse.ingestion.dto;
+
+import com.clickhouse.ingestion.model.DataFormat;
+import lombok.Data;
+
+@Data
+public class QueryRequest {
+    private String query;
+    private DataFormat format = DataFormat.JSON_EACH_ROW; // JSON_EACH_ROW (NDJSON) or CSV_WITH_NAMES, or any other
+    // Paging: set pageSize for the first page, then pass back the X-Next-Page-Token of each response.
+    // Pages are only stable if the query has an ORDER BY.
+    private Integer pageSize;
+    private String pageToken;
+    // Lower the configured limits for this query; null keeps them
+    private Long maxResultRows;
+    private Integer maxExecutionTimeSeconds;
+}
@@ -0,0 +1,17 @@
+package com.clickhouse.ingestion.dto;
+
+import com.clickhouse.ingestion.model.FilterOperator;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class RowFilter {
+    private String column;
+    private FilterOperator operator = FilterOperator.EQ;
+    private String value; // ignored by IN, NOT_IN, IS_NULL and IS_NOT_NULL
+    private List<String> values; // IN and NOT_IN
+    // Evaluate in PREWHERE (MergeTree tables only): worth it for a selective filter on a small column,
+    // as the other columns are then only read for the rows that pass
+    private boolean prewhere;
+}
@@ -0,0 +1,24 @@
+package com.clickhouse.ingestion.dto;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Which rows of a table to export, evaluated by ClickHouse. As request
+ * parameters: {@code filters[0].column=status&filters[0].operator=IN&filters[0].values=a,b}
+ * and {@code orderBy[0].column=ts&orderBy[0].descending=true}.
+ */
+@Data
+public class RowSelection {
+    private List<RowFilter> filters = new ArrayList<>(); // all must match
+    private List<SortOrder> orderBy = new ArrayList<>();
+    private Long limit; // null: no limit
+    // Fraction of the table to read with SAMPLE (0-1]; needs a table with a sampling key
+    private Double sample;
+
+    public boolean isEmpty() {
+        return filters.isEmpty() && orderBy.isEmpty() && limit == null && sample == null;
+    }
+}
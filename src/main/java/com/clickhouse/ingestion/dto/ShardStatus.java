@@ -0,0 +1,12 @@
+package com.clickhouse.ingestion.dto;
+
+import com.clickhouse.ingestion.model.JobStatus;
+import lombok.Data;
+
+@Data
+public class ShardStatus {
+    private int index;
+    private String description; // predicate or partition the shard covers
+    private JobStatus status;
+    private long rowsProcessed;
+}
@@ -0,0 +1,9 @@
+package com.clickhouse.ingestion.dto;
+
+import lombok.Data;
+
+@Data
+public class SortOrder {
+    private String column;
+    private boolean descending;
+}
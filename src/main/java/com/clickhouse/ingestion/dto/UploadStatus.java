@@ -0,0 +1,13 @@
+package com.clickhouse.ingestion.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadStatus {
+    private String uploadId;
+    private long size; // bytes staged so far; the offset of the next chunk
+}
@@ -0,0 +1,128 @@
+package com.clickhouse.ingestion.format;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * RFC 4180 CSV with a header row, which names the columns; values are
+ * matched to columns by header name, not position.
+ */
+public class CsvFileFormat implements RowFileFormat {
+    private final char delimiter;
+    private final Charset charset;
+
+    public CsvFileFormat() {
+        this(',', StandardCharsets.UTF_8);
+    }
+
+    public CsvFileFormat(char delimiter, Charset charset) {
+        this.delimiter = delimiter;
+        this.charset = charset;
+    }
+
+    @Override
+    public String getName() {
+        return "CSV";
+    }
+
+    @Override
+    public List<String> getExtensions() {
+        return List.of(".csv", ".txt");
+    }
+
+    @Override
+    public String getContentType() {
+        return "text/csv";
+    }
+
+    @Override
+    public RecordReader openReader(InputStream input, List<String> columns, int bufferSize) throws IOException {
+        CSVParser parser = CSVFormat.DEFAULT.builder()
+            .setDelimiter(delimiter)
+            .setHeader()
+            .setSkipHeaderRecord(true)
+            .build()
+            .parse(new BufferedReader(new InputStreamReader(input, charset), bufferSize));
+        // Resolve header positions once instead of a map lookup per cell
+        int[] positions = new int[columns.size()];
+        for (int i = 0; i < positions.length; i++) {
+            Integer position = parser.getHeaderMap().get(columns.get(i));
+            if (position == null) {
+                parser.close();
+                throw new IllegalArgumentException("Column " + columns.get(i) + " not found in file header");
+            }
+            positions[i] = position;
+        }
+        Iterator<CSVRecord> records = parser.iterator();
+        return new RecordReader() {
+            @Override
+            public boolean next(String[] row) {
+                if (!records.hasNext()) {
+                    return false;
+                }
+                CSVRecord record = records.next();
+                for (int i = 0; i < positions.length; i++) {
+                    row[i] = record.get(positions[i]);
+                }
+                return true;
+            }
+
+            @Override
+            public void close() throws IOException {
+                parser.close();
+            }
+        };
+    }
+
+    @Override
+    public RecordWriter openWriter(OutputStream output, List<String> columns, int bufferSize) throws IOException {
+        return openWriter(output, columns, bufferSize, true);
+    }
+
+    @Override
+    public RecordWriter openContinuationWriter(OutputStream output, List<String> columns, int bufferSize)
+            throws IOException {
+        return openWriter(output, columns, bufferSize, false);
+    }
+
+    private RecordWriter openWriter(OutputStream output, List<String> columns, int bufferSize, boolean header)
+            throws IOException {
+        CSVPrinter printer = new CSVPrinter(
+            new BufferedWriter(new OutputStreamWriter(output, charset), bufferSize),
+            CSVFormat.DEFAULT.builder().setDelimiter(delimiter).build());
+        if (header) {
+            printer.printRecord(columns);
+        }
+        int columnCount = columns.size();
+        return new RecordWriter() {
+            @Override
+            public void write(ResultSet rs) throws SQLException, IOException {
+                for (int i = 1; i <= columnCount; i++) {
+                    printer.print(rs.getString(i));
+                }
+                printer.println();
+            }
+
+            @Override
+            public void close() throws IOException {
+                printer.close();
+            }
+        };
+    }
+}
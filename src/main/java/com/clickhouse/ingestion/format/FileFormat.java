@@ -0,0 +1,28 @@
+package com.clickhouse.ingestion.format;
+
+import java.util.List;
+
+/**
+ * A file format that ingest and export can handle. Implementations
+ * are found with {@link java.util.ServiceLoader}, so a format can be added by
+ * listing it in {@code META-INF/services/com.clickhouse.ingestion.format.FileFormat};
+ * see {@link FileFormats}.
+ *
+ * <p>A format is either a {@link RowFileFormat}, which decodes rows in the
+ * JVM through its reader and writer, or a {@link PassthroughFileFormat},
+ * which names a ClickHouse format the bytes are passed through in unparsed.
+ */
+public interface FileFormat {
+
+    /**
+     * @return the name used to select the format, e.g. {@code CSV}
+     */
+    String getName();
+
+    /**
+     * @return file extensions with the dot, the first being used for new files
+     */
+    List<String> getExtensions();
+
+    String getContentType();
+}
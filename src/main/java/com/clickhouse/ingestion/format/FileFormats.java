@@ -0,0 +1,73 @@
+package com.clickhouse.ingestion.format;
+
+import com.clickhouse.ingestion.model.Compression;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.ServiceLoader;
+
+/**
+ * The {@link FileFormat}s on the class path, looked up by name or file name.
+ */
+public final class FileFormats {
+    public static final RowFileFormat CSV = new CsvFileFormat();
+
+    private static final List<FileFormat> FORMATS = load();
+
+    private FileFormats() {
+    }
+
+    public static List<FileFormat> all() {
+        return FORMATS;
+    }
+
+    /**
+     * @throws IllegalArgumentException if no format has that name
+     */
+    public static FileFormat forName(String name) {
+        for (FileFormat format : FORMATS) {
+            if (format.getName().equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unknown file format " + name);
+    }
+
+    /**
+     * @return the format whose extension {@code fileName} ends in, ignoring a
+     *         compression extension, or CSV if none matches
+     */
+    public static FileFormat forFileName(String fileName) {
+        if (fileName == null) {
+            return CSV;
+        }
+        String name = fileName.toLowerCase(Locale.ROOT);
+        Compression compression = Compression.forFileName(name);
+        name = name.substring(0, name.length() - compression.getExtension().length());
+        for (FileFormat format : FORMATS) {
+            for (String extension : format.getExtensions()) {
+                if (name.endsWith(extension)) {
+                    return format;
+                }
+            }
+        }
+        return CSV;
+    }
+
+    private static List<FileFormat> load() {
+        List<FileFormat> formats = new ArrayList<>();
+        for (FileFormat format : ServiceLoader.load(FileFormat.class, FileFormats.class.getClassLoader())) {
+            if (!(format instanceof RowFileFormat) && !(format instanceof PassthroughFileFormat)) {
+                throw new IllegalStateException("File format " + format.getName()
+                    + " implements neither RowFileFormat nor PassthroughFileFormat");
+            }
+            formats.add(format.getName().equals(CSV.getName()) ? CSV : format);
+        }
+        if (formats.stream().noneMatch(format -> format == CSV)) {
+            formats.add(0, CSV);
+        }
+        return Collections.unmodifiableList(formats);
+    }
+}
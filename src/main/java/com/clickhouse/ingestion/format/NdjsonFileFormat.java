@@ -0,0 +1,174 @@
+package com.clickhouse.ingestion.format;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Newline-delimited JSON objects, ClickHouse's JSONEachRow. Records are
+ * parsed one at a time with Jackson's streaming parser; fields that are not
+ * selected are skipped without being materialized, and nested objects or
+ * arrays are passed on as JSON text.
+ */
+public class NdjsonFileFormat implements RowFileFormat {
+    // The mapper is only the codec for nested values; records themselves are streamed
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final JsonFactory FACTORY = MAPPER.getFactory();
+
+    @Override
+    public String getName() {
+        return "NDJSON";
+    }
+
+    @Override
+    public List<String> getExtensions() {
+        return List.of(".ndjson", ".jsonl", ".json");
+    }
+
+    @Override
+    public String getContentType() {
+        return "application/x-ndjson";
+    }
+
+    @Override
+    public RecordReader openReader(InputStream input, List<String> columns, int bufferSize) throws IOException {
+        JsonParser parser = FACTORY.createParser(
+            new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), bufferSize));
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < columns.size(); i++) {
+            positions.put(columns.get(i), i);
+        }
+        return new RecordReader() {
+            @Override
+            public boolean next(String[] row) throws IOException {
+                JsonToken token = parser.nextToken();
+                if (token == null) {
+                    return false;
+                }
+                if (token != JsonToken.START_OBJECT) {
+                    throw new IOException("Expected a JSON object at line " + parser.getCurrentLocation().getLineNr());
+                }
+                Arrays.fill(row, null);
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    Integer position = positions.get(parser.getCurrentName());
+                    JsonToken value = parser.nextToken();
+                    if (position == null) {
+                        parser.skipChildren();
+                    } else if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+                        row[position] = parser.readValueAsTree().toString();
+                    } else if (value != JsonToken.VALUE_NULL) {
+                        row[position] = parser.getText();
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public void close() throws IOException {
+                parser.close();
+            }
+        };
+    }
+
+    @Override
+    public RecordWriter openWriter(OutputStream output, List<String> columns, int bufferSize) throws IOException {
+        JsonGenerator generator = FACTORY.createGenerator(
+            new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), bufferSize));
+        generator.setRootValueSeparator(new SerializedString("\n"));
+        SerializedString[] names = new SerializedString[columns.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = new SerializedString(columns.get(i));
+        }
+        return new RecordWriter() {
+            private int[] kinds;
+            private boolean written;
+
+            @Override
+            public void write(ResultSet rs) throws SQLException, IOException {
+                if (kinds == null) {
+                    kinds = kinds(rs.getMetaData(), names.length);
+                }
+                generator.writeStartObject();
+                for (int i = 0; i < names.length; i++) {
+                    generator.writeFieldName(names[i]);
+                    String value = rs.getString(i + 1);
+                    if (value == null) {
+                        generator.writeNull();
+                    } else if (kinds[i] == Types.BOOLEAN) {
+                        generator.writeBoolean(rs.getBoolean(i + 1));
+                    } else if (kinds[i] == Types.NUMERIC && isJsonNumber(value)) {
+                        // Written verbatim, so 64-bit and wider integers keep every digit
+                        generator.writeNumber(value);
+                    } else {
+                        generator.writeString(value);
+                    }
+                }
+                generator.writeEndObject();
+                written = true;
+            }
+
+            @Override
+            public void close() throws IOException {
+                // Ends the last row; a file without rows stays empty
+                if (written) {
+                    generator.writeRaw('\n');
+                }
+                generator.close();
+            }
+        };
+    }
+
+    private static int[] kinds(ResultSetMetaData metaData, int columnCount) throws SQLException {
+        int[] kinds = new int[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            switch (metaData.getColumnType(i + 1)) {
+                case Types.BOOLEAN:
+                    kinds[i] = Types.BOOLEAN;
+                    break;
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                case Types.BIGINT:
+                case Types.REAL:
+                case Types.FLOAT:
+                case Types.DOUBLE:
+                case Types.DECIMAL:
+                case Types.NUMERIC:
+                    kinds[i] = Types.NUMERIC;
+                    break;
+                default:
+                    kinds[i] = Types.VARCHAR;
+            }
+        }
+        return kinds;
+    }
+
+    /**
+     * NaN and infinities have no JSON number form and go out as strings.
+     */
+    private static boolean isJsonNumber(String value) {
+        char first = value.charAt(0);
+        return (first >= '0' && first <= '9') || (first == '-' && value.length() > 1
+            && value.charAt(1) >= '0' && value.charAt(1) <= '9');
+    }
+}
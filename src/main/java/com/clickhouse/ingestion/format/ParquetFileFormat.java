@@ -0,0 +1,34 @@
+package com.clickhouse.ingestion.format;
+
+import com.clickhouse.ingestion.model.DataFormat;
+
+import java.util.List;
+
+/**
+ * Apache Parquet. Files are handed to ClickHouse as they are: the server
+ * reads only the column chunks of the selected columns on
+ * ingest, and writes the selected columns on export, so no Parquet or
+ * Hadoop libraries are needed here.
+ */
+public class ParquetFileFormat implements PassthroughFileFormat {
+
+    @Override
+    public String getName() {
+        return "PARQUET";
+    }
+
+    @Override
+    public List<String> getExtensions() {
+        return List.of(".parquet");
+    }
+
+    @Override
+    public String getContentType() {
+        return "application/vnd.apache.parquet";
+    }
+
+    @Override
+    public DataFormat getPassthroughFormat() {
+        return DataFormat.PARQUET;
+    }
+}
@@ -0,0 +1,15 @@
+package com.clickhouse.ingestion.format;
+
+import com.clickhouse.ingestion.model.DataFormat;
+
+/**
+ * A format ClickHouse reads and writes itself: files are streamed to and
+ * from the server unparsed, so there is no reader or writer in the JVM.
+ */
+public interface PassthroughFileFormat extends FileFormat {
+
+    /**
+     * @return the ClickHouse format to pass the bytes through in
+     */
+    DataFormat getPassthroughFormat();
+}
@@ -0,0 +1,19 @@
+package com.clickhouse.ingestion.format;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Streams the records of a file as text values, projected onto the columns
+ * the reader was opened for.
+ */
+public interface RecordReader extends Closeable {
+
+    /**
+     * Fills {@code row} with the values of the next record, null where the
+     * record has no value for a column. The array may be reused by the caller.
+     *
+     * @return false once the input is exhausted
+     */
+    boolean next(String[] row) throws IOException;
+}
@@ -0,0 +1,18 @@
+package com.clickhouse.ingestion.format;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Writes query result rows to a file, one row per call.
+ */
+public interface RecordWriter extends Closeable {
+
+    /**
+     * Writes the current row of {@code rs}, whose columns are those the
+     * writer was opened for, in order.
+     */
+    void write(ResultSet rs) throws SQLException, IOException;
+}
@@ -0,0 +1,37 @@
+package com.clickhouse.ingestion.format;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * A format whose rows are decoded and encoded in the JVM, so they can be
+ * converted to the column types and batched like any other rows.
+ */
+public interface RowFileFormat extends FileFormat {
+
+    /**
+     * Opens a reader projecting each record onto {@code columns}, in order.
+     * Closing the reader closes {@code input}.
+     *
+     * @throws IllegalArgumentException if the input lacks one of the columns and can tell up front
+     */
+    RecordReader openReader(InputStream input, List<String> columns, int bufferSize) throws IOException;
+
+    /**
+     * Opens a writer for rows with {@code columns}, in order. Closing the
+     * writer finishes the file and closes {@code output}.
+     */
+    RecordWriter openWriter(OutputStream output, List<String> columns, int bufferSize) throws IOException;
+
+    /**
+     * Like {@link #openWriter}, but for rows that continue a file another
+     * writer started, such as a later shard of a merged export, so a header
+     * is left out. Formats without one need not override this.
+     */
+    default RecordWriter openContinuationWriter(OutputStream output, List<String> columns, int bufferSize)
+            throws IOException {
+        return openWriter(output, columns, bufferSize);
+    }
+}
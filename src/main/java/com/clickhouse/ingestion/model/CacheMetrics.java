@@ -0,0 +1,15 @@
+package com.clickhouse.ingestion.model;
+
+import lombok.Data;
+
+@Data
+public class CacheMetrics {
+    private String name;
+    private long size;
+    private long hits;
+    private long misses;
+    private double hitRate;
+    private long evictions;
+    private long loadFailures;
+    private double averageLoadMillis;
+}
@@ -0,0 +1,23 @@
+package com.clickhouse.ingestion.model;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Progress of a resumable load, written after every committed batch. The
+ * positions point at the first record not yet committed.
+ */
+@Data
+public class Checkpoint {
+    private String id; // the upload being loaded
+    private String tableName;
+    private List<String> columns;
+    private List<String> header; // file header, needed to parse from the middle of the file
+    private long bytePosition;
+    private long charPosition;
+    private long recordNumber;
+    private long nextBatch; // index of the next batch, part of its deduplication token
+    private long rowsCommitted;
+    private long updatedAt;
+}
@@ -0,0 +1,92 @@
+package com.clickhouse.ingestion.model;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compression of files read or written. Every codec produces concatenable
+ * frames, so separately compressed parts can be joined byte for byte.
+ */
+public enum Compression {
+    NONE("", "text/csv"),
+    GZIP(".gz", "application/gzip"),
+    ZSTD(".zst", "application/zstd"),
+    // LZ4 frame format, as written by the lz4 command line tool
+    LZ4(".lz4", "application/x-lz4");
+
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    private final String extension;
+    private final String contentType;
+
+    Compression(String extension, String contentType) {
+        this.extension = extension;
+        this.contentType = contentType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return the compression implied by the extension of {@code fileName}, NONE if there is none
+     */
+    public static Compression forFileName(String fileName) {
+        if (fileName != null) {
+            String name = fileName.toLowerCase(Locale.ROOT);
+            for (Compression compression : values()) {
+                if (compression != NONE && name.endsWith(compression.extension)) {
+                    return compression;
+                }
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Wraps the stream so that whatever is written is compressed. Closing the
+     * returned stream finishes the compressed frame and closes {@code out}.
+     */
+    public OutputStream compress(OutputStream out) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPOutputStream(out, GZIP_BUFFER_SIZE);
+            case ZSTD:
+                return new ZstdOutputStream(out);
+            case LZ4:
+                return new LZ4FrameOutputStream(out);
+            default:
+                return out;
+        }
+    }
+
+    /**
+     * Wraps the stream so that it reads decompressed data. Concatenated
+     * frames (multi-member gzip and the like) are read through to the end.
+     */
+    public InputStream decompress(InputStream in) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPInputStream(in, GZIP_BUFFER_SIZE);
+            case ZSTD:
+                return new ZstdInputStream(in);
+            case LZ4:
+                return new LZ4FrameInputStream(in);
+            default:
+                return in;
+        }
+    }
+}
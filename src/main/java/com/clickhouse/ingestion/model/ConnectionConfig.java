@@ -1,12 +1,29 @@
 package com.clickhouse.ingestion.model;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
+import lombok.ToString;
 
 @Data
 public class ConnectionConfig {
+    // Name of a server-side connection profile. A request that sets it takes every other field from the
+    // profile, except database, which may be overridden.
+    private String profileId;
     private String host;
     private int port;
     private String database;
     private String username;
+    @ToString.Exclude
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
     private String password;
-} 
\ No newline at end of file
+    @ToString.Exclude
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
+    private String jwtToken;
+    private WireCompression compression; // null means NONE
+
+    // Driver tuning; null keeps the driver or server default
+    private Integer socketTimeoutMillis;
+    private Integer connectTimeoutMillis;
+    private Long maxInsertBlockSize;
+    private Boolean asyncInsert;
+}
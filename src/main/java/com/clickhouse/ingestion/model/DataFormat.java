@@ -0,0 +1,38 @@
+package com.clickhouse.ingestion.model;
+
+import com.clickhouse.data.ClickHouseFormat;
+
+/**
+ * ClickHouse formats whose bytes are passed through without being parsed in the JVM.
+ */
+public enum DataFormat {
+    CSV_WITH_NAMES(ClickHouseFormat.CSVWithNames, ".csv", "text/csv"),
+    TAB_SEPARATED_WITH_NAMES(ClickHouseFormat.TabSeparatedWithNames, ".tsv", "text/tab-separated-values"),
+    TAB_SEPARATED(ClickHouseFormat.TabSeparated, ".tsv", "text/tab-separated-values"),
+    ROW_BINARY(ClickHouseFormat.RowBinary, ".bin", "application/octet-stream"),
+    NATIVE(ClickHouseFormat.Native, ".native", "application/octet-stream"),
+    JSON_EACH_ROW(ClickHouseFormat.JSONEachRow, ".ndjson", "application/x-ndjson"),
+    PARQUET(ClickHouseFormat.Parquet, ".parquet", "application/vnd.apache.parquet");
+
+    private final ClickHouseFormat format;
+    private final String extension;
+    private final String contentType;
+
+    DataFormat(ClickHouseFormat format, String extension, String contentType) {
+        this.format = format;
+        this.extension = extension;
+        this.contentType = contentType;
+    }
+
+    public ClickHouseFormat getFormat() {
+        return format;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+}
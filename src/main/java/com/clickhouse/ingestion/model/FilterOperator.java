@@ -0,0 +1,34 @@
+package com.clickhouse.ingestion.model;
+
+/**
+ * Comparison of a {@link com.clickhouse.ingestion.dto.RowFilter}. Values are
+ * cast to the type of the column before comparing, so {@code GT 10} on an
+ * integer column compares numbers, not strings.
+ */
+public enum FilterOperator {
+    EQ("="),
+    NE("!="),
+    LT("<"),
+    LE("<="),
+    GT(">"),
+    GE(">="),
+    // Any of the filter's values
+    IN("IN"),
+    NOT_IN("NOT IN"),
+    // SQL pattern with % and _, compared as a string
+    LIKE("LIKE"),
+    NOT_LIKE("NOT LIKE"),
+    // No value
+    IS_NULL("IS NULL"),
+    IS_NOT_NULL("IS NOT NULL");
+
+    private final String sql;
+
+    FilterOperator(String sql) {
+        this.sql = sql;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+}
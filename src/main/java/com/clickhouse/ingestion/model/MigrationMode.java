@@ -0,0 +1,15 @@
+package com.clickhouse.ingestion.model;
+
+/**
+ * How rows travel in a ClickHouse-to-ClickHouse migration.
+ */
+public enum MigrationMode {
+    // REMOTE if the request names a remote collection, otherwise STREAM; the source is never probed
+    AUTO,
+    // Target pulls with INSERT ... SELECT FROM remote(); rows never pass through this service.
+    // Opt-in: without a remote collection the source password is written into the query text, where
+    // the target keeps it in system.query_log and shows it in system.processes
+    REMOTE,
+    // Source is read in Native format and piped into the target's INSERT through the JVM
+    STREAM
+}
@@ -0,0 +1,18 @@
+package com.clickhouse.ingestion.model;
+
+import lombok.Data;
+
+@Data
+public class PoolMetrics {
+    private String key;
+    private String id; // tells apart pools whose keys differ only in secrets or tuning
+    private int maxSize;
+    private int active;
+    private int idle;
+    private long created;
+    private long borrowed;
+    private long evicted;
+    private long validationFailures;
+    private long acquireTimeouts;
+    private double averageAcquireMillis;
+}
@@ -0,0 +1,10 @@
+package com.clickhouse.ingestion.model;
+
+public enum ShardStrategy {
+    // One shard per group of active partitions (_partition_id)
+    PARTITION,
+    // cityHash64(key) % shards, even split regardless of data layout
+    HASH,
+    // Quantile ranges of an orderable key; shards are ordered by the key
+    RANGE
+}
@@ -0,0 +1,19 @@
+package com.clickhouse.ingestion.model;
+
+/**
+ * How many small uploads to one table are turned into few INSERTs, and so few parts.
+ */
+public enum SmallUploadMode {
+    /**
+     * Each upload is its own INSERT with {@code async_insert=1} and
+     * {@code wait_for_async_insert=1}: the server buffers and combines them,
+     * and the request returns once its rows are written.
+     */
+    ASYNC_INSERT,
+    /**
+     * Uploads are parsed and buffered per table in this service, and sent as
+     * one INSERT once the buffer is full or old enough; the request returns
+     * once that INSERT has succeeded.
+     */
+    BUFFER
+}
@@ -0,0 +1,18 @@
+package com.clickhouse.ingestion.model;
+
+/**
+ * Width of the time buckets an incremental export is split into.
+ */
+public enum TimeBucket {
+    HOUR,
+    DAY,
+    WEEK,
+    MONTH;
+
+    /**
+     * @return the bucket as a ClickHouse interval, e.g. {@code INTERVAL 1 DAY}
+     */
+    public String interval() {
+        return "INTERVAL 1 " + name();
+    }
+}
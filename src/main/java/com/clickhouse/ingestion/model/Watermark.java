@@ -0,0 +1,20 @@
+package com.clickhouse.ingestion.model;
+
+import lombok.Data;
+
+/**
+ * High-water mark of an incremental export: every row of the table with a
+ * watermark column value up to and including {@code value} has been
+ * exported to the destination.
+ */
+@Data
+public class Watermark {
+    private String id; // derived from server, database, table and destination
+    private String server; // host:port/database, for listing only
+    private String tableName;
+    private String destination;
+    private String column;
+    private String value; // as rendered by ClickHouse; null before the first export
+    private long rowsExported; // over all runs
+    private long updatedAt;
+}
@@ -0,0 +1,12 @@
+package com.clickhouse.ingestion.model;
+
+/**
+ * Compression of data on the wire between the service and ClickHouse, for
+ * both insert bodies and query results. Costs CPU on both ends and pays off
+ * when bandwidth to the cluster is the limit.
+ */
+public enum WireCompression {
+    NONE,
+    LZ4,
+    ZSTD
+}
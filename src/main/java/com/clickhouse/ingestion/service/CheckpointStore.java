@@ -0,0 +1,53 @@
+package com.clickhouse.ingestion.service;
+
+import com.clickhouse.ingestion.model.Checkpoint;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Keeps one JSON file per resumable load under
+ * {@code file.upload.directory}/checkpoints. Files are replaced atomically,
+ * so a crash leaves either the previous or the new checkpoint, never a torn one.
+ * Connection settings are deliberately not stored; a resume supplies them again.
+ */
+@Service
+public class CheckpointStore {
+    private final Path directory;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public CheckpointStore(@Value("${file.upload.directory}") String uploadDirectory) {
+        this.directory = Paths.get(uploadDirectory).resolve("checkpoints");
+    }
+
+    /**
+     * @return the checkpoint, or null if the load never committed a batch or has finished
+     */
+    public Checkpoint load(String id) throws IOException {
+        Path file = path(id);
+        return Files.exists(file) ? objectMapper.readValue(file.toFile(), Checkpoint.class) : null;
+    }
+
+    public void save(Checkpoint checkpoint) throws IOException {
+        Files.createDirectories(directory);
+        checkpoint.setUpdatedAt(System.currentTimeMillis());
+        Path file = path(checkpoint.getId());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        objectMapper.writeValue(temp.toFile(), checkpoint);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void delete(String id) throws IOException {
+        Files.deleteIfExists(path(id));
+    }
+
+    private Path path(String id) {
+        return directory.resolve(UploadStore.checkId(id) + ".json");
+    }
+}
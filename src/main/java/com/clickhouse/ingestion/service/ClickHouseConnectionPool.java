@@ -0,0 +1,399 @@
+package com.clickhouse.ingestion.service;
+
+import com.clickhouse.ingestion.config.ConnectionPoolProperties;
+import com.clickhouse.ingestion.model.ConnectionConfig;
+import com.clickhouse.ingestion.model.PoolMetrics;
+import com.clickhouse.ingestion.model.WireCompression;
+import com.clickhouse.ingestion.util.ClickHouseUtil;
+import com.clickhouse.jdbc.ClickHouseDataSource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.ToString;
+import lombok.Value;
+import org.springframework.stereotype.Service;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps reusable ClickHouse connections per host/port/database/user so that
+ * metadata and preview calls skip the driver's connection handshake.
+ * Connections handed out are proxies whose {@code close()} returns them to the pool.
+ * Acquire time and active/idle counts are published per key, without the password.
+ * A key whose connections have all been idle past the idle timeout is
+ * dropped along with its meters, so that the pools do not grow with every
+ * set of credentials ever seen.
+ */
+@Service
+public class ClickHouseConnectionPool {
+    private final ConnectionPoolProperties properties;
+    private final ClickHouseUtil clickHouseUtil;
+    private final MeterRegistry registry;
+    private final Map<Key, KeyedPool> pools = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService evictor;
+
+    public ClickHouseConnectionPool(ConnectionPoolProperties properties, ClickHouseUtil clickHouseUtil,
+                                    MeterRegistry registry) {
+        this.properties = properties;
+        this.clickHouseUtil = clickHouseUtil;
+        this.registry = registry;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "clickhouse-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = properties.getEvictionIntervalMillis();
+        evictor.scheduleWithFixedDelay(this::evictIdle, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public Connection getConnection(ConnectionConfig config) throws SQLException {
+        Key key = Key.of(config);
+        while (true) {
+            KeyedPool pool = pools.computeIfAbsent(key, k -> new KeyedPool(k, config));
+            if (pool.enter()) {
+                return pool.borrow();
+            }
+            // Retired by the evictor after the lookup; make way for a fresh one
+            pools.remove(key, pool);
+        }
+    }
+
+    /**
+     * @return whether connections for {@code a} and {@code b} come out of the same keyed pool
+     */
+    public boolean sharesPool(ConnectionConfig a, ConnectionConfig b) {
+        return Key.of(a).equals(Key.of(b));
+    }
+
+    public List<PoolMetrics> getMetrics() {
+        List<PoolMetrics> metrics = new ArrayList<>();
+        for (KeyedPool pool : pools.values()) {
+            metrics.add(pool.metrics());
+        }
+        return metrics;
+    }
+
+    void evictIdle() {
+        long cutoff = System.currentTimeMillis() - properties.getIdleTimeoutMillis();
+        for (KeyedPool pool : pools.values()) {
+            pool.evictIdleBefore(cutoff);
+            if (pool.retireIfUnusedSince(cutoff)) {
+                pools.remove(pool.key, pool);
+                pool.removeMeters();
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        evictor.shutdownNow();
+        for (KeyedPool pool : pools.values()) {
+            pool.evictIdleBefore(Long.MAX_VALUE);
+        }
+        pools.clear();
+    }
+
+    /**
+     * Pool key. The password is part of equality so that a caller with the
+     * wrong credentials never receives a connection opened by someone else;
+     * compression and driver tuning are, because they are fixed when a
+     * connection is opened.
+     */
+    @Value
+    static class Key {
+        // Keeps the id from being matched against guessed passwords outside this process
+        private static final byte[] ID_SALT = new byte[16];
+
+        static {
+            new SecureRandom().nextBytes(ID_SALT);
+        }
+
+        String host;
+        int port;
+        String database;
+        String username;
+        @ToString.Exclude
+        String password;
+        @ToString.Exclude
+        String jwtToken;
+        WireCompression compression;
+        Integer socketTimeoutMillis;
+        Integer connectTimeoutMillis;
+        Long maxInsertBlockSize;
+        Boolean asyncInsert;
+
+        static Key of(ConnectionConfig config) {
+            return new Key(config.getHost(), config.getPort(), config.getDatabase(),
+                config.getUsername(), config.getPassword(), config.getJwtToken(),
+                config.getCompression() == null ? WireCompression.NONE : config.getCompression(),
+                config.getSocketTimeoutMillis(), config.getConnectTimeoutMillis(),
+                config.getMaxInsertBlockSize(), config.getAsyncInsert());
+        }
+
+        /**
+         * @return a short salted hash of every field, secrets included, that
+         *         distinguishes keys {@link #describe()} renders alike
+         */
+        String id() {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                digest.update(ID_SALT);
+                for (Object field : new Object[] {host, port, database, username, password, jwtToken, compression,
+                        socketTimeoutMillis, connectTimeoutMillis, maxInsertBlockSize, asyncInsert}) {
+                    digest.update(String.valueOf(field).getBytes(StandardCharsets.UTF_8));
+                    digest.update((byte) 0);
+                }
+                return HexFormat.of().formatHex(digest.digest(), 0, 6);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+        }
+
+        String describe() {
+            return username + "@" + host + ":" + port + "/" + database
+                + (compression != WireCompression.NONE ? " [" + compression + "]" : "")
+                + (Boolean.TRUE.equals(asyncInsert) ? " [async]" : "");
+        }
+    }
+
+    private static final class IdleConnection {
+        final Connection connection;
+        final long idleSince;
+
+        IdleConnection(Connection connection, long idleSince) {
+            this.connection = connection;
+            this.idleSince = idleSince;
+        }
+    }
+
+    private final class KeyedPool {
+        private final Key key;
+        private final String id;
+        private final ClickHouseDataSource dataSource;
+        private final Semaphore permits;
+        private final Deque<IdleConnection> idle = new ConcurrentLinkedDeque<>();
+
+        private final AtomicLong created = new AtomicLong();
+        private final AtomicLong borrowed = new AtomicLong();
+        private final AtomicLong evicted = new AtomicLong();
+        private final AtomicLong validationFailures = new AtomicLong();
+        private final AtomicLong acquireTimeouts = new AtomicLong();
+        private final AtomicLong acquireNanos = new AtomicLong();
+        private final Timer acquireTimer;
+        private final List<Meter> meters = new ArrayList<>();
+
+        // Guarded by this: a retired pool is out of the map and hands out nothing more
+        private long lastUsed = System.currentTimeMillis();
+        private boolean retired;
+
+        KeyedPool(Key key, ConnectionConfig config) {
+            this.key = key;
+            this.id = key.id();
+            this.permits = new Semaphore(properties.getMaxSizePerKey(), true);
+            this.acquireTimer = Timer.builder("clickhouse.connection.acquire")
+                .description("Time to borrow a pooled connection, including waits for a free one")
+                .tag("pool", key.describe())
+                .tag("id", id)
+                .publishPercentiles(0.5, 0.99)
+                .register(registry);
+            meters.add(acquireTimer);
+            meters.add(Gauge.builder("clickhouse.connections.active", permits,
+                    p -> properties.getMaxSizePerKey() - p.availablePermits())
+                .tag("pool", key.describe())
+                .tag("id", id)
+                .register(registry));
+            meters.add(Gauge.builder("clickhouse.connections.idle", idle, Deque::size)
+                .tag("pool", key.describe())
+                .tag("id", id)
+                .register(registry));
+            try {
+                this.dataSource = new ClickHouseDataSource(
+                    clickHouseUtil.buildConnectionUrl(config),
+                    clickHouseUtil.buildConnectionProperties(config));
+            } catch (SQLException e) {
+                throw new IllegalArgumentException("Invalid ClickHouse connection settings for " + key.describe(), e);
+            }
+        }
+
+        /**
+         * @return false if the pool has been retired and must not be used
+         */
+        synchronized boolean enter() {
+            lastUsed = System.currentTimeMillis();
+            return !retired;
+        }
+
+        /**
+         * Retires the pool if nothing has entered it since {@code cutoff} and
+         * it has no connection out or idle.
+         */
+        synchronized boolean retireIfUnusedSince(long cutoff) {
+            if (lastUsed < cutoff && idle.isEmpty() && permits.availablePermits() == properties.getMaxSizePerKey()) {
+                retired = true;
+            }
+            return retired;
+        }
+
+        void removeMeters() {
+            for (Meter meter : meters) {
+                registry.remove(meter);
+            }
+        }
+
+        Connection borrow() throws SQLException {
+            long start = System.nanoTime();
+            try {
+                if (!permits.tryAcquire(properties.getAcquireTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                    acquireTimeouts.incrementAndGet();
+                    throw new SQLTimeoutException("Timed out waiting for a connection to " + key.describe());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a connection to " + key.describe(), e);
+            }
+
+            try {
+                Connection physical = takeIdle();
+                if (physical == null) {
+                    physical = dataSource.getConnection();
+                    created.incrementAndGet();
+                }
+                borrowed.incrementAndGet();
+                long nanos = System.nanoTime() - start;
+                acquireNanos.addAndGet(nanos);
+                acquireTimer.record(nanos, TimeUnit.NANOSECONDS);
+                return wrap(physical);
+            } catch (SQLException | RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        private Connection takeIdle() {
+            long validateBefore = System.currentTimeMillis() - properties.getValidationIntervalMillis();
+            IdleConnection candidate;
+            while ((candidate = idle.pollFirst()) != null) {
+                if (candidate.idleSince > validateBefore || isUsable(candidate.connection)) {
+                    return candidate.connection;
+                }
+                validationFailures.incrementAndGet();
+                closeQuietly(candidate.connection);
+            }
+            return null;
+        }
+
+        private boolean isUsable(Connection connection) {
+            try {
+                return !connection.isClosed() && connection.isValid(properties.getValidationTimeoutSeconds());
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        void release(Connection physical) {
+            try {
+                if (physical.isClosed()) {
+                    return;
+                }
+                idle.offerFirst(new IdleConnection(physical, System.currentTimeMillis()));
+            } catch (SQLException e) {
+                closeQuietly(physical);
+            } finally {
+                permits.release();
+            }
+        }
+
+        void evictIdleBefore(long cutoff) {
+            Iterator<IdleConnection> it = idle.iterator();
+            while (it.hasNext()) {
+                IdleConnection candidate = it.next();
+                if (candidate.idleSince < cutoff && idle.removeFirstOccurrence(candidate)) {
+                    evicted.incrementAndGet();
+                    closeQuietly(candidate.connection);
+                }
+            }
+        }
+
+        PoolMetrics metrics() {
+            PoolMetrics metrics = new PoolMetrics();
+            int idleCount = idle.size();
+            metrics.setKey(key.describe());
+            metrics.setId(id);
+            metrics.setMaxSize(properties.getMaxSizePerKey());
+            metrics.setIdle(idleCount);
+            metrics.setActive(properties.getMaxSizePerKey() - permits.availablePermits());
+            metrics.setCreated(created.get());
+            metrics.setBorrowed(borrowed.get());
+            metrics.setEvicted(evicted.get());
+            metrics.setValidationFailures(validationFailures.get());
+            metrics.setAcquireTimeouts(acquireTimeouts.get());
+            long count = borrowed.get();
+            metrics.setAverageAcquireMillis(count == 0 ? 0 : acquireNanos.get() / 1_000_000.0 / count);
+            return metrics;
+        }
+
+        private Connection wrap(Connection physical) {
+            AtomicBoolean returned = new AtomicBoolean();
+            InvocationHandler handler = (proxy, method, args) -> {
+                String name = method.getName();
+                if ("close".equals(name) && method.getParameterCount() == 0) {
+                    if (returned.compareAndSet(false, true)) {
+                        release(physical);
+                    }
+                    return null;
+                }
+                if ("isClosed".equals(name) && method.getParameterCount() == 0) {
+                    return returned.get() || physical.isClosed();
+                }
+                if (returned.get()) {
+                    throw new SQLException("Connection has already been returned to the pool");
+                }
+                return invoke(physical, method, args);
+            };
+            return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(), new Class<?>[] {Connection.class}, handler);
+        }
+    }
+
+    private static Object invoke(Connection target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+            // Already broken, nothing left to release
+        }
+    }
+}
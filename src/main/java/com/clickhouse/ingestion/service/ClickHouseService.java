@@ -1,95 +1,89 @@
 package com.clickhouse.ingestion.service;
 
-import com.clickhouse.ingestion.config.ClickHouseConfig;
-import com.clickhouse.jdbc.ClickHouseConnection;
-import com.clickhouse.jdbc.ClickHouseDataSource;
+import com.clickhouse.ingestion.config.IngestionProperties;
+import com.clickhouse.ingestion.model.ConnectionConfig;
+import com.clickhouse.ingestion.service.impl.AdaptiveBatchController;
+import com.clickhouse.ingestion.service.impl.BatchInserter;
+import com.clickhouse.ingestion.service.impl.ColumnConverter;
+import com.clickhouse.ingestion.service.impl.RowRejectedException;
 import org.springframework.stereotype.Service;
 
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Properties;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 @Service
 public class ClickHouseService {
-    private final ClickHouseConfig config;
+    static final Pattern DDL_PREFIX =
+        Pattern.compile("\\s*(CREATE|ALTER|DROP|RENAME|TRUNCATE|EXCHANGE|ATTACH|DETACH)\\b", Pattern.CASE_INSENSITIVE);
 
-    public ClickHouseService(ClickHouseConfig config) {
-        this.config = config;
+    private final ClickHouseConnectionPool connectionPool;
+    private final SchemaMetadataCache metadataCache;
+    private final IngestionProperties ingestionProperties;
+
+    public ClickHouseService(ClickHouseConnectionPool connectionPool, SchemaMetadataCache metadataCache,
+                             IngestionProperties ingestionProperties) {
+        this.connectionPool = connectionPool;
+        this.metadataCache = metadataCache;
+        this.ingestionProperties = ingestionProperties;
     }
 
-    public boolean testConnection() {
-        try (Connection conn = getConnection()) {
+    public boolean testConnection(ConnectionConfig config) {
+        try (Connection conn = getConnection(config)) {
             return conn.isValid(5);
         } catch (SQLException e) {
             return false;
         }
     }
 
-    public List<String> getTables() throws SQLException {
-        List<String> tables = new ArrayList<>();
-        try (Connection conn = getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery("SHOW TABLES")) {
-            while (rs.next()) {
-                tables.add(rs.getString(1));
-            }
-        }
-        return tables;
+    public List<String> getTables(ConnectionConfig config) throws SQLException {
+        return metadataCache.getTables(config);
     }
 
-    public List<String> getColumns(String tableName) throws SQLException {
-        List<String> columns = new ArrayList<>();
-        try (Connection conn = getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery("DESCRIBE " + tableName)) {
-            while (rs.next()) {
-                columns.add(rs.getString(1));
-            }
-        }
-        return columns;
+    public List<String> getColumns(ConnectionConfig config, String tableName) throws SQLException {
+        return new ArrayList<>(getColumnTypes(config, tableName).keySet());
     }
 
-    public ResultSet executeQuery(String query) throws SQLException {
-        Connection conn = getConnection();
-        Statement stmt = conn.createStatement();
-        return stmt.executeQuery(query);
+    public Map<String, String> getColumnTypes(ConnectionConfig config, String tableName) throws SQLException {
+        return metadataCache.getColumnTypes(config, tableName);
     }
 
-    public void executeInsert(String tableName, List<String> columns, List<List<String>> data) throws SQLException {
-        StringBuilder query = new StringBuilder("INSERT INTO ")
-                .append(tableName)
-                .append(" (")
-                .append(String.join(", ", columns))
-                .append(") VALUES ");
-
-        List<String> valueRows = new ArrayList<>();
+    /**
+     * Inserts {@code data} with values bound by column type, in one batch or,
+     * with {@code ingestion.adaptive-batching}, in batches sized by their
+     * round trip and retried on transient errors.
+     *
+     * @throws RowRejectedException if a value does not fit its column; every row is checked
+     *                              first, so nothing is inserted then
+     */
+    public void executeInsert(ConnectionConfig config, String tableName, List<String> columns,
+                              List<List<String>> data) throws SQLException {
+        ColumnConverter[] converters = BatchInserter.converters(columns, getColumnTypes(config, tableName));
+        List<String[]> rows = new ArrayList<>(data.size());
         for (List<String> row : data) {
-            valueRows.add("(" + String.join(", ", row.stream()
-                    .map(v -> v == null ? "NULL" : "'" + v.replace("'", "''") + "'")
-                    .toList()) + ")");
+            rows.add(row.toArray(new String[0]));
         }
-
-        query.append(String.join(", ", valueRows));
-
-        try (Connection conn = getConnection();
-             Statement stmt = conn.createStatement()) {
-            stmt.execute(query.toString());
+        try (Connection conn = getConnection(config);
+             BatchInserter inserter = new BatchInserter(conn, tableName, columns, converters,
+                 Integer.MAX_VALUE, Long.MAX_VALUE)) {
+            if (ingestionProperties.isAdaptiveBatching()) {
+                for (String[] row : rows) {
+                    inserter.check(row);
+                }
+                inserter.setBatchController(AdaptiveBatchController.forProperties(ingestionProperties));
+                inserter.setRowsRetained(true);
+            }
+            for (String[] row : rows) {
+                inserter.add(row);
+            }
+            inserter.flush();
         }
+        metadataCache.invalidate(config, tableName);
     }
 
-    private Connection getConnection() throws SQLException {
-        String url = String.format("jdbc:clickhouse://%s:%d/%s", config.getHost(), config.getPort(), config.getDatabase());
-        Properties properties = new Properties();
-        properties.setProperty("user", config.getUsername());
-        if (config.getPassword() != null && !config.getPassword().isEmpty()) {
-            properties.setProperty("password", config.getPassword());
-        }
-        if (config.getJwtToken() != null && !config.getJwtToken().isEmpty()) {
-            properties.setProperty("jwt", config.getJwtToken());
-        }
-
-        ClickHouseDataSource dataSource = new ClickHouseDataSource(url, properties);
-        return dataSource.getConnection();
+    private Connection getConnection(ConnectionConfig config) throws SQLException {
+        return connectionPool.getConnection(config);
     }
-} 
\ No newline at end of file
+}
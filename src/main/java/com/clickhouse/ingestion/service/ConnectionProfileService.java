@@ -0,0 +1,122 @@
+package com.clickhouse.ingestion.service;
+
+import com.clickhouse.ingestion.config.ClickHouseConfig;
+import com.clickhouse.ingestion.model.ConnectionConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Named connection settings kept on the server, so that clients can send a
+ * profile id instead of credentials. Profiles come from configuration (see
+ * {@link ClickHouseConfig}) or are added at runtime; runtime profiles live
+ * in memory only, so credentials are never written to disk. Profiles from
+ * configuration, {@code default} among them, cannot be replaced or deleted
+ * at runtime, so that a client cannot redirect other clients' requests.
+ *
+ * <p>A resolved profile is an equal {@link ConnectionConfig} on every call,
+ * so all requests naming it share one connection pool and its data source.
+ */
+@Slf4j
+@Service
+public class ConnectionProfileService {
+    public static final String DEFAULT_PROFILE = "default";
+    private static final Pattern ID = Pattern.compile("[A-Za-z0-9._-]{1,64}");
+
+    private final Map<String, ConnectionConfig> profiles = new ConcurrentHashMap<>();
+    private final Set<String> configured = new HashSet<>();
+
+    public ConnectionProfileService(ClickHouseConfig config) {
+        ConnectionConfig defaults = new ConnectionConfig();
+        defaults.setHost(config.getHost());
+        defaults.setPort(config.getPort());
+        defaults.setDatabase(config.getDatabase());
+        defaults.setUsername(config.getUsername());
+        defaults.setPassword(config.getPassword());
+        defaults.setJwtToken(config.getJwtToken());
+        put(DEFAULT_PROFILE, defaults);
+        config.getProfiles().forEach(this::put);
+        configured.addAll(profiles.keySet());
+    }
+
+    /**
+     * @return {@code requested} itself if it names no profile, otherwise the
+     *         profile, with the requested database if one was given; the
+     *         default profile if {@code requested} is null
+     * @throws IllegalArgumentException if the profile does not exist
+     */
+    public ConnectionConfig resolve(ConnectionConfig requested) {
+        if (requested != null && requested.getProfileId() == null) {
+            return requested;
+        }
+        String id = requested == null ? DEFAULT_PROFILE : requested.getProfileId();
+        ConnectionConfig profile = profiles.get(id);
+        if (profile == null) {
+            throw new IllegalArgumentException("Unknown connection profile " + id);
+        }
+        String database = requested == null ? null : requested.getDatabase();
+        return copy(profile, id, database == null || database.isBlank() ? profile.getDatabase() : database);
+    }
+
+    public List<ConnectionConfig> list() {
+        List<ConnectionConfig> result = new ArrayList<>();
+        profiles.forEach((id, profile) -> result.add(copy(profile, id, profile.getDatabase())));
+        return result;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the id is invalid or names a profile from configuration
+     */
+    public void save(String id, ConnectionConfig profile) {
+        checkWritable(id);
+        put(id, profile);
+    }
+
+    /**
+     * @return false if there was no such profile
+     * @throws IllegalArgumentException if the profile comes from configuration
+     */
+    public boolean delete(String id) {
+        checkWritable(id);
+        return profiles.remove(id) != null;
+    }
+
+    private void checkWritable(String id) {
+        if (configured.contains(id)) {
+            throw new IllegalArgumentException("Connection profile " + id + " is set in configuration only");
+        }
+    }
+
+    private void put(String id, ConnectionConfig profile) {
+        if (id == null || !ID.matcher(id).matches()) {
+            throw new IllegalArgumentException("Invalid profile id " + id);
+        }
+        profiles.put(id, copy(profile, id, profile.getDatabase()));
+        log.info("Connection profile {} saved: {}@{}:{}/{}", id, profile.getUsername(), profile.getHost(),
+            profile.getPort(), profile.getDatabase());
+    }
+
+    private static ConnectionConfig copy(ConnectionConfig source, String id, String database) {
+        ConnectionConfig copy = new ConnectionConfig();
+        copy.setProfileId(id);
+        copy.setHost(source.getHost());
+        copy.setPort(source.getPort());
+        copy.setDatabase(database);
+        copy.setUsername(source.getUsername());
+        copy.setPassword(source.getPassword());
+        copy.setJwtToken(source.getJwtToken());
+        copy.setCompression(source.getCompression());
+        copy.setSocketTimeoutMillis(source.getSocketTimeoutMillis());
+        copy.setConnectTimeoutMillis(source.getConnectTimeoutMillis());
+        copy.setMaxInsertBlockSize(source.getMaxInsertBlockSize());
+        copy.setAsyncInsert(source.getAsyncInsert());
+        return copy;
+    }
+}
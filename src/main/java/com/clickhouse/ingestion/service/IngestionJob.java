@@ -0,0 +1,253 @@
+package com.clickhouse.ingestion.service;
+
+import com.clickhouse.ingestion.dto.IngestionStatus;
+import com.clickhouse.ingestion.dto.ShardStatus;
+import com.clickhouse.ingestion.model.JobStatus;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live state of one asynchronous ingest or export. Updated by the worker
+ * thread through {@link IngestionProgress} and read by status requests.
+ * Progress is mirrored into the job type's meters, and every stage change
+ * is logged with the job id.
+ */
+@Slf4j
+public class IngestionJob implements IngestionProgress {
+    private final String id;
+    private final String type;
+    private final String tableName;
+    private final AtomicLong rowsProcessed = new AtomicLong();
+    private final AtomicLong bytesProcessed = new AtomicLong();
+    private final AtomicLong rowsRejected = new AtomicLong();
+    private final AtomicLong batchesInserted = new AtomicLong();
+    private final AtomicLong insertNanos = new AtomicLong();
+    private final AtomicLong parseNanos = new AtomicLong();
+    private final IngestionMetrics.JobMeters meters;
+
+    private volatile JobStatus status = JobStatus.PENDING;
+    private volatile long totalRows;
+    private volatile long totalBytes;
+    private volatile long startedAt;
+    private volatile long finishedAt;
+    private volatile String error;
+    private volatile String rejectFile;
+    private volatile boolean cancelRequested;
+    private volatile List<ShardStatus> shards;
+
+    public IngestionJob(String id, String type, String tableName, IngestionMetrics.JobMeters meters) {
+        this.id = id;
+        this.type = type;
+        this.tableName = tableName;
+        this.meters = meters;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public JobStatus getStatus() {
+        return status;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    public void setTotalRows(long totalRows) {
+        this.totalRows = totalRows;
+    }
+
+    public void setTotalBytes(long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+
+    synchronized boolean markStarted() {
+        if (status != JobStatus.PENDING) {
+            return false;
+        }
+        startedAt = System.currentTimeMillis();
+        status = JobStatus.IN_PROGRESS;
+        log.info("Job {} started: type={} table={} totalBytes={}", id, type, tableName, totalBytes);
+        return true;
+    }
+
+    synchronized void markCompleted() {
+        finishedAt = System.currentTimeMillis();
+        status = JobStatus.COMPLETED;
+        meters.finished(status, finishedAt - startedAt, null);
+        log.info("Job {} completed: rows={} bytes={} rejected={} batches={} insertMillis={} parseMillis={} millis={}",
+            id, rowsProcessed.get(), bytesProcessed.get(), rowsRejected.get(), batchesInserted.get(),
+            TimeUnit.NANOSECONDS.toMillis(insertNanos.get()), TimeUnit.NANOSECONDS.toMillis(parseNanos.get()),
+            finishedAt - startedAt);
+    }
+
+    synchronized void markFailed(Throwable cause) {
+        finishedAt = System.currentTimeMillis();
+        if (cancelRequested) {
+            status = JobStatus.CANCELLED;
+            meters.finished(status, finishedAt - startedAt, cause);
+            log.info("Job {} cancelled after {} rows", id, rowsProcessed.get());
+            return;
+        }
+        Throwable root = cause;
+        while (root.getCause() != null && root.getCause() != root) {
+            root = root.getCause();
+        }
+        error = root.getMessage() != null ? root.getMessage() : root.getClass().getSimpleName();
+        status = JobStatus.FAILED;
+        meters.finished(status, finishedAt - startedAt, root);
+        log.warn("Job {} failed after {} rows: {}", id, rowsProcessed.get(), error, cause);
+    }
+
+    /**
+     * Requests cancellation. A queued job is marked cancelled immediately and
+     * skipped when dequeued; a running job stops at its next batch boundary.
+     */
+    synchronized boolean cancel() {
+        if (status.isFinished()) {
+            return false;
+        }
+        cancelRequested = true;
+        if (status == JobStatus.PENDING) {
+            finishedAt = System.currentTimeMillis();
+            status = JobStatus.CANCELLED;
+        }
+        log.info("Job {} cancellation requested", id);
+        return true;
+    }
+
+    @Override
+    public void onProgress(long rowsDelta, long bytesProcessed) {
+        rowsProcessed.addAndGet(rowsDelta);
+        meters.rows.increment(rowsDelta);
+        // Parallel workers may report out of order
+        long previous = this.bytesProcessed.getAndAccumulate(bytesProcessed, Math::max);
+        if (bytesProcessed > previous) {
+            meters.bytes.increment(bytesProcessed - previous);
+        }
+    }
+
+    @Override
+    public void onRejected(long rowsDelta, String rejectFile) {
+        if (rowsRejected.getAndAdd(rowsDelta) == 0) {
+            log.info("Job {} rejecting rows to {}", id, rejectFile);
+        }
+        meters.rejected.increment(rowsDelta);
+        this.rejectFile = rejectFile;
+    }
+
+    @Override
+    public void onBatchInserted(int rows, long nanos) {
+        batchesInserted.incrementAndGet();
+        insertNanos.addAndGet(nanos);
+        meters.batches.record(nanos, TimeUnit.NANOSECONDS);
+        log.debug("Job {} inserted batch: rows={} millis={}", id, rows, TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+
+    @Override
+    public void onParseTime(long nanos) {
+        parseNanos.addAndGet(nanos);
+        meters.parse.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelRequested;
+    }
+
+    @Override
+    public void onShardsPlanned(List<String> descriptions) {
+        List<ShardStatus> planned = new ArrayList<>(descriptions.size());
+        for (int i = 0; i < descriptions.size(); i++) {
+            ShardStatus shard = new ShardStatus();
+            shard.setIndex(i);
+            shard.setDescription(descriptions.get(i));
+            shard.setStatus(JobStatus.PENDING);
+            planned.add(shard);
+        }
+        shards = planned;
+        log.info("Job {} planned {} shards", id, descriptions.size());
+    }
+
+    @Override
+    public void onShardProgress(int shard, long rowsDelta, JobStatus status) {
+        List<ShardStatus> current = shards;
+        if (current == null || shard < 0 || shard >= current.size()) {
+            return;
+        }
+        ShardStatus target = current.get(shard);
+        JobStatus previous;
+        synchronized (target) {
+            previous = target.getStatus();
+            target.setRowsProcessed(target.getRowsProcessed() + rowsDelta);
+            target.setStatus(status);
+        }
+        if (status != previous) {
+            log.info("Job {} shard {} {}: {}", id, shard, status, target.getDescription());
+        }
+    }
+
+    public IngestionStatus toStatus() {
+        IngestionStatus snapshot = new IngestionStatus();
+        long rows = rowsProcessed.get();
+        long bytes = bytesProcessed.get();
+        snapshot.setJobId(id);
+        snapshot.setType(type);
+        snapshot.setTableName(tableName);
+        snapshot.setStatus(status);
+        snapshot.setRowsProcessed(rows);
+        snapshot.setBytesProcessed(bytes);
+        snapshot.setRowsRejected(rowsRejected.get());
+        snapshot.setBatchesInserted(batchesInserted.get());
+        snapshot.setInsertMillis(TimeUnit.NANOSECONDS.toMillis(insertNanos.get()));
+        snapshot.setParseMillis(TimeUnit.NANOSECONDS.toMillis(parseNanos.get()));
+        snapshot.setRejectFile(rejectFile);
+        snapshot.setTotalRows(totalRows);
+        snapshot.setTotalBytes(totalBytes);
+        snapshot.setStartedAt(startedAt);
+        snapshot.setFinishedAt(finishedAt);
+        snapshot.setError(error);
+        List<ShardStatus> current = shards;
+        if (current != null) {
+            List<ShardStatus> copies = new ArrayList<>(current.size());
+            for (ShardStatus shard : current) {
+                synchronized (shard) {
+                    ShardStatus copy = new ShardStatus();
+                    copy.setIndex(shard.getIndex());
+                    copy.setDescription(shard.getDescription());
+                    copy.setStatus(shard.getStatus());
+                    copy.setRowsProcessed(shard.getRowsProcessed());
+                    copies.add(copy);
+                }
+            }
+            snapshot.setShards(copies);
+        }
+
+        long end = finishedAt > 0 ? finishedAt : System.currentTimeMillis();
+        double seconds = startedAt > 0 ? Math.max(end - startedAt, 1) / 1000.0 : 0;
+        snapshot.setRowsPerSecond(seconds > 0 ? rows / seconds : 0);
+        snapshot.setBytesPerSecond(seconds > 0 ? bytes / seconds : 0);
+
+        // Bytes are the better measure for uploads, rows for exports
+        double fraction = -1;
+        if (status == JobStatus.COMPLETED) {
+            fraction = 1;
+        } else if (totalBytes > 0) {
+            fraction = Math.min(1, (double) bytes / totalBytes);
+        } else if (totalRows > 0) {
+            fraction = Math.min(1, (double) rows / totalRows);
+        }
+        snapshot.setProgress(fraction < 0 ? -1 : fraction * 100);
+        if (status == JobStatus.IN_PROGRESS && fraction > 0 && fraction < 1) {
+            snapshot.setEtaSeconds((long) (seconds * (1 - fraction) / fraction));
+        } else {
+            snapshot.setEtaSeconds(status.isFinished() ? 0 : -1);
+        }
+        return snapshot;
+    }
+}
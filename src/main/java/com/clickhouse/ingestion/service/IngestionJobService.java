@@ -0,0 +1,285 @@
+package com.clickhouse.ingestion.service;
+
+import com.clickhouse.ingestion.config.IngestionProperties;
+import com.clickhouse.ingestion.dto.IncrementalExportOptions;
+import com.clickhouse.ingestion.dto.IngestionStatus;
+import com.clickhouse.ingestion.dto.MigrationRequest;
+import com.clickhouse.ingestion.dto.PartitionedExportOptions;
+import com.clickhouse.ingestion.dto.RowSelection;
+import com.clickhouse.ingestion.format.FileFormat;
+import com.clickhouse.ingestion.format.FileFormats;
+import com.clickhouse.ingestion.format.RowFileFormat;
+import com.clickhouse.ingestion.model.Compression;
+import com.clickhouse.ingestion.model.ConnectionConfig;
+import com.clickhouse.ingestion.model.DataFormat;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs ingest and export work off the servlet threads on a bounded pool.
+ * At most {@code ingestion.max-concurrent-jobs} run at once and at most
+ * {@code ingestion.max-queued-jobs} wait; further submissions are rejected.
+ * Worker threads carry the job id in the {@code jobId} MDC key.
+ */
+@Slf4j
+@Service
+public class IngestionJobService {
+    private final IngestionService ingestionService;
+    private final IngestionProperties properties;
+    private final UploadStore uploadStore;
+    private final IngestionMetrics metrics;
+    private final Path uploadDirectory;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, IngestionJob> jobs = new ConcurrentHashMap<>();
+    private final Map<String, IngestionMetrics.JobMeters> meters = new ConcurrentHashMap<>();
+
+    public IngestionJobService(IngestionService ingestionService,
+                               IngestionProperties properties,
+                               UploadStore uploadStore,
+                               IngestionMetrics metrics,
+                               @Value("${file.upload.directory}") String uploadDirectory) {
+        this.ingestionService = ingestionService;
+        this.properties = properties;
+        this.uploadStore = uploadStore;
+        this.metrics = metrics;
+        this.uploadDirectory = Paths.get(uploadDirectory);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(
+            properties.getMaxConcurrentJobs(), properties.getMaxConcurrentJobs(),
+            0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(properties.getMaxQueuedJobs()),
+            r -> new Thread(r, "ingestion-job-" + threadCount.incrementAndGet()));
+        metrics.monitor(executor, "ingestion.executor");
+    }
+
+    /**
+     * @param format      ClickHouse format to pass the file through in, or null to read it as {@code fileFormat}
+     * @param fileFormat  format of the file when {@code format} is null
+     * @param parallelism insert workers for a parsed ingest, or null for the configured default
+     * @param compression compression of the file, which is decompressed as it is read
+     */
+    public String submitIngest(ConnectionConfig config, String tableName, List<String> columns, MultipartFile file,
+                               DataFormat format, FileFormat fileFormat, Integer parallelism,
+                               Compression compression) {
+        IngestionJob job = newJob("INGEST", tableName);
+        // The multipart body is gone once the request returns, so keep our own copy
+        Path spooled;
+        try {
+            Files.createDirectories(uploadDirectory);
+            spooled = uploadDirectory.resolve(job.getId() + ".upload");
+            file.transferTo(spooled);
+            job.setTotalBytes(Files.size(spooled));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to stage upload", e);
+        }
+
+        submit(job, () -> {
+            try (InputStream input = Files.newInputStream(spooled)) {
+                if (format != null) {
+                    ingestionService.ingestNative(config, tableName, columns, input, format, compression, job);
+                } else {
+                    ingestionService.ingestFile(config, tableName, columns, input, fileFormat, compression,
+                        parallelism != null ? parallelism : properties.getParallelism(), job);
+                }
+            }
+        }, () -> deleteQuietly(spooled));
+        return job.getId();
+    }
+
+    /**
+     * Loads a staged upload with checkpoints, resuming from the last one if a
+     * previous attempt failed or the service restarted. The upload and its
+     * checkpoint are kept until the load completes, so the same call can be
+     * repeated until it does.
+     */
+    public String submitResumable(ConnectionConfig config, String tableName, List<String> columns, String uploadId) {
+        Path staged = uploadStore.path(uploadId);
+        if (!Files.exists(staged)) {
+            throw new IllegalArgumentException("Unknown upload " + uploadId);
+        }
+        IngestionJob job = newJob("INGEST", tableName);
+        try {
+            job.setTotalBytes(Files.size(staged));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to stage upload", e);
+        }
+        submit(job, () -> {
+            ingestionService.ingestResumable(config, tableName, columns, staged, uploadId, job);
+            uploadStore.delete(uploadId);
+        }, () -> { });
+        return job.getId();
+    }
+
+    /**
+     * Loads a staged upload with segmented parallel parsing; the upload is
+     * deleted once the job ends.
+     */
+    public String submitSpooled(ConnectionConfig config, String tableName, List<String> columns, String uploadId,
+                                Charset charset, char delimiter, Integer parallelism) {
+        Path staged = uploadStore.path(uploadId);
+        if (!Files.exists(staged)) {
+            throw new IllegalArgumentException("Unknown upload " + uploadId);
+        }
+        IngestionJob job = newJob("INGEST", tableName);
+        try {
+            job.setTotalBytes(Files.size(staged));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to stage upload", e);
+        }
+        submit(job, () -> ingestionService.ingestSpooled(config, tableName, columns, staged, charset, delimiter,
+                parallelism != null ? parallelism : properties.getParallelism(), job),
+            () -> deleteQuietly(staged));
+        return job.getId();
+    }
+
+    /**
+     * @param selection rows to export, or null for the whole table
+     */
+    public String submitExport(ConnectionConfig config, String tableName, List<String> columns,
+                               RowSelection selection, String filePath) {
+        IngestionJob job = newJob("EXPORT", tableName);
+        submit(job, () -> {
+            if (selection == null || selection.isEmpty()) {
+                job.setTotalRows(ingestionService.countRows(config, tableName)); // not known up front for a selection
+            }
+            ingestionService.exportToFile(config, tableName, columns, selection, filePath, job);
+        }, () -> { });
+        return job.getId();
+    }
+
+    public String submitPartitionedExport(ConnectionConfig config, String tableName, List<String> columns,
+                                          String filePath, PartitionedExportOptions options) {
+        // Checked up front so that it is a bad request, not a failed job
+        FileFormat format = FileFormats.forFileName(filePath);
+        if (!(format instanceof RowFileFormat)) {
+            throw new IllegalArgumentException("Partitioned export does not support " + format.getName());
+        }
+        IngestionJob job = newJob("EXPORT", tableName);
+        submit(job, () -> {
+            job.setTotalRows(ingestionService.countRows(config, tableName));
+            ingestionService.exportPartitioned(config, tableName, columns, filePath, options, job);
+        }, () -> { });
+        return job.getId();
+    }
+
+    /**
+     * Exports the rows added since the last incremental export to the same destination.
+     */
+    public String submitIncrementalExport(ConnectionConfig config, String tableName, List<String> columns,
+                                          String filePath, IncrementalExportOptions options) {
+        IngestionJob job = newJob("EXPORT", tableName);
+        submit(job, () -> ingestionService.exportIncremental(config, tableName, columns, filePath, options, job),
+            () -> { });
+        return job.getId();
+    }
+
+    public String submitMigration(MigrationRequest request) {
+        IngestionJob job = newJob("MIGRATE", request.getSourceTable());
+        submit(job, () -> {
+            job.setTotalRows(ingestionService.countRows(request.getSource(), request.getSourceTable()));
+            ingestionService.migrate(request, job);
+        }, () -> { });
+        return job.getId();
+    }
+
+    public IngestionStatus getStatus(String jobId) {
+        IngestionJob job = jobs.get(jobId);
+        return job == null ? null : job.toStatus();
+    }
+
+    public List<IngestionStatus> getJobs() {
+        List<IngestionStatus> statuses = new ArrayList<>();
+        for (IngestionJob job : jobs.values()) {
+            statuses.add(job.toStatus());
+        }
+        return statuses;
+    }
+
+    /**
+     * @return false if the job is unknown or already finished
+     */
+    public boolean cancel(String jobId) {
+        IngestionJob job = jobs.get(jobId);
+        return job != null && job.cancel();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobs.values().forEach(IngestionJob::cancel);
+        executor.shutdown();
+    }
+
+    private IngestionJob newJob(String type, String tableName) {
+        pruneFinishedJobs();
+        IngestionJob job = new IngestionJob(UUID.randomUUID().toString(), type, tableName,
+            meters.computeIfAbsent(type, metrics::forJobType));
+        jobs.put(job.getId(), job);
+        log.info("Job {} submitted: type={} table={}", job.getId(), type, tableName);
+        return job;
+    }
+
+    private void submit(IngestionJob job, JobBody body, Runnable cleanup) {
+        try {
+            executor.execute(() -> run(job, body, cleanup));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            cleanup.run();
+            throw e;
+        }
+    }
+
+    private void run(IngestionJob job, JobBody body, Runnable cleanup) {
+        MDC.put("jobId", job.getId());
+        try {
+            if (!job.markStarted()) {
+                return; // cancelled while queued
+            }
+            body.run();
+            job.markCompleted();
+        } catch (Exception e) {
+            job.markFailed(e);
+        } finally {
+            cleanup.run();
+            MDC.remove("jobId");
+        }
+    }
+
+    private void pruneFinishedJobs() {
+        long cutoff = System.currentTimeMillis() - properties.getJobRetentionMillis();
+        jobs.values().removeIf(job -> job.getStatus().isFinished() && job.getFinishedAt() < cutoff);
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+            // Left for the next cleanup of the upload directory
+        }
+    }
+
+    @FunctionalInterface
+    private interface JobBody {
+        void run() throws Exception;
+    }
+}
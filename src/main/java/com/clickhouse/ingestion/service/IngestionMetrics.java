@@ -0,0 +1,95 @@
+package com.clickhouse.ingestion.service;
+
+import com.clickhouse.ingestion.model.JobStatus;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer meters for ingest, export and migration jobs, tagged by job
+ * type. Throughput is the rate of the row and byte counters; the batch and
+ * parse timers split a job's time between the server and the JVM.
+ */
+@Service
+public class IngestionMetrics {
+    private final MeterRegistry registry;
+
+    public IngestionMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Meters of one job type, resolved once so that hot paths only increment.
+     */
+    public final class JobMeters {
+        final Counter rows;
+        final Counter bytes;
+        final Counter rejected;
+        final Timer batches;
+        final Timer parse;
+        private final String type;
+
+        JobMeters(String type) {
+            this.type = type;
+            this.rows = Counter.builder("ingestion.rows")
+                .description("Rows committed to or read from ClickHouse")
+                .tag("type", type)
+                .register(registry);
+            this.bytes = Counter.builder("ingestion.bytes")
+                .description("Bytes of input read or output written")
+                .baseUnit("bytes")
+                .tag("type", type)
+                .register(registry);
+            this.rejected = Counter.builder("ingestion.rows.rejected")
+                .description("Rows written to a reject file instead of the table")
+                .tag("type", type)
+                .register(registry);
+            this.batches = Timer.builder("ingestion.batch.duration")
+                .description("Round trip of one INSERT batch")
+                .tag("type", type)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofMinutes(5))
+                .register(registry);
+            this.parse = Timer.builder("ingestion.parse.duration")
+                .description("Time spent reading, parsing and binding input, excluding inserts")
+                .tag("type", type)
+                .register(registry);
+        }
+
+        void finished(JobStatus status, long millis, Throwable cause) {
+            Timer.builder("ingestion.jobs")
+                .description("Finished jobs by outcome")
+                .tag("type", type)
+                .tag("status", status.name())
+                .register(registry)
+                .record(millis, TimeUnit.MILLISECONDS);
+            if (status == JobStatus.FAILED) {
+                Counter.builder("ingestion.errors")
+                    .description("Failed jobs by root exception")
+                    .tag("type", type)
+                    .tag("exception", cause.getClass().getSimpleName())
+                    .register(registry)
+                    .increment();
+            }
+        }
+    }
+
+    public JobMeters forJobType(String type) {
+        return new JobMeters(type);
+    }
+
+    /**
+     * Publishes active, queued and completed task counts of a job executor.
+     */
+    public void monitor(ThreadPoolExecutor executor, String name) {
+        new ExecutorServiceMetrics(executor, name, List.of()).bindTo(registry);
+    }
+}
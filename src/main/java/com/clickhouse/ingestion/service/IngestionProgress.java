@@ -0,0 +1,63 @@
+package com.clickhouse.ingestion.service;
+
+import com.clickhouse.ingestion.model.JobStatus;
+
+import java.util.List;
+
+/**
+ * Receives progress from a running ingest or export and lets the caller
+ * request cancellation, which is checked between batches.
+ */
+public interface IngestionProgress {
+    IngestionProgress NONE = new IngestionProgress() {
+        @Override
+        public void onProgress(long rowsDelta, long bytesProcessed) {
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    };
+
+    /**
+     * @param rowsDelta      rows committed since the previous call
+     * @param bytesProcessed total bytes read or written so far
+     */
+    void onProgress(long rowsDelta, long bytesProcessed);
+
+    boolean isCancelled();
+
+    /**
+     * @param rowsDelta  rows rejected since the previous call
+     * @param rejectFile file the rejected rows are written to
+     */
+    default void onRejected(long rowsDelta, String rejectFile) {
+    }
+
+    /**
+     * @param rows  rows in the batch
+     * @param nanos round trip of the INSERT that sent it
+     */
+    default void onBatchInserted(int rows, long nanos) {
+    }
+
+    /**
+     * @param nanos time a reader spent reading, parsing and binding input,
+     *              not counting inserts or waits for insert workers
+     */
+    default void onParseTime(long nanos) {
+    }
+
+    /**
+     * Announces that the work is split into shards, described in shard order.
+     */
+    default void onShardsPlanned(List<String> descriptions) {
+    }
+
+    /**
+     * @param rowsDelta rows finished in this shard since the previous call
+     */
+    default void onShardProgress(int shard, long rowsDelta, JobStatus status) {
+    }
+}
@@ -1,8 +1,23 @@
 package com.clickhouse.ingestion.service;
 
+import com.clickhouse.ingestion.dto.MigrationRequest;
+import com.clickhouse.ingestion.format.FileFormat;
+import com.clickhouse.ingestion.dto.IncrementalExportOptions;
+import com.clickhouse.ingestion.dto.PartitionedExportOptions;
+import com.clickhouse.ingestion.dto.PreviewOptions;
+import com.clickhouse.ingestion.dto.PreviewResult;
+import com.clickhouse.ingestion.dto.RowSelection;
+import com.clickhouse.ingestion.model.Compression;
 import com.clickhouse.ingestion.model.ConnectionConfig;
+import com.clickhouse.ingestion.model.DataFormat;
+import com.clickhouse.ingestion.model.MigrationMode;
+import com.clickhouse.ingestion.model.Watermark;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 
@@ -10,7 +25,113 @@ public interface IngestionService {
     void testConnection(ConnectionConfig config);
     List<String> getTables(ConnectionConfig config);
     List<String> getColumns(ConnectionConfig config, String tableName);
+    /**
+     * @return column name to ClickHouse type (as in system.columns.type), in table order
+     */
+    Map<String, String> getColumnTypes(ConnectionConfig config, String tableName);
     void ingestFromFile(ConnectionConfig config, String tableName, List<String> columns, MultipartFile file);
+    void ingestFromStream(ConnectionConfig config, String tableName, List<String> columns, InputStream input, IngestionProgress progress);
+    /**
+     * Like {@link #ingestFromStream(ConnectionConfig, String, List, InputStream, IngestionProgress)}, but
+     * spreads the batches over {@code parallelism} insert workers on separate connections.
+     */
+    void ingestFromStream(ConnectionConfig config, String tableName, List<String> columns, InputStream input,
+                          int parallelism, IngestionProgress progress);
+    /**
+     * Like {@link #ingestFromStream(ConnectionConfig, String, List, InputStream, int, IngestionProgress)}, for
+     * {@code input} compressed with {@code compression}. It is decompressed on the fly and byte progress
+     * counts compressed bytes, so it can be compared with the file size.
+     */
+    void ingestFromStream(ConnectionConfig config, String tableName, List<String> columns, InputStream input,
+                          Compression compression, int parallelism, IngestionProgress progress);
+    /**
+     * Loads {@code input} in any {@link FileFormat}: rows of a JVM-decoded format go through typed
+     * binding and the reject file like CSV, a passthrough format is handed to ClickHouse as it is.
+     */
+    void ingestFile(ConnectionConfig config, String tableName, List<String> columns, InputStream input,
+                    FileFormat format, Compression compression, int parallelism, IngestionProgress progress);
+    /**
+     * Loads a CSV file with a checkpoint saved after every batch under
+     * {@code checkpointId}. If a checkpoint exists, parsing continues from it;
+     * batches carry deduplication tokens so one replayed after a crash is not
+     * inserted twice. The checkpoint is removed once the whole file is loaded.
+     */
+    void ingestResumable(ConnectionConfig config, String tableName, List<String> columns, Path file,
+                         String checkpointId, IngestionProgress progress);
+    /**
+     * Loads a CSV file already spooled to disk, parsing and inserting up to
+     * {@code parallelism} record-aligned segments of it concurrently.
+     */
+    void ingestSpooled(ConnectionConfig config, String tableName, List<String> columns, Path file,
+                       Charset charset, char delimiter, int parallelism, IngestionProgress progress);
+    /**
+     * Pipes {@code input}, decompressed but otherwise unparsed, into {@code INSERT ... FORMAT <format>}
+     * so that ClickHouse parses it.
+     */
+    void ingestNative(ConnectionConfig config, String tableName, List<String> columns, InputStream input,
+                      DataFormat format, Compression compression, IngestionProgress progress);
+    /**
+     * Writes the selected columns to {@code filePath} in the file format its extension names (CSV with
+     * a header row by default), compressed if it ends in {@code .gz}, {@code .zst} or {@code .lz4}.
+     */
     void exportToFile(ConnectionConfig config, String tableName, List<String> columns, String filePath);
+    /**
+     * As above, for the rows of {@code selection} only; see {@link RowSelection}.
+     *
+     * @param selection filters, order, limit and sample evaluated by ClickHouse, or null for the whole table
+     * @throws IllegalArgumentException if the selection names a column the table does not have
+     */
+    void exportToFile(ConnectionConfig config, String tableName, List<String> columns, RowSelection selection,
+                      String filePath, IngestionProgress progress);
+    /**
+     * Writes the selected columns as CSV with a header row to {@code out},
+     * compressing on the fly, and closes {@code out} when done.
+     */
+    void exportToStream(ConnectionConfig config, String tableName, List<String> columns, OutputStream out,
+                        Compression compression, IngestionProgress progress);
+    /**
+     * Checks {@code selection} against the table as {@link #exportFile} would, without reading any rows,
+     * so that a streamed export can be refused before its response starts.
+     *
+     * @throws IllegalArgumentException if the selection names a column the table does not have or is out of range
+     */
+    void validateSelection(ConnectionConfig config, String tableName, List<String> columns, RowSelection selection);
+    /**
+     * Writes the selected columns of the rows of {@code selection} (null: all rows) to {@code out} in
+     * {@code format}, compressing on the fly, and closes {@code out} when done.
+     */
+    void exportFile(ConnectionConfig config, String tableName, List<String> columns, RowSelection selection,
+                    OutputStream out, FileFormat format, Compression compression, IngestionProgress progress);
+    /**
+     * Copies the bytes of {@code SELECT ... FORMAT <format>} to {@code out} without decoding
+     * them, and closes {@code out} when done. {@code selection} as for {@link #exportFile}.
+     */
+    void exportNative(ConnectionConfig config, String tableName, List<String> columns, RowSelection selection,
+                      OutputStream out, DataFormat format, Compression compression, IngestionProgress progress);
+    /**
+     * Exports the table as concurrently read shards; see {@link PartitionedExportOptions}.
+     */
+    void exportPartitioned(ConnectionConfig config, String tableName, List<String> columns, String filePath,
+                           PartitionedExportOptions options, IngestionProgress progress);
+    /**
+     * Exports the rows added since the last call for the same table and destination, as tracked by the
+     * watermark column; see {@link IncrementalExportOptions}.
+     *
+     * @return the watermark after this run
+     */
+    Watermark exportIncremental(ConnectionConfig config, String tableName, List<String> columns, String filePath,
+                                IncrementalExportOptions options, IngestionProgress progress);
+    /**
+     * Copies a table between two ClickHouse servers partition by partition; see {@link MigrationRequest}.
+     *
+     * @return the mode used, which AUTO resolves to REMOTE or STREAM
+     */
+    MigrationMode migrate(MigrationRequest request, IngestionProgress progress);
+    long countRows(ConnectionConfig config, String tableName);
     List<Map<String, Object>> previewData(ConnectionConfig config, String tableName, int limit);
+
+    /**
+     * Reads one page of the selected columns, with metadata resolved once; see {@link PreviewOptions}.
+     */
+    PreviewResult previewCompact(ConnectionConfig config, String tableName, PreviewOptions options);
 } 
\ No newline at end of file
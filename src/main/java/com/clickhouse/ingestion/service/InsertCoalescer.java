@@ -0,0 +1,403 @@
+package com.clickhouse.ingestion.service;
+
+import com.clickhouse.ingestion.config.IngestionProperties;
+import com.clickhouse.ingestion.model.ConnectionConfig;
+import com.clickhouse.ingestion.service.impl.BatchInserter;
+import com.clickhouse.ingestion.service.impl.ColumnConverter;
+import com.clickhouse.ingestion.service.impl.RowRejectedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Combines small uploads to the same table into one INSERT, so that a
+ * stream of small files becomes a few large parts instead of one part each.
+ * A buffer is sent by the upload that fills it, or on a worker thread once
+ * its oldest rows have waited {@code ingestion.coalesce-delay-millis}.
+ * Every upload waits for the INSERT its rows went out in, so a successful
+ * return still means the rows are in the table.
+ *
+ * <p>Rows of an upload are checked against the column types before they
+ * join a batch; an upload with a bad value fails on its own without
+ * affecting the others in the batch.
+ *
+ * <p>Buffers are kept per connection pool key, table and column list, and
+ * one left empty for {@code ingestion.coalesce-idle-millis} is dropped.
+ * Meters are published per table and pool, and removed with the table's
+ * last buffer.
+ */
+@Slf4j
+@Service
+public class InsertCoalescer {
+    private final ClickHouseConnectionPool connectionPool;
+    private final IngestionService ingestionService;
+    private final IngestionProperties properties;
+    private final MeterRegistry registry;
+    private final Map<Target, Buffer> buffers = new ConcurrentHashMap<>();
+    private final Map<Target, TableMeters> tableMeters = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer;
+    private final ThreadPoolExecutor workers;
+
+    public InsertCoalescer(ClickHouseConnectionPool connectionPool, IngestionService ingestionService,
+                           IngestionProperties properties, MeterRegistry registry) {
+        this.connectionPool = connectionPool;
+        this.ingestionService = ingestionService;
+        this.properties = properties;
+        this.registry = registry;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "insert-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Only the timer submits, and it stops draining while the queue is full
+        int threads = Math.max(1, properties.getCoalesceFlushThreads());
+        AtomicInteger workerCount = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(threads), r -> {
+                Thread thread = new Thread(r, "insert-coalescer-" + workerCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        long tick = Math.max(10, properties.getCoalesceDelayMillis() / 4);
+        timer.scheduleWithFixedDelay(this::flushExpired, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Buffer key. The pool key tells servers and credentials apart without
+     * keeping them in a map of its own; without columns it keys the meters
+     * of a table.
+     */
+    @Value
+    static class Target {
+        ClickHouseConnectionPool.Key key;
+        String tableName;
+        List<String> columns;
+
+        Target table() {
+            return new Target(key, tableName, List.of());
+        }
+    }
+
+    private static final class Upload {
+        final List<String[]> rows;
+        final long bytes;
+        final CompletableFuture<Long> done = new CompletableFuture<>();
+
+        Upload(List<String[]> rows, long bytes) {
+            this.rows = rows;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Meters of one table, shared by its buffers for different column lists.
+     */
+    private final class TableMeters {
+        final Counter flushedBySize;
+        final Counter flushedByTime;
+        final DistributionSummary flushRows;
+        final DistributionSummary flushUploads;
+        final Timer flushDuration;
+        final AtomicLong bufferedBytes = new AtomicLong();
+        final List<Meter> meters = new ArrayList<>();
+        int buffers; // guarded by the map entry
+
+        TableMeters(Target table, String database) {
+            Tags tags = Tags.of("table", database + "." + table.tableName,
+                "pool", table.key.describe(), "id", table.key.id());
+            this.flushedBySize = flushes(tags, "size");
+            this.flushedByTime = flushes(tags, "time");
+            this.flushRows = add(DistributionSummary.builder("ingestion.coalesce.flush.rows")
+                .description("Rows per combined INSERT")
+                .tags(tags)
+                .register(registry));
+            this.flushUploads = add(DistributionSummary.builder("ingestion.coalesce.flush.uploads")
+                .description("Uploads combined into one INSERT")
+                .tags(tags)
+                .register(registry));
+            this.flushDuration = add(Timer.builder("ingestion.coalesce.flush.duration")
+                .description("Round trip of a combined INSERT")
+                .tags(tags)
+                .register(registry));
+            add(Gauge.builder("ingestion.coalesce.buffered.bytes", bufferedBytes, AtomicLong::get)
+                .description("Bytes of uploads waiting to be sent")
+                .baseUnit("bytes")
+                .tags(tags)
+                .register(registry));
+        }
+
+        private Counter flushes(Tags tags, String trigger) {
+            return add(Counter.builder("ingestion.coalesce.flushes")
+                .description("Combined INSERTs sent, by what triggered them")
+                .tags(tags)
+                .tag("trigger", trigger)
+                .register(registry));
+        }
+
+        private <M extends Meter> M add(M meter) {
+            meters.add(meter);
+            return meter;
+        }
+    }
+
+    private final class Buffer {
+        final Target target;
+        final ConnectionConfig config;
+        final TableMeters meters;
+
+        // Guarded by this: a retired buffer is out of the map and takes no more uploads
+        List<Upload> uploads = new ArrayList<>();
+        long rows;
+        long bytes;
+        long oldestNanos;
+        long lastUsedNanos = System.nanoTime();
+        int sending;
+        boolean retired;
+
+        Buffer(Target target, ConnectionConfig config) {
+            this.target = target;
+            this.config = config;
+            this.meters = acquireMeters(target.table(), config.getDatabase());
+        }
+
+        /**
+         * @return false if the buffer has been retired and must not be used
+         * @throws RejectedExecutionException if the buffer is full
+         */
+        synchronized boolean add(Upload upload) {
+            if (retired) {
+                return false;
+            }
+            if (bytes + upload.bytes > properties.getCoalesceMaxBufferedBytes()) {
+                throw new RejectedExecutionException("Too much buffered for " + target.tableName);
+            }
+            if (uploads.isEmpty()) {
+                oldestNanos = System.nanoTime();
+            }
+            uploads.add(upload);
+            rows += upload.rows.size();
+            bytes += upload.bytes;
+            meters.bufferedBytes.addAndGet(upload.bytes);
+            return true;
+        }
+
+        synchronized List<Upload> drainIfFull() {
+            return rows >= properties.getCoalesceRows() || bytes >= properties.getCoalesceBytes() ? drain() : null;
+        }
+
+        synchronized List<Upload> drainIfOlderThan(long nanos) {
+            return !uploads.isEmpty() && System.nanoTime() - oldestNanos >= nanos ? drain() : null;
+        }
+
+        private List<Upload> drain() {
+            List<Upload> drained = uploads;
+            uploads = new ArrayList<>();
+            meters.bufferedBytes.addAndGet(-bytes);
+            rows = 0;
+            bytes = 0;
+            sending++;
+            return drained;
+        }
+
+        synchronized void sent() {
+            sending--;
+            lastUsedNanos = System.nanoTime();
+        }
+
+        /**
+         * Retires the buffer if it is empty, has nothing on the way to the
+         * server and has taken no upload for {@code nanos}.
+         */
+        synchronized boolean retireIfUnusedFor(long nanos) {
+            if (uploads.isEmpty() && sending == 0 && System.nanoTime() - lastUsedNanos >= nanos) {
+                retired = true;
+            }
+            return retired;
+        }
+    }
+
+    /**
+     * Adds the rows to the table's buffer and waits until they have been inserted.
+     *
+     * @param bytes size of the upload, counted against the buffer limits
+     * @return rows inserted
+     * @throws RejectedExecutionException if the upload is larger than a whole batch or the table's
+     *                                    buffer is full
+     * @throws RowRejectedException       if a value does not fit its column; none of the rows are inserted
+     */
+    public long insert(ConnectionConfig config, String tableName, List<String> columns, List<String[]> rows,
+                       long bytes) {
+        if (bytes > properties.getCoalesceBytes()) {
+            throw new RejectedExecutionException("Upload of " + bytes + " bytes is too large to buffer");
+        }
+        Target target = new Target(ClickHouseConnectionPool.Key.of(config), tableName, List.copyOf(columns));
+        Upload upload = new Upload(rows, bytes);
+        Buffer buffer;
+        while (true) {
+            buffer = buffers.computeIfAbsent(target, t -> new Buffer(t, config));
+            if (buffer.add(upload)) {
+                break;
+            }
+            // Retired by the timer after the lookup; make way for a fresh one
+            buffers.remove(target, buffer);
+        }
+        List<Upload> batch = buffer.drainIfFull();
+        if (batch != null) {
+            buffer.meters.flushedBySize.increment();
+            send(buffer, batch);
+        }
+        try {
+            return upload.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a buffered insert", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException("Failed to ingest data", e.getCause());
+        }
+    }
+
+    /**
+     * Hands expired buffers to the workers and drops idle ones. While the
+     * workers are behind, the rest stay buffered until a later tick, and
+     * uploads to a full buffer are turned away meanwhile.
+     */
+    private void flushExpired() {
+        long delayNanos = TimeUnit.MILLISECONDS.toNanos(properties.getCoalesceDelayMillis());
+        long idleNanos = TimeUnit.MILLISECONDS.toNanos(properties.getCoalesceIdleMillis());
+        for (Buffer buffer : buffers.values()) {
+            if (workers.getQueue().remainingCapacity() == 0) {
+                return;
+            }
+            List<Upload> batch = buffer.drainIfOlderThan(delayNanos);
+            if (batch != null) {
+                buffer.meters.flushedByTime.increment();
+                try {
+                    workers.execute(() -> send(buffer, batch));
+                } catch (RejectedExecutionException e) {
+                    // Shutting down
+                    send(buffer, batch);
+                }
+            } else if (buffer.retireIfUnusedFor(idleNanos)) {
+                buffers.remove(buffer.target, buffer);
+                releaseMeters(buffer.target.table());
+            }
+        }
+    }
+
+    private TableMeters acquireMeters(Target table, String database) {
+        return tableMeters.compute(table, (key, meters) -> {
+            TableMeters acquired = meters != null ? meters : new TableMeters(key, database);
+            acquired.buffers++;
+            return acquired;
+        });
+    }
+
+    private void releaseMeters(Target table) {
+        tableMeters.compute(table, (key, meters) -> {
+            if (--meters.buffers > 0) {
+                return meters;
+            }
+            for (Meter meter : meters.meters) {
+                registry.remove(meter);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Inserts the uploads as one batch and completes each upload's future.
+     * Never throws, since it also runs on the worker threads.
+     */
+    private void send(Buffer buffer, List<Upload> batch) {
+        Target target = buffer.target;
+        long start = System.nanoTime();
+        List<Upload> accepted = new ArrayList<>();
+        long rows = 0;
+        try {
+            ColumnConverter[] converters = BatchInserter.converters(target.columns,
+                ingestionService.getColumnTypes(buffer.config, target.tableName));
+            try (Connection conn = connectionPool.getConnection(buffer.config);
+                 BatchInserter inserter = new BatchInserter(conn, target.tableName, target.columns, converters,
+                     Integer.MAX_VALUE, Long.MAX_VALUE)) {
+                for (Upload upload : batch) {
+                    try {
+                        for (String[] row : upload.rows) {
+                            inserter.check(row);
+                        }
+                    } catch (RowRejectedException | IllegalArgumentException e) {
+                        upload.done.completeExceptionally(e);
+                        continue;
+                    }
+                    for (String[] row : upload.rows) {
+                        inserter.add(row);
+                    }
+                    accepted.add(upload);
+                    rows += upload.rows.size();
+                }
+                inserter.flush();
+            }
+            for (Upload upload : accepted) {
+                upload.done.complete((long) upload.rows.size());
+            }
+            buffer.meters.flushDuration.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            buffer.meters.flushRows.record(rows);
+            buffer.meters.flushUploads.record(accepted.size());
+            log.debug("Inserted {} buffered rows of {} uploads into {}", rows, accepted.size(), target.tableName);
+        } catch (Exception e) {
+            log.warn("Buffered insert of {} uploads into {} failed", batch.size(), target.tableName, e);
+            RuntimeException failure = new RuntimeException("Failed to ingest data", e);
+            for (Upload upload : batch) {
+                upload.done.completeExceptionally(failure);
+            }
+        } finally {
+            buffer.sent();
+        }
+    }
+
+    /**
+     * Sends whatever is still buffered before the service stops.
+     */
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdown();
+        workers.shutdown();
+        try {
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Buffer buffer : buffers.values()) {
+            List<Upload> batch = buffer.drainIfOlderThan(0);
+            if (batch != null) {
+                send(buffer, batch);
+            }
+        }
+    }
+}
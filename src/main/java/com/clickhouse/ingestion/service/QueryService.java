@@ -0,0 +1,210 @@
+package com.clickhouse.ingestion.service;
+
+import com.clickhouse.client.ClickHouseException;
+import com.clickhouse.client.ClickHouseResponse;
+import com.clickhouse.ingestion.config.QueryProperties;
+import com.clickhouse.ingestion.dto.QueryRequest;
+import com.clickhouse.ingestion.model.ConnectionConfig;
+import com.clickhouse.ingestion.model.DataFormat;
+import com.clickhouse.jdbc.ClickHouseStatement;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * Runs ad-hoc queries and copies the server's formatted output straight to
+ * the client, so no result is ever held in the JVM. Every query runs with
+ * {@code max_result_rows} and {@code max_execution_time} set, and is killed
+ * on the server if the client goes away before the result is complete.
+ *
+ * <p>Paging wraps the query in {@code LIMIT/OFFSET}; the page token carries
+ * the next offset and a hash of the query, so it cannot be replayed against
+ * a different one.
+ */
+@Slf4j
+@Service
+public class QueryService {
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final Pattern SELECT_PREFIX = Pattern.compile("\\s*(SELECT|WITH)\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern TRAILING_SEMICOLONS = Pattern.compile("[\\s;]+$");
+
+    private final ClickHouseConnectionPool connectionPool;
+    private final SchemaMetadataCache metadataCache;
+    private final QueryProperties properties;
+
+    public QueryService(ClickHouseConnectionPool connectionPool, SchemaMetadataCache metadataCache,
+                        QueryProperties properties) {
+        this.connectionPool = connectionPool;
+        this.metadataCache = metadataCache;
+        this.properties = properties;
+    }
+
+    /**
+     * A validated query, ready to run once the response headers are out.
+     */
+    public static final class PreparedQuery {
+        private final String queryId = UUID.randomUUID().toString();
+        private final String sql;
+        private final DataFormat format;
+        private final long maxResultRows;
+        private final int maxExecutionTimeSeconds;
+        private final String nextPageToken;
+        private final boolean ddl;
+
+        PreparedQuery(String sql, DataFormat format, long maxResultRows, int maxExecutionTimeSeconds,
+                      String nextPageToken, boolean ddl) {
+            this.sql = sql;
+            this.format = format;
+            this.maxResultRows = maxResultRows;
+            this.maxExecutionTimeSeconds = maxExecutionTimeSeconds;
+            this.nextPageToken = nextPageToken;
+            this.ddl = ddl;
+        }
+
+        public String getQueryId() {
+            return queryId;
+        }
+
+        public DataFormat getFormat() {
+            return format;
+        }
+
+        /**
+         * @return the token of the following page, or null if the query is not paged. A page with
+         *         fewer rows than the page size is the last one.
+         */
+        public String getNextPageToken() {
+            return nextPageToken;
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the query is missing, cannot be paged or the page token
+     *                                  does not belong to it
+     */
+    public PreparedQuery prepare(QueryRequest request) {
+        if (request.getQuery() == null || request.getQuery().isBlank()) {
+            throw new IllegalArgumentException("query is required");
+        }
+        String query = TRAILING_SEMICOLONS.matcher(request.getQuery()).replaceAll("");
+        DataFormat format = request.getFormat() != null ? request.getFormat() : DataFormat.JSON_EACH_ROW;
+        long maxResultRows = request.getMaxResultRows() != null
+            ? Math.min(Math.max(1, request.getMaxResultRows()), properties.getMaxResultRows())
+            : properties.getMaxResultRows();
+        int maxExecutionTime = request.getMaxExecutionTimeSeconds() != null
+            ? Math.min(Math.max(1, request.getMaxExecutionTimeSeconds()), properties.getMaxExecutionTimeSeconds())
+            : properties.getMaxExecutionTimeSeconds();
+        boolean ddl = ClickHouseService.DDL_PREFIX.matcher(query).lookingAt();
+
+        if (request.getPageSize() == null && request.getPageToken() == null) {
+            return new PreparedQuery(query, format, maxResultRows, maxExecutionTime, null, ddl);
+        }
+        if (!SELECT_PREFIX.matcher(query).lookingAt()) {
+            throw new IllegalArgumentException("Only SELECT queries can be paged");
+        }
+        String fingerprint = fingerprint(query, format);
+        int pageSize = request.getPageSize() != null ? request.getPageSize() : properties.getMaxPageSize();
+        if (pageSize < 1 || pageSize > properties.getMaxPageSize()) {
+            throw new IllegalArgumentException("pageSize must be between 1 and " + properties.getMaxPageSize());
+        }
+        long offset = request.getPageToken() == null ? 0 : offset(request.getPageToken(), fingerprint);
+        String paged = "SELECT * FROM (\n" + query + "\n) LIMIT " + pageSize + " OFFSET " + offset;
+        return new PreparedQuery(paged, format, maxResultRows, maxExecutionTime,
+            pageToken(offset + pageSize, fingerprint), false);
+    }
+
+    /**
+     * Copies the query result to {@code out}. If writing fails because the
+     * client disconnected, the query is killed before the connection is
+     * released, instead of letting the server finish it.
+     */
+    public void stream(ConnectionConfig config, PreparedQuery query, OutputStream out)
+            throws SQLException, IOException {
+        long bytes = 0;
+        try (Connection conn = connectionPool.getConnection(config);
+             Statement stmt = conn.createStatement();
+             ClickHouseResponse response = stmt.unwrap(ClickHouseStatement.class).getRequest().copy()
+                 .format(query.format.getFormat())
+                 .set("max_result_rows", query.maxResultRows)
+                 // Stop at the limit instead of failing a response that is already partly sent
+                 .set("result_overflow_mode", "break")
+                 .set("max_execution_time", query.maxExecutionTimeSeconds)
+                 .set("cancel_http_readonly_queries_on_client_close", 1)
+                 .query(query.sql, query.queryId)
+                 .executeAndWait();
+             InputStream in = response.getInputStream()) {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                try {
+                    out.write(buffer, 0, n);
+                } catch (IOException e) {
+                    log.debug("Client went away after {} bytes of query {}", bytes, query.queryId);
+                    kill(config, query.queryId);
+                    throw e;
+                }
+                bytes += n;
+            }
+            out.flush();
+        } catch (ClickHouseException e) {
+            throw new SQLException(e.getMessage(), e);
+        }
+        if (query.ddl) {
+            metadataCache.invalidateAll(config);
+        }
+        log.debug("Query {} returned {} bytes", query.queryId, bytes);
+    }
+
+    private void kill(ConnectionConfig config, String queryId) {
+        try (Connection conn = connectionPool.getConnection(config);
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("KILL QUERY WHERE query_id = '" + queryId + "' ASYNC");
+        } catch (SQLException e) {
+            log.warn("Failed to kill query {}", queryId, e);
+        }
+    }
+
+    private static String fingerprint(String query, DataFormat format) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                .digest((format.name() + "\n" + query).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String pageToken(long offset, String fingerprint) {
+        return Base64.getUrlEncoder().withoutPadding()
+            .encodeToString((offset + ":" + fingerprint).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static long offset(String token, String fingerprint) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.US_ASCII);
+            int colon = decoded.indexOf(':');
+            if (colon > 0 && decoded.substring(colon + 1).equals(fingerprint)) {
+                long offset = Long.parseLong(decoded.substring(0, colon));
+                if (offset >= 0) {
+                    return offset;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // Reported below like any other foreign token
+        }
+        throw new IllegalArgumentException("Page token does not belong to this query");
+    }
+}
@@ -0,0 +1,170 @@
+package com.clickhouse.ingestion.service;
+
+import com.clickhouse.ingestion.config.MetadataCacheProperties;
+import com.clickhouse.ingestion.model.CacheMetrics;
+import com.clickhouse.ingestion.model.ConnectionConfig;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.Value;
+import org.springframework.stereotype.Service;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches table lists and column name/type lists per connection, database
+ * and table. Entries expire after {@code ingestion.metadata-cache.ttl-millis}
+ * and are dropped explicitly after DDL or ingestion touching the table.
+ * Entries are loaded here from {@code system.tables} and {@code system.columns},
+ * so every caller sees the same list for the same key.
+ */
+@Service
+public class SchemaMetadataCache {
+    private final ClickHouseConnectionPool connectionPool;
+    private final Cache<ClickHouseConnectionPool.Key, List<String>> tables;
+    private final Cache<TableKey, Map<String, String>> columns;
+
+    @FunctionalInterface
+    private interface Loader<T> {
+        T load() throws SQLException;
+    }
+
+    @Value
+    static class TableKey {
+        ClickHouseConnectionPool.Key connection;
+        String table;
+    }
+
+    public SchemaMetadataCache(MetadataCacheProperties properties, MeterRegistry registry,
+                               ClickHouseConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+        Duration ttl = Duration.ofMillis(properties.getTtlMillis());
+        this.tables = Caffeine.newBuilder()
+            .expireAfterWrite(ttl)
+            .maximumSize(properties.getMaxEntries())
+            .recordStats()
+            .build();
+        this.columns = Caffeine.newBuilder()
+            .expireAfterWrite(ttl)
+            .maximumSize(properties.getMaxEntries())
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(registry, tables, "metadata.tables");
+        CaffeineCacheMetrics.monitor(registry, columns, "metadata.columns");
+    }
+
+    /**
+     * @return the tables of the database of {@code config}
+     */
+    public List<String> getTables(ConnectionConfig config) throws SQLException {
+        return get(tables, ClickHouseConnectionPool.Key.of(config), () -> {
+            List<String> names = new ArrayList<>();
+            try (Connection conn = connectionPool.getConnection(config);
+                 PreparedStatement stmt = conn.prepareStatement("SELECT name FROM system.tables WHERE database = ?")) {
+                stmt.setString(1, config.getDatabase());
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        names.add(rs.getString(1));
+                    }
+                }
+            }
+            return Collections.unmodifiableList(names);
+        });
+    }
+
+    /**
+     * @return column name to ClickHouse type, in table order; empty if the table does not exist
+     */
+    public Map<String, String> getColumnTypes(ConnectionConfig config, String table) throws SQLException {
+        return get(columns, new TableKey(ClickHouseConnectionPool.Key.of(config), table), () -> {
+            // A table that does not exist simply has no rows in system.columns
+            LinkedHashMap<String, String> types = new LinkedHashMap<>();
+            try (Connection conn = connectionPool.getConnection(config);
+                 PreparedStatement stmt = conn.prepareStatement(
+                     "SELECT name, type FROM system.columns WHERE database = ? AND table = ? ORDER BY position")) {
+                stmt.setString(1, config.getDatabase());
+                stmt.setString(2, table);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        types.put(rs.getString(1), rs.getString(2));
+                    }
+                }
+            }
+            return Collections.unmodifiableMap(types);
+        });
+    }
+
+    /**
+     * Drops the column list of {@code table} and the table list of its database.
+     */
+    public void invalidate(ConnectionConfig config, String table) {
+        ClickHouseConnectionPool.Key key = ClickHouseConnectionPool.Key.of(config);
+        tables.invalidate(key);
+        columns.invalidate(new TableKey(key, table));
+    }
+
+    /**
+     * Drops everything cached for the database of {@code config}.
+     */
+    public void invalidateAll(ConnectionConfig config) {
+        ClickHouseConnectionPool.Key key = ClickHouseConnectionPool.Key.of(config);
+        tables.invalidate(key);
+        columns.asMap().keySet().removeIf(tableKey -> tableKey.getConnection().equals(key));
+    }
+
+    public List<CacheMetrics> getMetrics() {
+        return List.of(metrics("tables", tables), metrics("columns", columns));
+    }
+
+    private static <K, V> V get(Cache<K, V> cache, K key, Loader<V> loader) throws SQLException {
+        try {
+            return cache.get(key, k -> {
+                try {
+                    return loader.load();
+                } catch (SQLException e) {
+                    throw new LoadException(e);
+                }
+            });
+        } catch (LoadException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static CacheMetrics metrics(String name, Cache<?, ?> cache) {
+        CacheStats stats = cache.stats();
+        CacheMetrics metrics = new CacheMetrics();
+        metrics.setName(name);
+        metrics.setSize(cache.estimatedSize());
+        metrics.setHits(stats.hitCount());
+        metrics.setMisses(stats.missCount());
+        metrics.setHitRate(stats.hitRate());
+        metrics.setEvictions(stats.evictionCount());
+        metrics.setLoadFailures(stats.loadFailureCount());
+        metrics.setAverageLoadMillis(stats.averageLoadPenalty() / 1_000_000.0);
+        return metrics;
+    }
+
+    private static final class LoadException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        LoadException(SQLException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized SQLException getCause() {
+            return (SQLException) super.getCause();
+        }
+    }
+}
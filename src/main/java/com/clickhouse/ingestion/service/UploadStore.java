@@ -0,0 +1,138 @@
+package com.clickhouse.ingestion.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * Stages chunked uploads under {@code file.upload.directory}. A client
+ * appends chunks at the current size and, after a dropped connection, asks
+ * for the size and continues from there instead of starting over.
+ */
+@Service
+public class UploadStore {
+    private static final Pattern ID = Pattern.compile("[A-Za-z0-9-]{1,64}");
+    private static final int COPY_BUFFER_SIZE = 1024 * 1024;
+
+    private final Path directory;
+    private final Map<String, IdLock> locks = new ConcurrentHashMap<>();
+
+    /**
+     * Per-upload lock, dropped from {@link #locks} once no thread holds or waits for it.
+     */
+    private static final class IdLock {
+        final ReentrantLock lock = new ReentrantLock();
+        int users; // guarded by the map entry
+    }
+
+    public UploadStore(@Value("${file.upload.directory}") String uploadDirectory) {
+        this.directory = Paths.get(uploadDirectory);
+    }
+
+    public String create() throws IOException {
+        Files.createDirectories(directory);
+        String id = UUID.randomUUID().toString();
+        Files.createFile(path(id));
+        return id;
+    }
+
+    /**
+     * Appends {@code data} at {@code offset}, which must equal the current size.
+     *
+     * @return the new size
+     * @throws IllegalStateException if {@code offset} is not the current size, or another process is appending
+     */
+    public long append(String id, long offset, InputStream data) throws IOException {
+        // Concurrent retries of the same chunk in this process queue here, and then see the new size
+        IdLock idLock = locks.compute(checkId(id), (key, held) -> {
+            IdLock lock = held != null ? held : new IdLock();
+            lock.users++;
+            return lock;
+        });
+        idLock.lock.lock();
+        try {
+            return appendLocked(id, offset, data);
+        } finally {
+            idLock.lock.unlock();
+            locks.compute(id, (key, held) -> --held.users == 0 ? null : held);
+        }
+    }
+
+    private long appendLocked(String id, long offset, InputStream data) throws IOException {
+        try (FileChannel channel = FileChannel.open(path(id), StandardOpenOption.WRITE)) {
+            // File locks belong to the whole JVM, so this only keeps out other processes
+            FileLock fileLock;
+            try {
+                fileLock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                fileLock = null;
+            }
+            if (fileLock == null) {
+                throw new IllegalStateException("Upload " + id + " is being appended to elsewhere");
+            }
+            try {
+                long size = channel.size();
+                if (offset != size) {
+                    throw new IllegalStateException("Upload " + id + " is at " + size + ", not " + offset);
+                }
+                channel.position(size);
+                ReadableByteChannel source = Channels.newChannel(data);
+                ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+                while (source.read(buffer) >= 0) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    buffer.clear();
+                }
+                channel.force(false);
+                return channel.size();
+            } finally {
+                fileLock.release();
+            }
+        }
+    }
+
+    /**
+     * @return the size staged so far, or -1 if the upload does not exist
+     */
+    public long size(String id) throws IOException {
+        Path file = path(id);
+        return Files.exists(file) ? Files.size(file) : -1;
+    }
+
+    public Path path(String id) {
+        return directory.resolve(checkId(id) + ".upload");
+    }
+
+    public void delete(String id) throws IOException {
+        Files.deleteIfExists(path(id));
+    }
+
+    /**
+     * Rejects ids that could escape the upload directory.
+     */
+    static String checkId(String id) {
+        if (id == null || !ID.matcher(id).matches()) {
+            throw new IllegalArgumentException("Invalid upload id");
+        }
+        return id;
+    }
+}
@@ -0,0 +1,90 @@
+package com.clickhouse.ingestion.service;
+
+import com.clickhouse.ingestion.model.ConnectionConfig;
+import com.clickhouse.ingestion.model.Watermark;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the watermark of every incremental export as one JSON file under
+ * {@code file.upload.directory}/watermarks, replaced atomically like
+ * checkpoints. Files are named by a hash of server, database, table and
+ * destination, so any destination string maps to a safe file name.
+ */
+@Service
+public class WatermarkStore {
+    private final Path directory;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public WatermarkStore(@Value("${file.upload.directory}") String uploadDirectory) {
+        this.directory = Paths.get(uploadDirectory).resolve("watermarks");
+    }
+
+    public static String id(ConnectionConfig config, String tableName, String destination) {
+        String key = config.getHost() + ":" + config.getPort() + "/" + config.getDatabase() + "/" + tableName
+            + "\n" + destination;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the watermark, or null if nothing has been exported to the destination yet
+     */
+    public Watermark load(String id) throws IOException {
+        Path file = path(id);
+        return Files.exists(file) ? objectMapper.readValue(file.toFile(), Watermark.class) : null;
+    }
+
+    public List<Watermark> list() throws IOException {
+        List<Watermark> watermarks = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return watermarks;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files.filter(f -> f.toString().endsWith(".json"))::iterator) {
+                watermarks.add(objectMapper.readValue(file.toFile(), Watermark.class));
+            }
+        }
+        return watermarks;
+    }
+
+    public void save(Watermark watermark) throws IOException {
+        Files.createDirectories(directory);
+        watermark.setUpdatedAt(System.currentTimeMillis());
+        Path file = path(watermark.getId());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        objectMapper.writeValue(temp.toFile(), watermark);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Forgets the watermark, so the next export starts from the beginning of the table.
+     *
+     * @return false if there was none
+     */
+    public boolean delete(String id) throws IOException {
+        return Files.deleteIfExists(path(id));
+    }
+
+    private Path path(String id) {
+        return directory.resolve(UploadStore.checkId(id) + ".json");
+    }
+}
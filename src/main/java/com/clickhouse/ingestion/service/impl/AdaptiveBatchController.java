@@ -0,0 +1,121 @@
+package com.clickhouse.ingestion.service.impl;
+
+import com.clickhouse.client.ClickHouseException;
+import com.clickhouse.ingestion.config.IngestionProperties;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sizes INSERT batches from the round trips of the batches before them.
+ * After every batch the row limit moves toward the size that would have
+ * taken {@code targetNanos} and stayed under {@code maxBytes}, by at most a
+ * factor of two each way, within {@code [minRows, maxRows]}.
+ *
+ * <p>Failures the server reports as transient are retried after an
+ * exponential backoff with jitter: too many parts, too many simultaneous
+ * queries and memory limits. A memory limit also halves the batch size, so
+ * the retry goes out in smaller pieces. Other errors are not retried.
+ *
+ * <p>Safe to share between the insert workers of one load.
+ */
+public class AdaptiveBatchController {
+    static final int MEMORY_LIMIT_EXCEEDED = 241;
+    static final int TOO_MANY_PARTS = 252;
+    static final int TOO_MANY_SIMULTANEOUS_QUERIES = 202;
+
+    private final int minRows;
+    private final int maxRows;
+    private final long maxBytes;
+    private final long targetNanos;
+    private final int maxRetries;
+    private final long backoffMillis;
+    private final long maxBackoffMillis;
+
+    private double batchRows;
+
+    public AdaptiveBatchController(int minRows, int maxRows, long maxBytes, long targetMillis,
+                                   int maxRetries, long backoffMillis, long maxBackoffMillis) {
+        this.maxRows = Math.max(1, maxRows);
+        this.minRows = Math.max(1, Math.min(minRows, this.maxRows));
+        this.maxBytes = Math.max(1, maxBytes);
+        this.targetNanos = Math.max(1, targetMillis) * 1_000_000;
+        this.maxRetries = Math.max(0, maxRetries);
+        this.backoffMillis = Math.max(1, backoffMillis);
+        this.maxBackoffMillis = Math.max(this.backoffMillis, maxBackoffMillis);
+        // Start well below the ceiling, so that a slow table is found out before the first huge batch
+        this.batchRows = Math.max(this.minRows, this.maxRows / 10);
+    }
+
+    /**
+     * Batches between {@code ingestion.batch-min-rows} and {@code ingestion.batch-rows} rows
+     * and up to {@code ingestion.batch-bytes}.
+     */
+    public static AdaptiveBatchController forProperties(IngestionProperties properties) {
+        return new AdaptiveBatchController(properties.getBatchMinRows(), properties.getBatchRows(),
+            properties.getBatchBytes(), properties.getBatchTargetMillis(), properties.getInsertRetries(),
+            properties.getRetryBackoffMillis(), properties.getRetryMaxBackoffMillis());
+    }
+
+    public synchronized int getBatchRows() {
+        return (int) batchRows;
+    }
+
+    public long getBatchBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return how often a batch is retried after a transient failure; 0 if never
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Adjusts the batch size after a batch of {@code rows} rows and
+     * {@code bytes} bytes was inserted in {@code nanos}.
+     */
+    public synchronized void onBatchInserted(int rows, long bytes, long nanos) {
+        if (rows < batchRows / 2) {
+            return; // a partial last batch is dominated by fixed overhead and says little about throughput
+        }
+        double fit = Math.min((double) targetNanos / Math.max(1, nanos), (double) maxBytes / Math.max(1, bytes));
+        double factor = Math.max(0.5, Math.min(2.0, rows * fit / batchRows));
+        batchRows = Math.max(minRows, Math.min(maxRows, batchRows * factor));
+    }
+
+    /**
+     * @param attempt 1 for the first retry of a batch
+     * @return milliseconds to wait before retrying, or -1 if the error is not
+     *         transient or the batch has been retried too often already
+     */
+    public synchronized long onBatchFailed(SQLException error, int attempt) {
+        int code = errorCode(error);
+        if (attempt > maxRetries || (code != MEMORY_LIMIT_EXCEEDED && code != TOO_MANY_PARTS
+                && code != TOO_MANY_SIMULTANEOUS_QUERIES)) {
+            return -1;
+        }
+        if (code == MEMORY_LIMIT_EXCEEDED) {
+            batchRows = Math.max(minRows, batchRows / 2);
+        }
+        // Half fixed, half random, so that workers hitting the same limit do not retry in lockstep
+        long delay = Math.min(maxBackoffMillis, backoffMillis << Math.min(attempt - 1, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * @return the ClickHouse error code anywhere in the cause chain, or 0
+     */
+    static int errorCode(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof ClickHouseException && ((ClickHouseException) t).getErrorCode() > 0) {
+                return ((ClickHouseException) t).getErrorCode();
+            }
+            if (t instanceof SQLException && ((SQLException) t).getErrorCode() > 0) {
+                return ((SQLException) t).getErrorCode();
+            }
+        }
+        return 0;
+    }
+}
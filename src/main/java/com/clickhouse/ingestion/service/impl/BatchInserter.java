@@ -0,0 +1,313 @@
+package com.clickhouse.ingestion.service.impl;
+
+import com.clickhouse.ingestion.service.IngestionProgress;
+import com.clickhouse.jdbc.ClickHouseStatement;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams rows into a table through a single prepared INSERT, sending them
+ * with executeBatch whenever the row or byte limit of the current batch is hit.
+ * Only the rows of one batch are ever held by the driver.
+ *
+ * <p>With an {@link AdaptiveBatchController} the batch size follows the
+ * controller, and a batch that fails with a transient error is sent again,
+ * in smaller pieces if the controller shrank meanwhile. The driver drops a
+ * failed batch, so when the controller allows retries the rows of the
+ * current batch are also kept here: copied, unless the caller holds them
+ * anyway (see {@link #setRowsRetained}).
+ *
+ * <p>Retried batches carry no deduplication token, so they are delivered at
+ * least once: if the server applied some blocks of a batch before the error,
+ * for instance a timeout after a large insert was committed, those rows are
+ * inserted again by the retry.
+ */
+@Slf4j
+public class BatchInserter implements AutoCloseable {
+    // Rough per-value overhead on the wire, so wide tables of short values still flush
+    private static final int VALUE_OVERHEAD_BYTES = 8;
+
+    private final PreparedStatement statement;
+    private final List<String> columns;
+    private final ColumnConverter[] converters;
+    private final int columnCount;
+    private final int maxRows;
+    private final long maxBytes;
+
+    private int pendingRows;
+    private long pendingBytes;
+    private long rowsWritten;
+    private long bytesWritten;
+    private long batchesWritten;
+    private long insertNanos;
+    private IngestionProgress progress = IngestionProgress.NONE;
+    private String tokenPrefix;
+    private long firstBatch;
+    private AdaptiveBatchController controller;
+    private boolean keepRows;
+    private boolean rowsRetained;
+    private final List<String[]> pending = new ArrayList<>();
+
+    public BatchInserter(Connection conn, String tableName, List<String> columns, int maxRows, long maxBytes)
+            throws SQLException {
+        this(conn, tableName, columns, null, maxRows, maxBytes);
+    }
+
+    /**
+     * @param converters one per column, or null to bind every value as a string
+     */
+    public BatchInserter(Connection conn, String tableName, List<String> columns, ColumnConverter[] converters,
+                         int maxRows, long maxBytes) throws SQLException {
+        if (columns == null || columns.isEmpty()) {
+            throw new IllegalArgumentException("At least one column is required");
+        }
+        if (converters != null && converters.length != columns.size()) {
+            throw new IllegalArgumentException("Expected one converter per column");
+        }
+        this.columns = columns;
+        this.converters = converters;
+        this.columnCount = columns.size();
+        this.maxRows = Math.max(1, maxRows);
+        this.maxBytes = Math.max(1, maxBytes);
+        this.statement = conn.prepareStatement(buildInsertSql(tableName, columns));
+    }
+
+    /**
+     * Builds converters for {@code columns} from a name-to-type map; columns
+     * missing from the map are bound as strings.
+     */
+    public static ColumnConverter[] converters(List<String> columns, Map<String, String> columnTypes) {
+        ColumnConverter[] converters = new ColumnConverter[columns.size()];
+        for (int i = 0; i < converters.length; i++) {
+            converters[i] = ColumnConverter.forType(columnTypes.get(columns.get(i)));
+        }
+        return converters;
+    }
+
+    static String buildInsertSql(String tableName, List<String> columns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(SelectBuilder.quoteIdentifier(tableName))
+                .append(" (").append(PartitionedExporter.columnList(columns))
+                .append(") VALUES (");
+        for (int i = 0; i < columns.size(); i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        return sql.append(")").toString();
+    }
+
+    /**
+     * Binds one row without adding it to the batch, to find out before
+     * anything is sent whether every value fits its column.
+     *
+     * @throws RowRejectedException if a value does not fit its column
+     */
+    public void check(String[] values) throws SQLException {
+        bind(values);
+    }
+
+    /**
+     * Binds one row and adds it to the current batch. The array is not retained
+     * unless {@link #setRowsRetained} says so, so callers may reuse it for the next row.
+     *
+     * @return true if this row completed a batch that was sent
+     * @throws RowRejectedException if a value does not fit its column; the batch is unaffected
+     */
+    public boolean add(String[] values) throws SQLException {
+        long rowBytes = bind(values);
+        statement.addBatch();
+        if (keepRows) {
+            pending.add(rowsRetained ? values : values.clone());
+        }
+        pendingRows++;
+        pendingBytes += rowBytes;
+        if (pendingRows >= maxRows || pendingBytes >= maxBytes
+                || controller != null && (pendingRows >= controller.getBatchRows()
+                    || pendingBytes >= controller.getBatchBytes())) {
+            flush();
+            return true;
+        }
+        return false;
+    }
+
+    private long bind(String[] values) throws SQLException {
+        if (values.length != columnCount) {
+            throw new IllegalArgumentException(
+                "Expected " + columnCount + " values but got " + values.length);
+        }
+        long rowBytes = 0;
+        for (int i = 0; i < columnCount; i++) {
+            String value = values[i];
+            if (converters == null) {
+                statement.setString(i + 1, value);
+            } else {
+                try {
+                    converters[i].bind(statement, i + 1, value);
+                } catch (RuntimeException e) {
+                    // Parameters already bound are overwritten by the next row
+                    throw new RowRejectedException(columns.get(i), value, e);
+                }
+            }
+            rowBytes += (value == null ? 0 : value.length()) + VALUE_OVERHEAD_BYTES;
+        }
+        return rowBytes;
+    }
+
+    /**
+     * Sends every following batch with {@code insert_deduplication_token}
+     * set to {@code prefix:index}, counting from {@code firstBatch}. A batch
+     * replayed with the same token after a failure is then dropped by the
+     * server instead of inserted twice (Replicated tables, or MergeTree with
+     * {@code non_replicated_deduplication_window} set).
+     */
+    public void enableDeduplication(String prefix, long firstBatch) {
+        this.tokenPrefix = prefix;
+        this.firstBatch = firstBatch;
+    }
+
+    /**
+     * Sizes batches with {@code controller} and retries transient failures,
+     * which may insert rows of a partly applied batch twice (see above).
+     * Not meant for use with {@link #enableDeduplication}: a batch split on
+     * retry shifts the batch numbers that the tokens are made of.
+     */
+    public void setBatchController(AdaptiveBatchController controller) {
+        this.controller = controller;
+        this.keepRows = controller != null && controller.getMaxRetries() > 0;
+    }
+
+    /**
+     * Declares that the arrays passed to {@link #add} are neither changed nor
+     * reused until the batch is flushed, e.g. because the caller holds the
+     * whole batch already, so that rows kept for a retry need no copy.
+     */
+    public void setRowsRetained(boolean rowsRetained) {
+        this.rowsRetained = rowsRetained;
+    }
+
+    /**
+     * Reports the size and round trip of every batch sent to {@code progress}.
+     */
+    public void setProgress(IngestionProgress progress) {
+        this.progress = progress;
+    }
+
+    public void flush() throws SQLException {
+        if (pendingRows == 0) {
+            return;
+        }
+        if (keepRows) {
+            flushAdaptive();
+        } else {
+            long nanos = execute(pendingRows, pendingBytes);
+            if (controller != null) {
+                controller.onBatchInserted(pendingRows, pendingBytes, nanos);
+            }
+        }
+        pendingRows = 0;
+        pendingBytes = 0;
+    }
+
+    /**
+     * Sends the kept rows, rebinding them after a failure in batches of the
+     * controller's current size.
+     */
+    private void flushAdaptive() throws SQLException {
+        int from = 0;
+        int to = pending.size();
+        long bytes = pendingBytes;
+        boolean bound = true;
+        int attempt = 0;
+        try {
+            while (from < pending.size()) {
+                if (!bound) {
+                    to = Math.min(pending.size(), from + controller.getBatchRows());
+                    bytes = 0;
+                    for (int i = from; i < to; i++) {
+                        bytes += bind(pending.get(i));
+                        statement.addBatch();
+                    }
+                }
+                try {
+                    long nanos = execute(to - from, bytes);
+                    controller.onBatchInserted(to - from, bytes, nanos);
+                    from = to;
+                    attempt = 0;
+                } catch (SQLException e) {
+                    long delay = controller.onBatchFailed(e, ++attempt);
+                    if (delay < 0) {
+                        throw e;
+                    }
+                    log.warn("Insert of {} rows failed with code {}, retry {} in {} ms: {}", to - from,
+                        AdaptiveBatchController.errorCode(e), attempt, delay, e.getMessage());
+                    sleep(delay);
+                }
+                bound = false;
+            }
+        } finally {
+            pending.clear();
+        }
+    }
+
+    /**
+     * @return the round trip of executeBatch
+     */
+    private long execute(int rows, long bytes) throws SQLException {
+        if (tokenPrefix != null) {
+            statement.unwrap(ClickHouseStatement.class).getRequest()
+                .set("insert_deduplication_token", tokenPrefix + ":" + (firstBatch + batchesWritten));
+        }
+        long start = System.nanoTime();
+        statement.executeBatch();
+        long nanos = System.nanoTime() - start;
+        insertNanos += nanos;
+        progress.onBatchInserted(rows, nanos);
+        rowsWritten += rows;
+        bytesWritten += bytes;
+        batchesWritten++;
+        return nanos;
+    }
+
+    private static void sleep(long millis) throws SQLException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting to retry an insert", e);
+        }
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getBatchesWritten() {
+        return batchesWritten;
+    }
+
+    /**
+     * @return total time spent in executeBatch
+     */
+    public long getInsertNanos() {
+        return insertNanos;
+    }
+
+    /**
+     * Releases the statement. Rows still pending are discarded, so callers must
+     * {@link #flush()} after the last row; this keeps a failed load from sending
+     * a partial batch while unwinding.
+     */
+    @Override
+    public void close() throws SQLException {
+        statement.close();
+    }
+}
@@ -0,0 +1,248 @@
+package com.clickhouse.ingestion.service.impl;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Binds a text cell to an INSERT parameter using the setter that matches the
+ * target ClickHouse column type, so numbers and dates travel as binary values
+ * instead of string literals that the server has to parse and cast.
+ * Values that do not fit the type, including integers outside its range,
+ * decimals with too many integer digits and a null for a parsed type that
+ * is not {@code Nullable}, throw {@link IllegalArgumentException}. Decimal
+ * digits beyond the scale are truncated, as ClickHouse does when it parses text.
+ */
+@FunctionalInterface
+public interface ColumnConverter {
+
+    ColumnConverter STRING = PreparedStatement::setString;
+
+    // Accepts both "2024-01-31 12:00:00[.fff]" and ISO "2024-01-31T12:00:00[.fff]"
+    DateTimeFormatter DATE_TIME = new DateTimeFormatterBuilder()
+        .append(DateTimeFormatter.ISO_LOCAL_DATE)
+        .optionalStart().appendLiteral(' ').optionalEnd()
+        .optionalStart().appendLiteral('T').optionalEnd()
+        .appendPattern("HH:mm:ss")
+        .optionalStart().appendFraction(ChronoField.NANO_OF_SECOND, 0, 9, true).optionalEnd()
+        .toFormatter(Locale.ROOT);
+
+    void bind(PreparedStatement statement, int index, String value) throws SQLException;
+
+    /**
+     * Builds the converter for a type as reported by {@code system.columns.type}.
+     */
+    static ColumnConverter forType(String type) {
+        if (type == null) {
+            return STRING;
+        }
+        String base = unwrap(type.trim(), "LowCardinality");
+        boolean nullable = base.startsWith("Nullable(");
+        if (nullable) {
+            base = unwrap(base, "Nullable");
+        }
+        ColumnConverter converter = forBaseType(base);
+        if (!nullable) {
+            // Text types hand null on to the driver as before; the parsing ones would fail on it
+            return converter == STRING ? converter : notNull(converter);
+        }
+        int sqlType = converter == STRING ? Types.VARCHAR : Types.OTHER;
+        return (statement, index, value) -> {
+            // Empty cells and the ClickHouse text NULL marker become real NULLs
+            if (value == null || value.isEmpty() || "\\N".equals(value)) {
+                statement.setNull(index, sqlType);
+            } else {
+                converter.bind(statement, index, value);
+            }
+        };
+    }
+
+    private static ColumnConverter notNull(ColumnConverter converter) {
+        return (statement, index, value) -> {
+            if (value == null) {
+                throw new IllegalArgumentException("NULL for a non-Nullable type");
+            }
+            converter.bind(statement, index, value);
+        };
+    }
+
+    private static ColumnConverter forBaseType(String type) {
+        String name = type.contains("(") ? type.substring(0, type.indexOf('(')) : type;
+        switch (name) {
+            case "Int8":
+                return smallInteger(Byte.MIN_VALUE, Byte.MAX_VALUE);
+            case "Int16":
+                return smallInteger(Short.MIN_VALUE, Short.MAX_VALUE);
+            case "UInt8":
+                return smallInteger(0, 0xFF);
+            case "UInt16":
+                return smallInteger(0, 0xFFFF);
+            case "Int32":
+                return (statement, index, value) -> statement.setInt(index, Integer.parseInt(value.trim()));
+            case "UInt32":
+                return (statement, index, value) ->
+                    statement.setLong(index, inRange(Long.parseLong(value.trim()), 0, 0xFFFF_FFFFL));
+            case "Int64":
+                return (statement, index, value) -> statement.setLong(index, Long.parseLong(value.trim()));
+            case "UInt64":
+                return bigInteger(64, false);
+            case "Int128":
+                return bigInteger(128, true);
+            case "UInt128":
+                return bigInteger(128, false);
+            case "Int256":
+                return bigInteger(256, true);
+            case "UInt256":
+                return bigInteger(256, false);
+            case "Float32":
+                return (statement, index, value) -> statement.setFloat(index, Float.parseFloat(value.trim()));
+            case "Float64":
+                return (statement, index, value) -> statement.setDouble(index, Double.parseDouble(value.trim()));
+            case "Decimal":
+            case "Decimal32":
+            case "Decimal64":
+            case "Decimal128":
+            case "Decimal256":
+                return decimal(name, type);
+            case "Bool":
+                return (statement, index, value) -> statement.setBoolean(index, parseBoolean(value.trim()));
+            case "Date":
+            case "Date32":
+                return (statement, index, value) -> statement.setObject(index, parseDate(value.trim()));
+            case "DateTime":
+            case "DateTime64":
+                return (statement, index, value) -> statement.setObject(index, parseDateTime(value.trim()));
+            case "UUID":
+                return (statement, index, value) -> statement.setObject(index, UUID.fromString(value.trim()));
+            default:
+                // String, FixedString, Enum, IP and composite types are parsed fine from text
+                return STRING;
+        }
+    }
+
+    /**
+     * Converter for an integer type that fits {@code int}, bound with {@code setInt}.
+     */
+    private static ColumnConverter smallInteger(int min, int max) {
+        return (statement, index, value) ->
+            statement.setInt(index, (int) inRange(Long.parseLong(value.trim()), min, max));
+    }
+
+    private static long inRange(long value, long min, long max) {
+        if (value < min || value > max) {
+            throw new IllegalArgumentException(value + " is outside [" + min + ", " + max + "]");
+        }
+        return value;
+    }
+
+    private static ColumnConverter bigInteger(int bits, boolean signed) {
+        return (statement, index, value) -> {
+            BigInteger parsed = new BigInteger(value.trim());
+            // bitLength() leaves out the sign bit
+            if (signed ? parsed.bitLength() >= bits : parsed.signum() < 0 || parsed.bitLength() > bits) {
+                throw new IllegalArgumentException(parsed + " is outside the range of " + bits + "-bit "
+                    + (signed ? "signed" : "unsigned") + " integers");
+            }
+            statement.setObject(index, parsed);
+        };
+    }
+
+    /**
+     * Converter for {@code Decimal(P, S)} or {@code DecimalN(S)}.
+     */
+    private static ColumnConverter decimal(String name, String type) {
+        if (!type.endsWith(")")) {
+            return (statement, index, value) -> statement.setBigDecimal(index, new BigDecimal(value.trim()));
+        }
+        String[] args = type.substring(type.indexOf('(') + 1, type.length() - 1).split(",");
+        int precision;
+        switch (name) {
+            case "Decimal32":
+                precision = 9;
+                break;
+            case "Decimal64":
+                precision = 18;
+                break;
+            case "Decimal128":
+                precision = 38;
+                break;
+            case "Decimal256":
+                precision = 76;
+                break;
+            default:
+                precision = Integer.parseInt(args[0].trim());
+                break;
+        }
+        int scale = Integer.parseInt(args[args.length - 1].trim());
+        BigInteger limit = BigInteger.TEN.pow(precision);
+        return (statement, index, value) -> {
+            BigDecimal parsed = new BigDecimal(value.trim()).setScale(scale, RoundingMode.DOWN);
+            if (parsed.unscaledValue().abs().compareTo(limit) >= 0) {
+                throw new IllegalArgumentException(value.trim() + " has more than " + (precision - scale)
+                    + " integer digits");
+            }
+            statement.setBigDecimal(index, parsed);
+        };
+    }
+
+    private static LocalDate parseDate(String value) {
+        if (value.length() == 10 && value.charAt(4) == '-' && value.charAt(7) == '-') {
+            return LocalDate.of(digits(value, 0, 4), digits(value, 5, 7), digits(value, 8, 10));
+        }
+        return LocalDate.parse(value);
+    }
+
+    /**
+     * Parses the common "yyyy-MM-dd HH:mm:ss" shape by hand, which is several
+     * times cheaper than a formatter; anything else goes through {@link #DATE_TIME}.
+     */
+    private static LocalDateTime parseDateTime(String value) {
+        if (value.length() == 19 && value.charAt(4) == '-' && value.charAt(7) == '-'
+                && (value.charAt(10) == ' ' || value.charAt(10) == 'T')
+                && value.charAt(13) == ':' && value.charAt(16) == ':') {
+            return LocalDateTime.of(digits(value, 0, 4), digits(value, 5, 7), digits(value, 8, 10),
+                digits(value, 11, 13), digits(value, 14, 16), digits(value, 17, 19));
+        }
+        return LocalDateTime.parse(value, DATE_TIME);
+    }
+
+    private static int digits(String value, int start, int end) {
+        int result = 0;
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException("Not a date: " + value);
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private static String unwrap(String type, String wrapper) {
+        String prefix = wrapper + "(";
+        if (type.startsWith(prefix) && type.endsWith(")")) {
+            return type.substring(prefix.length(), type.length() - 1);
+        }
+        return type;
+    }
+
+    private static boolean parseBoolean(String value) {
+        if ("1".equals(value) || "true".equalsIgnoreCase(value)) {
+            return true;
+        }
+        if ("0".equals(value) || "false".equalsIgnoreCase(value)) {
+            return false;
+        }
+        throw new IllegalArgumentException("Not a boolean: " + value);
+    }
+}
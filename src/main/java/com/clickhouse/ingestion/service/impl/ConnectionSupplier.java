@@ -0,0 +1,12 @@
+package com.clickhouse.ingestion.service.impl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Source of connections for work that runs on several threads, each needing its own.
+ */
+@FunctionalInterface
+public interface ConnectionSupplier {
+    Connection get() throws SQLException;
+}
@@ -0,0 +1,95 @@
+package com.clickhouse.ingestion.service.impl;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a CSV file into byte ranges that start and end on record
+ * boundaries, so each range can be parsed on its own. A line break only ends
+ * a record outside quotes, which is tracked by quote parity over a
+ * memory-mapped scan; doubled quotes toggle twice and so cancel out.
+ *
+ * <p>Scanning bytes for quotes and line breaks is only valid when those
+ * characters and the delimiter are single ASCII bytes in the file's charset,
+ * see {@link #supports(Charset, char)}.
+ */
+public final class CsvSegmenter {
+    private static final long MAP_WINDOW = 256L * 1024 * 1024;
+
+    private CsvSegmenter() {
+    }
+
+    public static boolean supports(Charset charset, char delimiter) {
+        for (char c : new char[] {'"', '\n', '\r', delimiter}) {
+            if (c > 0x7F) {
+                return false;
+            }
+            byte[] encoded = String.valueOf(c).getBytes(charset);
+            if (encoded.length != 1 || encoded[0] != c) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the offset just past the header record
+     */
+    public static long headerEnd(FileChannel channel) throws IOException {
+        List<Long> ends = boundaries(channel, 0, channel.size(), 1, true);
+        return ends.isEmpty() ? channel.size() : ends.get(0);
+    }
+
+    /**
+     * Cuts {@code [start, size)} into at most {@code segments} record-aligned ranges of similar size.
+     *
+     * @return range boundaries, first {@code start} and last the file size
+     */
+    public static List<Long> split(FileChannel channel, long start, int segments) throws IOException {
+        long size = channel.size();
+        List<Long> cuts = new ArrayList<>();
+        cuts.add(start);
+        if (segments > 1 && size - start > segments) {
+            cuts.addAll(boundaries(channel, start, size, segments, false));
+        }
+        if (cuts.get(cuts.size() - 1) < size) {
+            cuts.add(size);
+        }
+        return cuts;
+    }
+
+    /**
+     * Finds, for each of the evenly spaced targets, the first record end at or after it.
+     */
+    private static List<Long> boundaries(FileChannel channel, long start, long size, int segments,
+                                         boolean firstRecordOnly) throws IOException {
+        List<Long> found = new ArrayList<>();
+        int next = 1;
+        long target = firstRecordOnly ? start : start + (size - start) / segments;
+        boolean quoted = false;
+        for (long window = start; window < size; window += MAP_WINDOW) {
+            long length = Math.min(MAP_WINDOW, size - window);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, window, length);
+            for (int i = 0; i < length; i++) {
+                byte b = buffer.get(i);
+                if (b == '"') {
+                    quoted = !quoted;
+                } else if (b == '\n' && !quoted && window + i >= target) {
+                    long boundary = window + i + 1;
+                    if (boundary < size) {
+                        found.add(boundary);
+                    }
+                    if (firstRecordOnly || ++next >= segments) {
+                        return found;
+                    }
+                    target = Math.max(boundary, start + (size - start) * next / segments);
+                }
+            }
+        }
+        return found;
+    }
+}
@@ -1,7 +1,39 @@
 package com.clickhouse.ingestion.service.impl;
 
+import com.clickhouse.data.ClickHouseValues;
+import com.clickhouse.ingestion.config.ConnectionPoolProperties;
+import com.clickhouse.ingestion.config.IngestionProperties;
+import com.clickhouse.ingestion.dto.MigrationRequest;
+import com.clickhouse.ingestion.format.FileFormat;
+import com.clickhouse.ingestion.format.FileFormats;
+import com.clickhouse.ingestion.format.PassthroughFileFormat;
+import com.clickhouse.ingestion.format.RecordReader;
+import com.clickhouse.ingestion.format.RecordWriter;
+import com.clickhouse.ingestion.format.RowFileFormat;
+import com.clickhouse.ingestion.dto.IncrementalExportOptions;
+import com.clickhouse.ingestion.dto.PartitionedExportOptions;
+import com.clickhouse.ingestion.dto.PreviewOptions;
+import com.clickhouse.ingestion.dto.PreviewResult;
+import com.clickhouse.ingestion.dto.RowFilter;
+import com.clickhouse.ingestion.dto.RowSelection;
+import com.clickhouse.ingestion.model.Checkpoint;
+import com.clickhouse.ingestion.model.Compression;
 import com.clickhouse.ingestion.model.ConnectionConfig;
+import com.clickhouse.ingestion.model.DataFormat;
+import com.clickhouse.ingestion.model.FilterOperator;
+import com.clickhouse.ingestion.model.MigrationMode;
+import com.clickhouse.ingestion.model.Watermark;
+import com.clickhouse.ingestion.service.CheckpointStore;
+import com.clickhouse.ingestion.service.ClickHouseConnectionPool;
+import com.clickhouse.ingestion.service.IngestionProgress;
 import com.clickhouse.ingestion.service.IngestionService;
+import com.clickhouse.ingestion.service.SchemaMetadataCache;
+import com.clickhouse.ingestion.service.WatermarkStore;
+import com.clickhouse.ingestion.util.CountingInputStream;
+import com.clickhouse.ingestion.util.CountingOutputStream;
+import com.clickhouse.ingestion.util.Utf8PositionReader;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
@@ -9,28 +41,48 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.regex.Pattern;
 
+@Slf4j
 @Service
+@RequiredArgsConstructor
 public class IngestionServiceImpl implements IngestionService {
+    private static final int PROGRESS_INTERVAL_ROWS = 10_000;
+    private static final long PROGRESS_INTERVAL_BYTES = 8L * 1024 * 1024;
+    // Must cover the CSV parser's read-ahead plus the longest record
+    private static final int CHECKPOINT_HISTORY_CHARS = 4 * 1024 * 1024;
+    private static final Pattern NUMERIC_WATERMARK = Pattern.compile("U?Int\\d+|Float\\d+|Decimal.*");
 
-    private Connection getConnection(ConnectionConfig config) throws Exception {
-        String url = String.format("jdbc:clickhouse://%s:%d/%s?compress=0",
-            config.getHost(),
-            config.getPort(),
-            config.getDatabase());
-        System.out.println("Attempting to connect to ClickHouse with URL: " + url);
-        System.out.println("Username: " + config.getUsername());
-        Connection conn = DriverManager.getConnection(url, config.getUsername(), config.getPassword());
-        System.out.println("Successfully connected to ClickHouse");
-        return conn;
+    private final IngestionProperties ingestionProperties;
+    private final ClickHouseConnectionPool connectionPool;
+    private final ConnectionPoolProperties connectionPoolProperties;
+    private final SchemaMetadataCache metadataCache;
+    private final CheckpointStore checkpointStore;
+    private final WatermarkStore watermarkStore;
+
+    private Connection getConnection(ConnectionConfig config) throws SQLException {
+        return connectionPool.getConnection(config);
     }
 
     @Override
@@ -45,122 +97,626 @@ public class IngestionServiceImpl implements IngestionService {
 
     @Override
     public List<String> getTables(ConnectionConfig config) {
-        System.out.println("Getting tables with config: " + config);
-        List<String> tables = new ArrayList<>();
-        try (Connection conn = getConnection(config);
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery("SELECT name FROM system.tables WHERE database = '" + config.getDatabase() + "'")) {
-            while (rs.next()) {
-                String tableName = rs.getString(1);
-                System.out.println("Found table: " + tableName);
-                tables.add(tableName);
-            }
+        try {
+            return metadataCache.getTables(config);
         } catch (Exception e) {
-            System.err.println("Error getting tables: " + e.getMessage());
-            e.printStackTrace();
+            log.warn("Failed to list tables of {}", config.getDatabase(), e);
+            return new ArrayList<>();
         }
-        return tables;
     }
 
     @Override
     public List<String> getColumns(ConnectionConfig config, String tableName) {
-        System.out.println("Getting columns for table: " + tableName + " with config: " + config);
-        List<String> columns = new ArrayList<>();
-        try (Connection conn = getConnection(config);
-             Statement stmt = conn.createStatement()) {
-            
-            // First check if table exists
-            try (ResultSet rs = stmt.executeQuery(
-                "SELECT count() FROM system.tables WHERE database = '" + config.getDatabase() + "' AND name = '" + tableName + "'")) {
-                if (rs.next() && rs.getInt(1) > 0) {
-                    System.out.println("Table " + tableName + " exists");
-                    // Table exists, get its columns
-                    try (ResultSet columnsRs = stmt.executeQuery(
-                        "SELECT name FROM system.columns WHERE database = '" + config.getDatabase() + "' AND table = '" + tableName + "'")) {
-                        while (columnsRs.next()) {
-                            String columnName = columnsRs.getString(1);
-                            System.out.println("Found column: " + columnName);
-                            columns.add(columnName);
-                        }
-                    }
+        return new ArrayList<>(getColumnTypes(config, tableName).keySet());
+    }
+
+    @Override
+    public Map<String, String> getColumnTypes(ConnectionConfig config, String tableName) {
+        try {
+            return metadataCache.getColumnTypes(config, tableName);
+        } catch (Exception e) {
+            log.warn("Failed to read columns of {}", tableName, e);
+            return new LinkedHashMap<>();
+        }
+    }
+
+    @Override
+    public void ingestFromFile(ConnectionConfig config, String tableName, List<String> columns, MultipartFile file) {
+        try (InputStream is = file.getInputStream()) {
+            ingestFromStream(config, tableName, columns, is, Compression.forFileName(file.getOriginalFilename()),
+                ingestionProperties.getParallelism(), IngestionProgress.NONE);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to ingest data", e);
+        }
+    }
+
+    @Override
+    public void ingestFromStream(ConnectionConfig config, String tableName, List<String> columns,
+                                 InputStream input, IngestionProgress progress) {
+        ingestFromStream(config, tableName, columns, input, ingestionProperties.getParallelism(), progress);
+    }
+
+    @Override
+    public void ingestFromStream(ConnectionConfig config, String tableName, List<String> columns,
+                                 InputStream input, int parallelism, IngestionProgress progress) {
+        ingestFromStream(config, tableName, columns, input, Compression.NONE, parallelism, progress);
+    }
+
+    @Override
+    public void ingestFromStream(ConnectionConfig config, String tableName, List<String> columns,
+                                 InputStream input, Compression compression, int parallelism,
+                                 IngestionProgress progress) {
+        ingestFile(config, tableName, columns, input, FileFormats.CSV, compression, parallelism, progress);
+    }
+
+    @Override
+    public void ingestFile(ConnectionConfig config, String tableName, List<String> columns, InputStream input,
+                           FileFormat format, Compression compression, int parallelism, IngestionProgress progress) {
+        if (format instanceof PassthroughFileFormat) {
+            ingestNative(config, tableName, columns, input, ((PassthroughFileFormat) format).getPassthroughFormat(),
+                compression, progress);
+            return;
+        }
+        CountingInputStream counted = new CountingInputStream(input);
+        try (RecordReader reader = ((RowFileFormat) format).openReader(compression.decompress(counted), columns,
+                 ingestionProperties.getReadBufferSize())) {
+            // Column types are looked up once; unknown columns fall back to string binding
+            ColumnConverter[] converters = BatchInserter.converters(columns, getColumnTypes(config, tableName));
+            try (RejectWriter rejects = newRejectWriter(tableName, columns, progress)) {
+                // Each worker holds a pooled connection, so stay within the pool
+                int workers = Math.min(parallelism, connectionPoolProperties.getMaxSizePerKey());
+                log.info("Loading {} columns of {} into {} with {} insert workers", columns.size(), format.getName(),
+                    tableName, workers);
+                if (workers > 1) {
+                    insertParallel(config, tableName, columns, converters, rejects, reader, counted, workers,
+                        progress);
                 } else {
-                    System.out.println("Table " + tableName + " does not exist");
+                    insertSequential(config, tableName, columns, converters, rejects, reader, counted, progress);
                 }
             }
+            metadataCache.invalidate(config, tableName);
+        } catch (CancellationException e) {
+            throw e;
         } catch (Exception e) {
-            System.err.println("Error getting columns for table " + tableName + ": " + e.getMessage());
-            e.printStackTrace();
+            throw new RuntimeException("Failed to ingest data", e);
+        }
+    }
+
+    private void insertSequential(ConnectionConfig config, String tableName, List<String> columns,
+                                  ColumnConverter[] converters, RejectWriter rejects, RecordReader reader,
+                                  CountingInputStream counted, IngestionProgress progress) throws Exception {
+        try (Connection conn = getConnection(config);
+             BatchInserter inserter = new BatchInserter(conn, tableName, columns, converters,
+                 ingestionProperties.getBatchRows(), ingestionProperties.getBatchBytes())) {
+            inserter.setProgress(progress);
+            inserter.setBatchController(newBatchController());
+            long start = System.nanoTime();
+            String[] row = new String[columns.size()];
+            long reportedRows = 0;
+            while (reader.next(row)) {
+                try {
+                    if (inserter.add(row)) {
+                        reportedRows = reportProgress(progress, inserter.getRowsWritten(), reportedRows,
+                            counted.getCount());
+                    }
+                } catch (RowRejectedException e) {
+                    rejects.reject(row, e);
+                }
+            }
+            inserter.flush();
+            reportProgress(progress, inserter.getRowsWritten(), reportedRows, counted.getCount());
+            progress.onParseTime(System.nanoTime() - start - inserter.getInsertNanos());
+        }
+    }
+
+    private void insertParallel(ConnectionConfig config, String tableName, List<String> columns,
+                                ColumnConverter[] converters, RejectWriter rejects, RecordReader reader,
+                                CountingInputStream counted, int workers, IngestionProgress progress)
+            throws Exception {
+        try (ParallelBatchIngestor ingestor = new ParallelBatchIngestor(() -> connectionPool.getConnection(config),
+                 tableName, columns, converters, rejects, workers, ingestionProperties.getParallelQueueCapacity(),
+                 ingestionProperties.getBatchRows(), ingestionProperties.getBatchBytes(), newBatchController(),
+                 progress)) {
+            String[] row = new String[columns.size()];
+            while (reader.next(row)) {
+                ingestor.add(row, counted.getCount());
+            }
+            ingestor.finish(counted.getCount());
         }
-        return columns;
     }
 
     @Override
-    public void ingestFromFile(ConnectionConfig config, String tableName, List<String> columns, MultipartFile file) {
-        try (InputStream is = file.getInputStream();
-             Reader reader = new InputStreamReader(is);
-             CSVParser parser = new CSVParser(reader, CSVFormat.DEFAULT.withFirstRecordAsHeader());
-             Connection conn = getConnection(config)) {
-            
-            StringBuilder insertQuery = new StringBuilder("INSERT INTO " + tableName + " (");
-            insertQuery.append(String.join(",", columns));
-            insertQuery.append(") VALUES ");
-            
-            List<String> values = new ArrayList<>();
-            for (CSVRecord record : parser) {
-                StringBuilder value = new StringBuilder("(");
-                for (String column : columns) {
-                    String cellValue = record.get(column);
-                    value.append("'").append(cellValue.replace("'", "''")).append("',");
+    public void ingestResumable(ConnectionConfig config, String tableName, List<String> columns, Path file,
+                                String checkpointId, IngestionProgress progress) {
+        try {
+            Checkpoint checkpoint = checkpointStore.load(checkpointId);
+            if (checkpoint == null) {
+                checkpoint = new Checkpoint();
+                checkpoint.setId(checkpointId);
+                checkpoint.setTableName(tableName);
+                checkpoint.setColumns(columns);
+            } else if (!checkpoint.getTableName().equals(tableName) || !checkpoint.getColumns().equals(columns)) {
+                throw new IllegalArgumentException("Checkpoint " + checkpointId + " belongs to a load into "
+                    + checkpoint.getTableName() + " " + checkpoint.getColumns());
+            }
+            progress.onProgress(checkpoint.getRowsCommitted(), checkpoint.getBytePosition());
+            if (checkpoint.getHeader() != null) {
+                log.info("Resuming load into {} at byte {} after {} rows", tableName,
+                    checkpoint.getBytePosition(), checkpoint.getRowsCommitted());
+            }
+
+            ColumnConverter[] converters = BatchInserter.converters(columns, getColumnTypes(config, tableName));
+            try (RejectWriter rejects = newRejectWriter(tableName, columns, progress)) {
+                insertCheckpointed(config, file, checkpoint, converters, rejects, progress);
+            }
+            checkpointStore.delete(checkpointId);
+            metadataCache.invalidate(config, tableName);
+        } catch (CancellationException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to ingest data", e);
+        }
+    }
+
+    private void insertCheckpointed(ConnectionConfig config, Path file, Checkpoint checkpoint,
+                                    ColumnConverter[] converters, RejectWriter rejects, IngestionProgress progress)
+            throws Exception {
+        boolean resuming = checkpoint.getHeader() != null;
+        long baseBytes = checkpoint.getBytePosition();
+        long baseChars = checkpoint.getCharPosition();
+        List<String> columns = checkpoint.getColumns();
+
+        // Strict decoding: a replaced malformed byte would throw the byte positions off
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ).position(baseBytes);
+        Reader decoder = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel),
+            StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT)),
+            ingestionProperties.getReadBufferSize());
+        Utf8PositionReader reader = new Utf8PositionReader(decoder, CHECKPOINT_HISTORY_CHARS);
+        CSVParser parser = resuming
+            ? new CSVParser(reader, CSVFormat.DEFAULT.builder()
+                .setHeader(checkpoint.getHeader().toArray(new String[0])).build(), baseChars,
+                checkpoint.getRecordNumber())
+            : CSVFormat.DEFAULT.builder().setHeader().setSkipHeaderRecord(true).build().parse(reader);
+
+        try (parser;
+             Connection conn = getConnection(config);
+             BatchInserter inserter = new BatchInserter(conn, checkpoint.getTableName(), columns, converters,
+                 ingestionProperties.getBatchRows(), ingestionProperties.getBatchBytes())) {
+            inserter.setProgress(progress);
+            long start = System.nanoTime();
+            if (!resuming) {
+                checkpoint.setHeader(parser.getHeaderNames());
+            }
+            int[] positions = new int[columns.size()];
+            for (int i = 0; i < positions.length; i++) {
+                Integer position = parser.getHeaderMap().get(columns.get(i));
+                if (position == null) {
+                    throw new IllegalArgumentException("Column " + columns.get(i) + " not found in file header");
                 }
-                value.deleteCharAt(value.length() - 1);
-                value.append(")");
-                values.add(value.toString());
+                positions[i] = position;
             }
-            
-            insertQuery.append(String.join(",", values));
-            
-            try (Statement stmt = conn.createStatement()) {
-                stmt.execute(insertQuery.toString());
+
+            inserter.enableDeduplication(checkpoint.getId(), checkpoint.getNextBatch());
+            long firstBatch = checkpoint.getNextBatch();
+            long firstRows = checkpoint.getRowsCommitted();
+            long savedBatches = 0;
+            long reportedRows = 0;
+            String[] row = new String[positions.length];
+            for (CSVRecord record : parser) {
+                if (inserter.getBatchesWritten() != savedBatches) {
+                    // The previous record completed a batch, so a resume starts at this one
+                    long bytes = reader.bytePosition(record.getCharacterPosition() - baseChars);
+                    if (bytes >= 0) {
+                        checkpoint.setBytePosition(baseBytes + bytes);
+                        checkpoint.setCharPosition(record.getCharacterPosition());
+                        checkpoint.setRecordNumber(record.getRecordNumber());
+                        checkpoint.setNextBatch(firstBatch + inserter.getBatchesWritten());
+                        checkpoint.setRowsCommitted(firstRows + inserter.getRowsWritten());
+                        checkpointStore.save(checkpoint);
+                    }
+                    savedBatches = inserter.getBatchesWritten();
+                    progress.onProgress(0, checkpoint.getBytePosition());
+                }
+                for (int i = 0; i < positions.length; i++) {
+                    row[i] = record.get(positions[i]);
+                }
+                try {
+                    if (inserter.add(row)) {
+                        reportedRows = reportProgress(progress, inserter.getRowsWritten(), reportedRows,
+                            checkpoint.getBytePosition());
+                    }
+                } catch (RowRejectedException e) {
+                    rejects.reject(row, e);
+                }
             }
+            inserter.flush();
+            reportProgress(progress, inserter.getRowsWritten(), reportedRows, Files.size(file));
+            progress.onParseTime(System.nanoTime() - start - inserter.getInsertNanos());
+        }
+    }
+
+    @Override
+    public void ingestSpooled(ConnectionConfig config, String tableName, List<String> columns, Path file,
+                              Charset charset, char delimiter, int parallelism, IngestionProgress progress) {
+        ColumnConverter[] converters = BatchInserter.converters(columns, getColumnTypes(config, tableName));
+        try (RejectWriter rejects = newRejectWriter(tableName, columns, progress)) {
+            SegmentedCsvIngestor ingestor = new SegmentedCsvIngestor(() -> connectionPool.getConnection(config),
+                tableName, columns, converters, rejects, ingestionProperties.getReadBufferSize(),
+                ingestionProperties.getBatchRows(), ingestionProperties.getBatchBytes());
+            // Each segment holds a pooled connection, so stay within the pool
+            ingestor.ingest(file, charset, delimiter,
+                Math.min(parallelism, connectionPoolProperties.getMaxSizePerKey()), progress);
+            metadataCache.invalidate(config, tableName);
+        } catch (CancellationException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to ingest data", e);
+        }
+    }
+
+    @Override
+    public void ingestNative(ConnectionConfig config, String tableName, List<String> columns, InputStream input,
+                             DataFormat format, Compression compression, IngestionProgress progress) {
+        try (ProgressInputStream tracked = new ProgressInputStream(input, progress);
+             Connection conn = getConnection(config)) {
+            long rows = NativeFormatTransfer.insert(conn,
+                NativeFormatTransfer.insertSql(tableName, columns, format), format, compression.decompress(tracked));
+            progress.onProgress(rows, tracked.getCount());
+            metadataCache.invalidate(config, tableName);
         } catch (Exception e) {
+            if (progress.isCancelled()) {
+                throw new CancellationException("Job cancelled");
+            }
             throw new RuntimeException("Failed to ingest data", e);
         }
     }
 
     @Override
     public void exportToFile(ConnectionConfig config, String tableName, List<String> columns, String filePath) {
-        try (Connection conn = getConnection(config);
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery("SELECT " + String.join(",", columns) + " FROM " + tableName);
-             FileWriter writer = new FileWriter(filePath)) {
-            
-            // Write headers
-            writer.write(String.join(",", columns) + "\n");
-            
-            // Write data
+        exportToFile(config, tableName, columns, null, filePath, IngestionProgress.NONE);
+    }
+
+    @Override
+    public void exportToFile(ConnectionConfig config, String tableName, List<String> columns, RowSelection selection,
+                             String filePath, IngestionProgress progress) {
+        // Validated before the file is created, so that a bad filter leaves nothing behind
+        SelectBuilder select = select(config, tableName, columns, selection);
+        OutputStream out;
+        try {
+            out = Files.newOutputStream(Paths.get(filePath));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to export data", e);
+        }
+        exportWhere(config, select, out, FileFormats.forFileName(filePath), Compression.forFileName(filePath),
+            progress);
+    }
+
+    @Override
+    public void exportToStream(ConnectionConfig config, String tableName, List<String> columns, OutputStream out,
+                               Compression compression, IngestionProgress progress) {
+        exportFile(config, tableName, columns, null, out, FileFormats.CSV, compression, progress);
+    }
+
+    @Override
+    public void validateSelection(ConnectionConfig config, String tableName, List<String> columns,
+                                  RowSelection selection) {
+        select(config, tableName, columns, selection);
+    }
+
+    @Override
+    public void exportFile(ConnectionConfig config, String tableName, List<String> columns, RowSelection selection,
+                           OutputStream out, FileFormat format, Compression compression, IngestionProgress progress) {
+        exportWhere(config, select(config, tableName, columns, selection), out, format, compression, progress);
+    }
+
+    @Override
+    public void exportNative(ConnectionConfig config, String tableName, List<String> columns, RowSelection selection,
+                             OutputStream out, DataFormat format, Compression compression,
+                             IngestionProgress progress) {
+        exportNativeWhere(config, select(config, tableName, columns, selection), out, format, compression, progress);
+    }
+
+    /**
+     * Validates {@code selection} against the table, which is only looked up when there is something to check.
+     *
+     * @throws IllegalArgumentException if a filter or order column is not in the table
+     */
+    private SelectBuilder select(ConnectionConfig config, String tableName, List<String> columns,
+                                 RowSelection selection) {
+        boolean typed = selection != null && (!selection.getFilters().isEmpty() || !selection.getOrderBy().isEmpty());
+        return new SelectBuilder(tableName, columns, typed ? getColumnTypes(config, tableName) : Map.of())
+            .select(selection);
+    }
+
+    /**
+     * @return rows exported
+     */
+    private long exportWhere(ConnectionConfig config, SelectBuilder select, OutputStream out, FileFormat format,
+                             Compression compression, IngestionProgress progress) {
+        if (format instanceof PassthroughFileFormat) {
+            return exportNativeWhere(config, select, out, ((PassthroughFileFormat) format).getPassthroughFormat(),
+                compression, progress);
+        }
+        List<String> columns = select.getColumns();
+        try (OutputStream target = out;
+             Connection conn = getConnection(config);
+             PreparedStatement stmt = prepare(conn, select);
+             ResultSet rs = stmt.executeQuery()) {
+
+            CountingOutputStream counted = new CountingOutputStream(compression.compress(target));
+            RecordWriter writer = ((RowFileFormat) format).openWriter(counted, columns,
+                ingestionProperties.getWriteBufferSize());
+            long rows = 0;
+            long reportedRows = 0;
             while (rs.next()) {
-                List<String> row = new ArrayList<>();
-                for (String column : columns) {
-                    row.add(rs.getString(column));
+                writer.write(rs);
+                if (++rows - reportedRows >= PROGRESS_INTERVAL_ROWS) {
+                    reportedRows = reportProgress(progress, rows, reportedRows, counted.getCount());
+                }
+            }
+            // Closing the writer finishes the compressed frame before the stream is released
+            writer.close();
+            progress.onProgress(rows - reportedRows, counted.getCount());
+            return rows;
+        } catch (CancellationException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to export data", e);
+        }
+    }
+
+    private static PreparedStatement prepare(Connection conn, SelectBuilder select) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(select.toSql());
+        try {
+            select.bind(stmt);
+        } catch (SQLException e) {
+            stmt.close();
+            throw e;
+        }
+        return stmt;
+    }
+
+    private long exportNativeWhere(ConnectionConfig config, SelectBuilder select, OutputStream out,
+                                   DataFormat format, Compression compression, IngestionProgress progress) {
+        try (OutputStream target = out;
+             Connection conn = getConnection(config)) {
+            OutputStream compressed = compression.compress(target);
+            ProgressOutputStream tracked = new ProgressOutputStream(compressed, progress);
+            long rows = NativeFormatTransfer.select(conn, select, format, tracked);
+            tracked.close();
+            progress.onProgress(rows, tracked.getCount());
+            return rows;
+        } catch (Exception e) {
+            if (progress.isCancelled()) {
+                throw new CancellationException("Job cancelled");
+            }
+            throw new RuntimeException("Failed to export data", e);
+        }
+    }
+
+    @Override
+    public void exportPartitioned(ConnectionConfig config, String tableName, List<String> columns, String filePath,
+                                  PartitionedExportOptions options, IngestionProgress progress) {
+        // Each shard reader holds a pooled connection, so stay within the pool
+        options.setParallelism(Math.min(options.getParallelism(), connectionPoolProperties.getMaxSizePerKey()));
+        PartitionedExporter exporter = new PartitionedExporter(
+            () -> connectionPool.getConnection(config), ingestionProperties.getWriteBufferSize());
+        try {
+            exporter.export(config.getDatabase(), tableName, columns, getColumnTypes(config, tableName), filePath,
+                options, progress);
+        } catch (CancellationException | IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to export data", e);
+        }
+    }
+
+    /**
+     * The range to export is fixed up front as (watermark, max], so rows
+     * inserted while the export runs are left for the next run. Rows that
+     * arrive later with a watermark value at or below the stored one, and rows
+     * where it is NULL, are never exported; the column should only grow, e.g.
+     * an insert time or a sequence number.
+     */
+    @Override
+    public Watermark exportIncremental(ConnectionConfig config, String tableName, List<String> columns,
+                                       String filePath, IncrementalExportOptions options,
+                                       IngestionProgress progress) {
+        String column = options.getWatermarkColumn();
+        Map<String, String> columnTypes = getColumnTypes(config, tableName);
+        String type = column == null ? null : columnTypes.get(column);
+        if (type == null) {
+            throw new IllegalArgumentException("Unknown watermark column " + column + " in " + tableName);
+        }
+        String baseType = baseType(type);
+        boolean numeric = NUMERIC_WATERMARK.matcher(baseType).matches();
+        if (!numeric && !baseType.startsWith("Date")) {
+            throw new IllegalArgumentException("Watermark column " + column + " must be numeric or a date, not " + type);
+        }
+        if (options.getBucket() != null && !baseType.startsWith("Date")) {
+            throw new IllegalArgumentException("Time buckets need a Date or DateTime watermark column, not " + type);
+        }
+        String destination = options.getDestination() == null || options.getDestination().isBlank()
+            ? filePath : options.getDestination();
+        String id = WatermarkStore.id(config, tableName, destination);
+
+        try {
+            Watermark mark = watermarkStore.load(id);
+            if (mark == null) {
+                mark = new Watermark();
+                mark.setId(id);
+                mark.setServer(config.getHost() + ":" + config.getPort() + "/" + config.getDatabase());
+                mark.setTableName(tableName);
+                mark.setDestination(destination);
+                mark.setColumn(column);
+            } else if (!column.equals(mark.getColumn())) {
+                throw new IllegalArgumentException("Watermark of " + destination + " is kept on column "
+                    + mark.getColumn() + "; reset it to switch to " + column);
+            }
+
+            // The stored value is bound as a parameter and cast to the column type, never inlined
+            String quoted = SelectBuilder.quoteIdentifier(column);
+            String where = mark.getValue() == null ? ""
+                : " WHERE " + quoted + " > CAST(?, " + ClickHouseValues.convertToQuotedString(type) + ")";
+            String sql = options.getBucket() == null
+                ? "SELECT count(), toString(max(" + quoted + ")) FROM " + SelectBuilder.quoteIdentifier(tableName)
+                    + where
+                : "SELECT toStartOfInterval(" + quoted + ", " + options.getBucket().interval()
+                    + ") AS bucket, toString(bucket), toString(max(" + quoted + ")) FROM "
+                    + SelectBuilder.quoteIdentifier(tableName) + where + " GROUP BY bucket ORDER BY bucket";
+            List<String[]> chunks = new ArrayList<>(); // {file suffix or null, upper bound}
+            try (Connection conn = getConnection(config);
+                 PreparedStatement stmt = conn.prepareStatement(sql)) {
+                if (mark.getValue() != null) {
+                    stmt.setString(1, mark.getValue());
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        if (options.getBucket() == null) {
+                            if (rs.getLong(1) > 0) {
+                                chunks.add(new String[] {null, rs.getString(2)});
+                            }
+                        } else {
+                            chunks.add(new String[] {rs.getString(2).replaceAll("[^0-9A-Za-z]", ""), rs.getString(3)});
+                        }
+                    }
+                }
+            }
+
+            Path target = Paths.get(filePath);
+            FileFormat format = FileFormats.forFileName(filePath);
+            Compression compression = Compression.forFileName(filePath);
+            String from = mark.getValue();
+            for (String[] chunk : chunks) {
+                List<RowFilter> range = new ArrayList<>();
+                if (from != null) {
+                    range.add(watermarkBound(column, FilterOperator.GT, from));
                 }
-                writer.write(String.join(",", row) + "\n");
+                range.add(watermarkBound(column, FilterOperator.LE, chunk[1]));
+                Path output = chunk[0] == null ? target : PartitionedExporter.partPath(target, chunk[0]);
+                long rows = exportWhere(config, new SelectBuilder(tableName, columns, columnTypes).filter(range),
+                    Files.newOutputStream(output), format, compression, progress);
+                // Only a completely written chunk moves the mark, so a failed run repeats it
+                mark.setValue(chunk[1]);
+                mark.setRowsExported(mark.getRowsExported() + rows);
+                watermarkStore.save(mark);
+                log.info("Exported {} rows of {} up to {} = {} to {}", rows, tableName, column, chunk[1], output);
+                from = chunk[1];
             }
+            return mark;
+        } catch (CancellationException | IllegalArgumentException e) {
+            throw e;
         } catch (Exception e) {
             throw new RuntimeException("Failed to export data", e);
         }
     }
 
+    private static String baseType(String type) {
+        String base = type.trim();
+        for (String wrapper : new String[] {"LowCardinality(", "Nullable("}) {
+            if (base.startsWith(wrapper) && base.endsWith(")")) {
+                base = base.substring(wrapper.length(), base.length() - 1);
+            }
+        }
+        return base;
+    }
+
+    private static RowFilter watermarkBound(String column, FilterOperator operator, String value) {
+        RowFilter bound = new RowFilter();
+        bound.setColumn(column);
+        bound.setOperator(operator);
+        bound.setValue(value);
+        return bound;
+    }
+
+    @Override
+    public MigrationMode migrate(MigrationRequest request, IngestionProgress progress) {
+        ConnectionConfig source = request.getSource();
+        ConnectionConfig target = request.getTarget();
+        List<String> columns = request.getColumns() == null || request.getColumns().isEmpty()
+            ? new ArrayList<>(getColumnTypes(source, request.getSourceTable()).keySet())
+            : request.getColumns();
+        if (columns.isEmpty()) {
+            throw new IllegalArgumentException("Table " + request.getSourceTable() + " not found or has no columns");
+        }
+        // Each partition copy holds a pooled connection to both servers, so stay within the pool; when both
+        // sides share one pool, every copy takes two of its connections
+        int maxCopies = connectionPool.sharesPool(source, target)
+            ? Math.max(1, connectionPoolProperties.getMaxSizePerKey() / 2)
+            : connectionPoolProperties.getMaxSizePerKey();
+        request.setParallelism(Math.min(request.getParallelism(), maxCopies));
+        TableMigrator migrator = new TableMigrator(
+            () -> connectionPool.getConnection(source), () -> connectionPool.getConnection(target));
+        try {
+            MigrationMode mode = migrator.migrate(request, columns, progress);
+            metadataCache.invalidate(target,
+                request.getTargetTable() != null ? request.getTargetTable() : request.getSourceTable());
+            return mode;
+        } catch (CancellationException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to migrate data", e);
+        }
+    }
+
+    @Override
+    public long countRows(ConnectionConfig config, String tableName) {
+        try (Connection conn = getConnection(config);
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT count() FROM " + SelectBuilder.quoteIdentifier(tableName))) {
+            return rs.next() ? rs.getLong(1) : 0;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to count rows", e);
+        }
+    }
+
+    /**
+     * @return a batch controller for one load, or null if batches have a fixed size
+     */
+    private AdaptiveBatchController newBatchController() {
+        return ingestionProperties.isAdaptiveBatching()
+            ? AdaptiveBatchController.forProperties(ingestionProperties) : null;
+    }
+
+    private RejectWriter newRejectWriter(String tableName, List<String> columns, IngestionProgress progress) {
+        String name = tableName.replaceAll("[^A-Za-z0-9_.-]", "_") + "-" + UUID.randomUUID() + ".rejects.csv";
+        return new RejectWriter(Paths.get(ingestionProperties.getRejectDirectory()).resolve(name), columns,
+            ingestionProperties.getMaxRejects(), progress);
+    }
+
+    /**
+     * Publishes rows committed since the last report and aborts the load if the
+     * job was cancelled meanwhile.
+     *
+     * @return the row count now reported
+     */
+    private static long reportProgress(IngestionProgress progress, long rows, long reportedRows, long bytes) {
+        progress.onProgress(rows - reportedRows, bytes);
+        if (progress.isCancelled()) {
+            throw new CancellationException("Job cancelled");
+        }
+        return rows;
+    }
+
     @Override
     public List<Map<String, Object>> previewData(ConnectionConfig config, String tableName, int limit) {
         List<Map<String, Object>> result = new ArrayList<>();
         try (Connection conn = getConnection(config);
              Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery("SELECT * FROM " + tableName + " LIMIT " + limit)) {
+             ResultSet rs = stmt.executeQuery(new SelectBuilder(tableName, List.of(), Map.of()).limit(limit).toSql())) {
             
+            ResultSetMetaData metaData = rs.getMetaData();
+            int columnCount = metaData.getColumnCount();
+            String[] names = new String[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                names[i] = metaData.getColumnName(i + 1);
+            }
             while (rs.next()) {
-                Map<String, Object> row = new HashMap<>();
-                for (int i = 1; i <= rs.getMetaData().getColumnCount(); i++) {
-                    row.put(rs.getMetaData().getColumnName(i), rs.getObject(i));
+                Map<String, Object> row = new LinkedHashMap<>(columnCount * 4 / 3 + 1);
+                for (int i = 0; i < columnCount; i++) {
+                    row.put(names[i], rs.getObject(i + 1));
                 }
                 result.add(row);
             }
@@ -169,4 +725,116 @@ public class IngestionServiceImpl implements IngestionService {
         }
         return result;
     }
-} 
\ No newline at end of file
+
+    @Override
+    public PreviewResult previewCompact(ConnectionConfig config, String tableName, PreviewOptions options) {
+        Map<String, String> tableColumns = getColumnTypes(config, tableName);
+        List<String> columns = options.getColumns() == null || options.getColumns().isEmpty()
+            ? new ArrayList<>(tableColumns.keySet())
+            : options.getColumns();
+        if (columns.isEmpty()) {
+            throw new IllegalArgumentException("Table " + tableName + " not found or has no columns");
+        }
+        List<String> types = new ArrayList<>(columns.size());
+        for (String column : columns) {
+            String type = tableColumns.get(column);
+            if (type == null) {
+                throw new IllegalArgumentException("Column " + column + " not found in table " + tableName);
+            }
+            types.add(type);
+        }
+        int limit = options.getLimit();
+        if (limit < 0 || limit > ingestionProperties.getPreviewMaxRows()) {
+            throw new IllegalArgumentException("limit must be between 0 and " + ingestionProperties.getPreviewMaxRows());
+        }
+        long offset = Math.max(0, options.getOffset());
+
+        // One extra row tells whether another page exists without a count()
+        SelectBuilder select = new SelectBuilder(tableName, columns, tableColumns)
+            .filter(options.getFilters())
+            .orderBy(options.getOrderBy())
+            .sample(options.getSample())
+            .limit(limit + 1L)
+            .offset(offset);
+        List<Object[]> rows = new ArrayList<>(Math.min(limit, 1024));
+        boolean hasMore = false;
+        try (Connection conn = getConnection(config);
+             PreparedStatement stmt = prepare(conn, select);
+             ResultSet rs = stmt.executeQuery()) {
+            int columnCount = columns.size();
+            while (rs.next()) {
+                if (rows.size() == limit) {
+                    hasMore = true;
+                    break;
+                }
+                Object[] row = new Object[columnCount];
+                for (int i = 0; i < columnCount; i++) {
+                    row[i] = rs.getObject(i + 1);
+                }
+                rows.add(row);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to preview data", e);
+        }
+
+        PreviewResult result = new PreviewResult();
+        result.setColumns(columns);
+        result.setTypes(types);
+        result.setRows(rows);
+        result.setOffset(offset);
+        result.setHasMore(hasMore);
+        return result;
+    }
+
+    /**
+     * Reports bytes read while a native insert streams, and fails the read
+     * once the job is cancelled so that the request is aborted.
+     */
+    private static final class ProgressInputStream extends CountingInputStream {
+        private final IngestionProgress progress;
+        private long nextReport = PROGRESS_INTERVAL_BYTES;
+
+        ProgressInputStream(InputStream in, IngestionProgress progress) {
+            super(in);
+            this.progress = progress;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (getCount() >= nextReport) {
+                nextReport = getCount() + PROGRESS_INTERVAL_BYTES;
+                progress.onProgress(0, getCount());
+                if (progress.isCancelled()) {
+                    throw new IOException("Job cancelled");
+                }
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Output counterpart of {@link ProgressInputStream} for native exports.
+     */
+    private static final class ProgressOutputStream extends CountingOutputStream {
+        private final IngestionProgress progress;
+        private long nextReport = PROGRESS_INTERVAL_BYTES;
+
+        ProgressOutputStream(OutputStream out, IngestionProgress progress) {
+            super(out);
+            this.progress = progress;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            if (getCount() >= nextReport) {
+                nextReport = getCount() + PROGRESS_INTERVAL_BYTES;
+                progress.onProgress(0, getCount());
+                if (progress.isCancelled()) {
+                    throw new IOException("Job cancelled");
+                }
+            }
+        }
+    }
+}
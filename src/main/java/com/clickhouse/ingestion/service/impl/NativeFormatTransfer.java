@@ -0,0 +1,133 @@
+package com.clickhouse.ingestion.service.impl;
+
+import com.clickhouse.client.ClickHouseException;
+import com.clickhouse.client.ClickHouseResponse;
+import com.clickhouse.ingestion.model.DataFormat;
+import com.clickhouse.jdbc.ClickHouseStatement;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * Moves raw bytes in a ClickHouse format between a stream and the server,
+ * bypassing JDBC row handling so that ClickHouse does all of the parsing.
+ */
+public final class NativeFormatTransfer {
+    private static final int COPY_BUFFER_SIZE = 256 * 1024;
+
+    private NativeFormatTransfer() {
+    }
+
+    public static String insertSql(String tableName, List<String> columns, DataFormat format) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(SelectBuilder.quoteIdentifier(tableName));
+        if (columns != null && !columns.isEmpty()) {
+            sql.append(" (").append(PartitionedExporter.columnList(columns)).append(")");
+        }
+        return sql.append(" FORMAT ").append(format.getFormat().name()).toString();
+    }
+
+    /**
+     * Renders {@code select} with its filter values inlined, since requests carrying a format take no parameters.
+     */
+    public static String selectSql(SelectBuilder select, DataFormat format) {
+        return select.toInlineSql() + " FORMAT " + format.getFormat().name();
+    }
+
+    /**
+     * Sends {@code input} as the body of {@code sql}, which must end in a FORMAT clause.
+     *
+     * @return rows written as reported by the server summary
+     */
+    public static long insert(Connection conn, String sql, DataFormat format, InputStream input)
+            throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ClickHouseResponse response = stmt.unwrap(ClickHouseStatement.class).write()
+                 .query(sql)
+                 .format(format.getFormat())
+                 .data(input)
+                 .executeAndWait()) {
+            return response.getSummary().getWrittenRows();
+        } catch (ClickHouseException e) {
+            throw new SQLException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Streams the result of {@code selectSql} on {@code source} straight into
+     * {@code insertSql} on {@code target}; both must end in the same FORMAT
+     * clause. Rows are never decoded and at most one buffer is held in the JVM.
+     *
+     * @param tap wraps the byte stream on its way through, e.g. to count it
+     * @return rows written as reported by the target's summary
+     */
+    public static long copy(Connection source, String selectSql, Connection target, String insertSql,
+                            DataFormat format, UnaryOperator<InputStream> tap) throws SQLException {
+        try (Statement select = source.createStatement();
+             ClickHouseResponse response = select.unwrap(ClickHouseStatement.class).getRequest().copy()
+                 .format(format.getFormat())
+                 .query(selectSql)
+                 .executeAndWait();
+             InputStream in = tap.apply(response.getInputStream())) {
+            return insert(target, insertSql, format, in);
+        } catch (ClickHouseException e) {
+            throw new SQLException(e.getMessage(), e);
+        } catch (IOException e) {
+            throw new SQLException("Failed to stream between servers: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Runs {@code select} in {@code format} and copies the response bytes to {@code out}.
+     * The server summary only tells rows read, which filters and limits make
+     * more than those returned, so text formats count their line ends as
+     * they pass. Binary formats have no row delimiter; their rows are counted
+     * by the server in a second query, which also sees rows inserted meanwhile.
+     *
+     * @return rows written to {@code out}
+     */
+    public static long select(Connection conn, SelectBuilder select, DataFormat format, OutputStream out)
+            throws SQLException, IOException {
+        boolean text = format != DataFormat.ROW_BINARY && format != DataFormat.NATIVE
+            && format != DataFormat.PARQUET;
+        boolean csv = format == DataFormat.CSV_WITH_NAMES;
+        long lines = 0;
+        try (Statement stmt = conn.createStatement()) {
+            try (ClickHouseResponse response = stmt.unwrap(ClickHouseStatement.class).getRequest().copy()
+                     .format(format.getFormat())
+                     .query(selectSql(select, format))
+                     .executeAndWait();
+                 InputStream in = response.getInputStream()) {
+                byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                boolean quoted = false;
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                    for (int i = 0; text && i < n; i++) {
+                        // Only CSV leaves newlines in values, and only inside quotes; TSV and JSON escape them
+                        if (buffer[i] == '"' && csv) {
+                            quoted = !quoted;
+                        } else if (buffer[i] == '\n' && !quoted) {
+                            lines++;
+                        }
+                    }
+                }
+            } catch (ClickHouseException e) {
+                throw new SQLException(e.getMessage(), e);
+            }
+            if (text) {
+                boolean header = format == DataFormat.CSV_WITH_NAMES || format == DataFormat.TAB_SEPARATED_WITH_NAMES;
+                return header ? Math.max(0, lines - 1) : lines;
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT count() FROM (" + select.toInlineSql() + ")")) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+}
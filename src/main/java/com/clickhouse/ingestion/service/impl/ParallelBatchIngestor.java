@@ -0,0 +1,268 @@
+package com.clickhouse.ingestion.service.impl;
+
+import com.clickhouse.ingestion.service.IngestionProgress;
+import com.clickhouse.ingestion.util.MdcContext;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fans parsed rows out to several insert workers, each with its own
+ * connection. The parsing thread groups rows into batches and hands them
+ * over through a bounded queue, so it blocks (backpressure) whenever the
+ * workers fall behind and memory stays at roughly
+ * {@code (queueCapacity + parallelism)} batches.
+ *
+ * <p>Rows with values that do not fit their column go to the reject writer,
+ * if one is given, instead of failing the batch.
+ *
+ * <p>With an {@link AdaptiveBatchController}, shared by all workers, batches
+ * are cut at the controller's current size and transient failures are
+ * retried by the worker before they count as failed.
+ *
+ * <p>If any batch fails, no further batches are queued and the error of the
+ * lowest-numbered failed batch is thrown, with later failures attached as
+ * suppressed exceptions.
+ */
+public class ParallelBatchIngestor implements AutoCloseable {
+    private static final long POLL_MILLIS = 200;
+
+    private static final class Batch {
+        final long index;
+        final List<String[]> rows;
+        final long bytesRead;
+
+        Batch(long index, List<String[]> rows, long bytesRead) {
+            this.index = index;
+            this.rows = rows;
+            this.bytesRead = bytesRead;
+        }
+    }
+
+    private static final Batch END = new Batch(-1, List.of(), 0);
+
+    private final ConnectionSupplier connections;
+    private final String tableName;
+    private final List<String> columns;
+    private final ColumnConverter[] converters;
+    private final RejectWriter rejects;
+    private final int maxRows;
+    private final long maxBytes;
+    private final AdaptiveBatchController controller;
+    private final IngestionProgress progress;
+    private final BlockingQueue<Batch> queue;
+    private final List<Thread> workers = new ArrayList<>();
+    private final Map<Long, Throwable> failures = new ConcurrentSkipListMap<>();
+
+    private List<String[]> current;
+    private long currentBytes;
+    private long nextIndex;
+    private final long startNanos = System.nanoTime();
+    private long blockedNanos;
+    private volatile boolean aborted;
+    private boolean finished;
+
+    /**
+     * @param converters one per column, or null to bind every value as a string
+     * @param rejects    where rows with unconvertible values go, or null to fail the batch
+     * @param controller sizes batches within {@code maxRows} and {@code maxBytes}, or null for fixed batches
+     */
+    public ParallelBatchIngestor(ConnectionSupplier connections, String tableName, List<String> columns,
+                                 ColumnConverter[] converters, RejectWriter rejects,
+                                 int parallelism, int queueCapacity, int maxRows, long maxBytes,
+                                 AdaptiveBatchController controller, IngestionProgress progress) {
+        this.connections = connections;
+        this.tableName = tableName;
+        this.columns = columns;
+        this.converters = converters;
+        this.rejects = rejects;
+        this.maxRows = Math.max(1, maxRows);
+        this.maxBytes = Math.max(1, maxBytes);
+        this.controller = controller;
+        this.progress = progress;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.current = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, parallelism); i++) {
+            // Workers log with the requestId and jobId of the thread that started the load
+            Thread worker = new Thread(MdcContext.wrap(this::work), "parallel-ingest-" + tableName + "-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Adds a copy of {@code values} to the current batch, queueing the batch
+     * once it is full.
+     *
+     * @param bytesRead bytes of input consumed so far, reported with the batch
+     */
+    public void add(String[] values, long bytesRead) throws SQLException {
+        current.add(values.clone());
+        for (String value : values) {
+            currentBytes += (value == null ? 0 : value.length()) + 8;
+        }
+        if (current.size() >= maxRows || currentBytes >= maxBytes
+                || controller != null && (current.size() >= controller.getBatchRows()
+                    || currentBytes >= controller.getBatchBytes())) {
+            enqueue(bytesRead);
+        }
+    }
+
+    /**
+     * Queues the last partial batch, waits for the workers to drain the queue
+     * and rethrows the first failure, if any.
+     */
+    public void finish(long bytesRead) throws SQLException {
+        if (!current.isEmpty()) {
+            enqueue(bytesRead);
+        }
+        progress.onParseTime(System.nanoTime() - startNanos - blockedNanos);
+        finished = true;
+        stopWorkers();
+        throwIfFailed();
+    }
+
+    /**
+     * Stops the workers. Batches still queued are dropped unless
+     * {@link #finish(long)} completed first.
+     */
+    @Override
+    public void close() {
+        if (!finished) {
+            aborted = true;
+            queue.clear();
+            stopWorkers();
+        }
+    }
+
+    private void enqueue(long bytesRead) throws SQLException {
+        Batch batch = new Batch(nextIndex++, current, bytesRead);
+        current = new ArrayList<>(Math.min(controller != null ? controller.getBatchRows() : maxRows, 1024));
+        currentBytes = 0;
+        long start = System.nanoTime();
+        try {
+            while (!queue.offer(batch, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkState();
+            }
+            blockedNanos += System.nanoTime() - start;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while queueing batch " + batch.index, e);
+        }
+        checkState();
+    }
+
+    private void checkState() throws SQLException {
+        if (progress.isCancelled()) {
+            throw new CancellationException("Job cancelled");
+        }
+        throwIfFailed();
+    }
+
+    private void throwIfFailed() throws SQLException {
+        if (failures.isEmpty()) {
+            return;
+        }
+        aborted = true;
+        SQLException error = null;
+        for (Map.Entry<Long, Throwable> failure : failures.entrySet()) {
+            if (error == null) {
+                error = new SQLException("Batch " + failure.getKey() + " failed: " + failure.getValue().getMessage(),
+                    failure.getValue());
+            } else {
+                error.addSuppressed(failure.getValue());
+            }
+        }
+        throw error;
+    }
+
+    private void stopWorkers() {
+        for (int i = 0; i < workers.size(); i++) {
+            // Blocking put is safe: workers keep draining until they see END
+            try {
+                queue.put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void work() {
+        Connection conn = null;
+        BatchInserter inserter = null;
+        try {
+            // Keep taking until END even after a failure, so stopWorkers() never blocks on a full queue
+            while (true) {
+                Batch batch = queue.take();
+                if (batch == END) {
+                    return;
+                }
+                if (aborted) {
+                    continue;
+                }
+                try {
+                    if (inserter == null) {
+                        conn = connections.get();
+                        inserter = new BatchInserter(conn, tableName, columns, converters,
+                            Integer.MAX_VALUE, Long.MAX_VALUE);
+                        inserter.setProgress(progress);
+                        inserter.setBatchController(controller);
+                        // Each batch holds copies of its rows until it has been inserted
+                        inserter.setRowsRetained(true);
+                    }
+                    long before = inserter.getRowsWritten();
+                    for (String[] row : batch.rows) {
+                        try {
+                            inserter.add(row);
+                        } catch (RowRejectedException e) {
+                            if (rejects == null) {
+                                throw e;
+                            }
+                            rejects.reject(row, e);
+                        }
+                    }
+                    inserter.flush();
+                    progress.onProgress(inserter.getRowsWritten() - before, batch.bytesRead);
+                } catch (SQLException | IOException | RuntimeException e) {
+                    failures.put(batch.index, e);
+                    aborted = true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeQuietly(inserter);
+            closeQuietly(conn);
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable resource) {
+        if (resource == null) {
+            return;
+        }
+        try {
+            resource.close();
+        } catch (Exception ignored) {
+            // The batch error, if any, has already been recorded
+        }
+    }
+}
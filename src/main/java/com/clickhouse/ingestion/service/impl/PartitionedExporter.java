@@ -0,0 +1,372 @@
+package com.clickhouse.ingestion.service.impl;
+
+import com.clickhouse.ingestion.dto.PartitionedExportOptions;
+import com.clickhouse.ingestion.format.FileFormat;
+import com.clickhouse.ingestion.format.FileFormats;
+import com.clickhouse.ingestion.format.RecordWriter;
+import com.clickhouse.ingestion.format.RowFileFormat;
+import com.clickhouse.ingestion.model.Compression;
+import com.clickhouse.ingestion.model.JobStatus;
+import com.clickhouse.ingestion.model.ShardStrategy;
+import com.clickhouse.ingestion.service.IngestionProgress;
+import com.clickhouse.ingestion.util.MdcContext;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exports a table as several shards read concurrently over separate
+ * connections. Shards are either written to one file each or, when merging,
+ * to temporary files that are concatenated in shard order once all are done.
+ * With {@link ShardStrategy#RANGE} the merged file is ordered by the shard key.
+ * A compressed target extension compresses each shard on its own; the merged
+ * file is then a valid sequence of compressed frames.
+ *
+ * <p>Shards are written through the {@link RowFileFormat} the target file
+ * name selects. Formats ClickHouse writes itself, such as Parquet, cannot be
+ * concatenated or written row by row here and are rejected.
+ */
+public class PartitionedExporter {
+    private static final int PROGRESS_INTERVAL_ROWS = 10_000;
+
+    private final ConnectionSupplier connections;
+    private final int writeBufferSize;
+
+    public PartitionedExporter(ConnectionSupplier connections, int writeBufferSize) {
+        this.connections = connections;
+        this.writeBufferSize = writeBufferSize;
+    }
+
+    static final class Shard {
+        final String description;
+        final String predicate;
+        final String orderBy;
+
+        Shard(String description, String predicate, String orderBy) {
+            this.description = description;
+            this.predicate = predicate;
+            this.orderBy = orderBy;
+        }
+    }
+
+    /**
+     * @param columns     columns to export, or empty for all of them
+     * @param columnTypes name-to-type map of the table; the columns and the shard key must be in it
+     * @return the files written, in shard order (a single file when merging)
+     */
+    public List<Path> export(String database, String tableName, List<String> columns,
+                             Map<String, String> columnTypes, String filePath, PartitionedExportOptions options,
+                             IngestionProgress progress) throws Exception {
+        if (columns.isEmpty()) {
+            columns = new ArrayList<>(columnTypes.keySet());
+        }
+        for (String column : columns) {
+            if (!columnTypes.containsKey(column)) {
+                throw new IllegalArgumentException("Column " + column + " not found in table " + tableName);
+            }
+        }
+        List<String> selected = columns;
+        List<Shard> shards;
+        try (Connection conn = connections.get()) {
+            shards = planShards(conn, database, tableName, selected, columnTypes, options);
+        }
+        List<String> descriptions = new ArrayList<>();
+        for (Shard shard : shards) {
+            descriptions.add(shard.description);
+        }
+        progress.onShardsPlanned(descriptions);
+
+        FileFormat format = FileFormats.forFileName(filePath);
+        if (!(format instanceof RowFileFormat)) {
+            throw new IllegalArgumentException("Partitioned export does not support " + format.getName());
+        }
+        RowFileFormat rowFormat = (RowFileFormat) format;
+        Path target = Paths.get(filePath).toAbsolutePath();
+        Compression compression = Compression.forFileName(filePath);
+        List<Path> outputs = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            outputs.add(options.isMerge()
+                ? target.resolveSibling("." + target.getFileName() + ".shard-" + i + ".tmp")
+                : shardPath(target, i));
+        }
+
+        int threads = Math.max(1, Math.min(options.getParallelism(), shards.size()));
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+            r -> new Thread(r, "partitioned-export-" + threadCount.incrementAndGet()));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < shards.size(); i++) {
+                int index = i;
+                // Merged output carries the header once, at the top of the first shard
+                boolean header = !options.isMerge() || index == 0;
+                futures.add(executor.submit(MdcContext.wrap(() -> {
+                    exportShard(index, shards.get(index), tableName, selected, outputs.get(index), rowFormat,
+                        compression, header, progress);
+                    return null;
+                })));
+            }
+            waitForAll(futures);
+        } catch (Exception e) {
+            executor.shutdownNow();
+            // Shards still writing would recreate or hold open the files about to be deleted
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+                e.addSuppressed(interrupted);
+            }
+            if (options.isMerge()) {
+                deleteAll(outputs);
+            }
+            throw e;
+        } finally {
+            executor.shutdown();
+        }
+
+        if (!options.isMerge()) {
+            return outputs;
+        }
+        concatenate(outputs, target);
+        return List.of(target);
+    }
+
+    /**
+     * Shard keys and columns are quoted as identifiers; a shard key must be a
+     * column of the table.
+     *
+     * @param columnTypes name-to-type map of the table, to check the shard key against
+     */
+    static List<Shard> planShards(Connection conn, String database, String tableName, List<String> columns,
+                                  Map<String, String> columnTypes, PartitionedExportOptions options)
+            throws SQLException {
+        int count = Math.max(1, options.getShards());
+        String key = null;
+        if (options.getShardKey() != null && !options.getShardKey().isBlank()) {
+            if (!columnTypes.containsKey(options.getShardKey())) {
+                throw new IllegalArgumentException("Shard key " + options.getShardKey() + " is not a column of "
+                    + tableName);
+            }
+            key = SelectBuilder.quoteIdentifier(options.getShardKey());
+        }
+        List<Shard> shards = new ArrayList<>();
+        switch (options.getStrategy()) {
+            case PARTITION: {
+                List<String> partitions = new ArrayList<>();
+                try (PreparedStatement stmt = conn.prepareStatement(
+                    "SELECT DISTINCT partition_id FROM system.parts WHERE database = ? AND table = ? AND active "
+                        + "ORDER BY partition_id")) {
+                    stmt.setString(1, database);
+                    stmt.setString(2, tableName);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            partitions.add(rs.getString(1));
+                        }
+                    }
+                }
+                if (partitions.isEmpty()) {
+                    shards.add(new Shard("all", "1", null));
+                    break;
+                }
+                // Contiguous groups keep partitions in order across shards
+                int groups = Math.min(count, partitions.size());
+                for (int g = 0; g < groups; g++) {
+                    List<String> group = partitions.subList(
+                        g * partitions.size() / groups, (g + 1) * partitions.size() / groups);
+                    List<String> literals = new ArrayList<>();
+                    for (String partition : group) {
+                        literals.add(quote(partition));
+                    }
+                    shards.add(new Shard("partitions " + String.join(",", group),
+                        "_partition_id IN (" + String.join(",", literals) + ")", null));
+                }
+                break;
+            }
+            case RANGE: {
+                if (key == null) {
+                    throw new IllegalArgumentException("RANGE sharding requires a shardKey");
+                }
+                List<String> levels = new ArrayList<>();
+                for (int i = 1; i < count; i++) {
+                    levels.add(String.valueOf((double) i / count));
+                }
+                List<String> bounds = new ArrayList<>();
+                if (!levels.isEmpty()) {
+                    try (Statement stmt = conn.createStatement();
+                         ResultSet rs = stmt.executeQuery("SELECT DISTINCT arrayJoin(quantiles("
+                             + String.join(",", levels) + ")(" + key + ")) AS b FROM " + SelectBuilder.quoteIdentifier(tableName)
+                             + " ORDER BY b")) {
+                        while (rs.next()) {
+                            bounds.add(rs.getString(1));
+                        }
+                    }
+                }
+                for (int i = 0; i <= bounds.size(); i++) {
+                    String lower = i == 0 ? null : bounds.get(i - 1);
+                    String upper = i == bounds.size() ? null : bounds.get(i);
+                    String predicate = lower == null && upper == null ? "1"
+                        : lower == null ? key + " < " + boundLiteral(upper)
+                        : upper == null ? key + " >= " + boundLiteral(lower)
+                        : key + " >= " + boundLiteral(lower) + " AND " + key + " < " + boundLiteral(upper);
+                    shards.add(new Shard(predicate, predicate, key));
+                }
+                break;
+            }
+            case HASH:
+            default: {
+                String hashed = key == null ? columnList(columns) : key;
+                for (int i = 0; i < count; i++) {
+                    String predicate = "cityHash64(" + hashed + ") % " + count + " = " + i;
+                    shards.add(new Shard(predicate, predicate, null));
+                }
+                break;
+            }
+        }
+        return shards;
+    }
+
+    private void exportShard(int index, Shard shard, String tableName, List<String> columns, Path output,
+                             RowFileFormat format, Compression compression, boolean header,
+                             IngestionProgress progress) throws Exception {
+        progress.onShardProgress(index, 0, JobStatus.IN_PROGRESS);
+        String sql = "SELECT " + columnList(columns) + " FROM " + SelectBuilder.quoteIdentifier(tableName)
+            + " WHERE " + shard.predicate
+            + (shard.orderBy != null ? " ORDER BY " + shard.orderBy : "");
+        try (Connection conn = connections.get();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            OutputStream out = compression.compress(Files.newOutputStream(output));
+            long rows = 0;
+            long reported = 0;
+            try (RecordWriter writer = header
+                    ? format.openWriter(out, columns, writeBufferSize)
+                    : format.openContinuationWriter(out, columns, writeBufferSize)) {
+                while (rs.next()) {
+                    writer.write(rs);
+                    if (++rows - reported >= PROGRESS_INTERVAL_ROWS) {
+                        reportShardProgress(index, rows - reported, progress);
+                        reported = rows;
+                    }
+                }
+            }
+            reportShardProgress(index, rows - reported, progress);
+        } catch (Exception e) {
+            progress.onShardProgress(index, 0, JobStatus.FAILED);
+            throw e;
+        }
+        progress.onShardProgress(index, 0, JobStatus.COMPLETED);
+    }
+
+    private static void reportShardProgress(int index, long rowsDelta, IngestionProgress progress) {
+        progress.onShardProgress(index, rowsDelta, JobStatus.IN_PROGRESS);
+        progress.onProgress(rowsDelta, 0);
+        if (progress.isCancelled() || Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Job cancelled");
+        }
+    }
+
+    private static void waitForAll(List<Future<?>> futures) throws Exception {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+
+    private static void concatenate(List<Path> parts, Path target) throws IOException {
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (Path part : parts) {
+                try (FileChannel in = FileChannel.open(part, StandardOpenOption.READ)) {
+                    long position = 0;
+                    long size = in.size();
+                    while (position < size) {
+                        position += in.transferTo(position, size - position, out);
+                    }
+                }
+            }
+        } finally {
+            deleteAll(parts);
+        }
+    }
+
+    static Path shardPath(Path target, int index) {
+        return partPath(target, String.format("part-%03d", index));
+    }
+
+    /**
+     * Inserts {@code part} before the extension of the target, and before a
+     * compression extension too, so that {@code events.csv.gz} becomes
+     * {@code events.<part>.csv.gz}.
+     */
+    static Path partPath(Path target, String part) {
+        String name = target.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0 && Compression.forFileName(name) != Compression.NONE && name.lastIndexOf('.', dot - 1) > 0) {
+            dot = name.lastIndexOf('.', dot - 1);
+        }
+        return target.resolveSibling(dot > 0
+            ? name.substring(0, dot) + "." + part + name.substring(dot)
+            : name + "." + part);
+    }
+
+    private static void deleteAll(List<Path> paths) {
+        for (Path path : paths) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException ignored) {
+                // Temporary shard files are hidden next to the target and safe to leave
+            }
+        }
+    }
+
+    /**
+     * Quantiles of integer keys come back as fractions, which only compare
+     * correctly as numbers; dates and strings need to be quoted.
+     */
+    private static String boundLiteral(String value) {
+        try {
+            Double.parseDouble(value);
+            return value;
+        } catch (NumberFormatException e) {
+            return quote(value);
+        }
+    }
+
+    static String columnList(List<String> columns) {
+        List<String> quoted = new ArrayList<>(columns.size());
+        for (String column : columns) {
+            quoted.add(SelectBuilder.quoteIdentifier(column));
+        }
+        return String.join(",", quoted);
+    }
+
+    static String quote(String value) {
+        return "'" + value.replace("\\", "\\\\").replace("'", "\\'") + "'";
+    }
+}
@@ -0,0 +1,75 @@
+package com.clickhouse.ingestion.service.impl;
+
+import com.clickhouse.ingestion.service.IngestionProgress;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects rows that could not be converted to the target column types into
+ * a CSV file with the original columns plus the reason. The file is only
+ * created once the first row is rejected. Safe to share between workers.
+ */
+public class RejectWriter implements AutoCloseable {
+    static final String REASON_COLUMN = "_reject_reason";
+
+    private final Path file;
+    private final List<String> columns;
+    private final long maxRejects;
+    private final IngestionProgress progress;
+
+    private CSVPrinter printer;
+    private long rejected;
+
+    /**
+     * @param maxRejects rows that may be rejected before the load fails, or a negative value for no limit
+     */
+    public RejectWriter(Path file, List<String> columns, long maxRejects, IngestionProgress progress) {
+        this.file = file;
+        this.columns = columns;
+        this.maxRejects = maxRejects;
+        this.progress = progress;
+    }
+
+    /**
+     * @throws IllegalStateException once more than {@code maxRejects} rows were rejected
+     */
+    public synchronized void reject(String[] values, RowRejectedException reason) throws IOException {
+        rejected++;
+        if (maxRejects >= 0 && rejected > maxRejects) {
+            throw new IllegalStateException("More than " + maxRejects + " rows rejected, last: "
+                + reason.getMessage(), reason);
+        }
+        if (printer == null) {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            List<String> header = new ArrayList<>(columns);
+            header.add(REASON_COLUMN);
+            printer = new CSVPrinter(new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8)),
+                CSVFormat.DEFAULT.builder().setHeader(header.toArray(new String[0])).build());
+        }
+        for (String value : values) {
+            printer.print(value);
+        }
+        printer.print(reason.getMessage());
+        printer.println();
+        progress.onRejected(1, file.toString());
+    }
+
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (printer != null) {
+            printer.close();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.clickhouse.ingestion.service.impl;
+
+/**
+ * A single row could not be converted to the target column types. The row
+ * was not added to the batch, so the load can carry on without it.
+ */
+public class RowRejectedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final String column;
+
+    public RowRejectedException(String column, String value, Throwable cause) {
+        super(value == null
+            ? "NULL for non-Nullable column " + column
+            : "Invalid value '" + value + "' for column " + column + ": " + cause.getMessage(), cause);
+        this.column = column;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+}
@@ -0,0 +1,209 @@
+package com.clickhouse.ingestion.service.impl;
+
+import com.clickhouse.ingestion.model.JobStatus;
+import com.clickhouse.ingestion.service.IngestionProgress;
+import com.clickhouse.ingestion.util.CountingInputStream;
+import com.clickhouse.ingestion.util.FileSegmentInputStream;
+import com.clickhouse.ingestion.util.MdcContext;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads a spooled CSV file by cutting it into record-aligned byte ranges
+ * (see {@link CsvSegmenter}) that are parsed and inserted concurrently, each
+ * by its own thread with its own connection. Unlike
+ * {@link ParallelBatchIngestor}, parsing is spread over the threads too, and
+ * every range is a single large sequential read.
+ */
+public class SegmentedCsvIngestor {
+    private static final long PROGRESS_INTERVAL_BYTES = 8L * 1024 * 1024;
+
+    private final ConnectionSupplier connections;
+    private final String tableName;
+    private final List<String> columns;
+    private final ColumnConverter[] converters;
+    private final RejectWriter rejects;
+    private final int readBufferSize;
+    private final int maxRows;
+    private final long maxBytes;
+
+    public SegmentedCsvIngestor(ConnectionSupplier connections, String tableName, List<String> columns,
+                                ColumnConverter[] converters, RejectWriter rejects,
+                                int readBufferSize, int maxRows, long maxBytes) {
+        this.connections = connections;
+        this.tableName = tableName;
+        this.columns = columns;
+        this.converters = converters;
+        this.rejects = rejects;
+        this.readBufferSize = readBufferSize;
+        this.maxRows = maxRows;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param segments upper bound of ranges, and so of concurrent inserts
+     * @return rows inserted
+     */
+    public long ingest(Path file, Charset charset, char delimiter, int segments, IngestionProgress progress)
+            throws Exception {
+        if (!CsvSegmenter.supports(charset, delimiter)) {
+            throw new IllegalArgumentException("Segmented parsing needs an ASCII-compatible charset and delimiter, not "
+                + charset + " with '" + delimiter + "'");
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long headerEnd = CsvSegmenter.headerEnd(channel);
+            String[] header = readHeader(channel, headerEnd, charset, delimiter);
+            int[] positions = new int[columns.size()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = indexOf(header, columns.get(i));
+            }
+
+            List<Long> cuts = CsvSegmenter.split(channel, headerEnd, segments);
+            List<String> descriptions = new ArrayList<>();
+            for (int i = 0; i + 1 < cuts.size(); i++) {
+                descriptions.add("bytes " + cuts.get(i) + "-" + cuts.get(i + 1));
+            }
+            progress.onShardsPlanned(descriptions);
+
+            CSVFormat format = CSVFormat.DEFAULT.builder().setDelimiter(delimiter).setHeader(header).build();
+            AtomicLong bytes = new AtomicLong(headerEnd);
+            AtomicLong rows = new AtomicLong();
+            int threads = Math.max(1, descriptions.size());
+            AtomicInteger threadCount = new AtomicInteger();
+            ExecutorService executor = Executors.newFixedThreadPool(threads,
+                r -> new Thread(r, "segmented-ingest-" + threadCount.incrementAndGet()));
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < descriptions.size(); i++) {
+                    int index = i;
+                    long start = cuts.get(i);
+                    long end = cuts.get(i + 1);
+                    futures.add(executor.submit(MdcContext.wrap(() -> {
+                        rows.addAndGet(ingestSegment(index, channel, start, end, charset, format, positions,
+                            bytes, progress));
+                        return null;
+                    })));
+                }
+                for (Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof Exception) {
+                            throw (Exception) e.getCause();
+                        }
+                        throw e;
+                    }
+                }
+            } catch (Exception e) {
+                executor.shutdownNow();
+                // The other segments still read the channel, which is closed on leaving this block
+                try {
+                    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    e.addSuppressed(interrupted);
+                }
+                throw e;
+            } finally {
+                executor.shutdown();
+            }
+            return rows.get();
+        }
+    }
+
+    private long ingestSegment(int index, FileChannel channel, long start, long end, Charset charset,
+                               CSVFormat format, int[] positions, AtomicLong bytes, IngestionProgress progress)
+            throws Exception {
+        progress.onShardProgress(index, 0, JobStatus.IN_PROGRESS);
+        CountingInputStream counted = new CountingInputStream(new FileSegmentInputStream(channel, start, end));
+        long countedBytes = 0;
+        try (Reader reader = new BufferedReader(new InputStreamReader(counted, charset), readBufferSize);
+             CSVParser parser = format.parse(reader);
+             Connection conn = connections.get();
+             BatchInserter inserter = new BatchInserter(conn, tableName, columns, converters, maxRows, maxBytes)) {
+            inserter.setProgress(progress);
+            long startNanos = System.nanoTime();
+            String[] row = new String[positions.length];
+            long reportedRows = 0;
+            for (CSVRecord record : parser) {
+                for (int i = 0; i < positions.length; i++) {
+                    row[i] = record.get(positions[i]);
+                }
+                boolean flushed;
+                try {
+                    flushed = inserter.add(row);
+                } catch (RowRejectedException e) {
+                    rejects.reject(row, e);
+                    continue;
+                }
+                if (!flushed && counted.getCount() - countedBytes < PROGRESS_INTERVAL_BYTES) {
+                    continue;
+                }
+                long written = inserter.getRowsWritten();
+                progress.onShardProgress(index, written - reportedRows, JobStatus.IN_PROGRESS);
+                progress.onProgress(written - reportedRows, bytes.addAndGet(counted.getCount() - countedBytes));
+                reportedRows = written;
+                countedBytes = counted.getCount();
+                if (progress.isCancelled() || Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException("Job cancelled");
+                }
+            }
+            inserter.flush();
+            progress.onParseTime(System.nanoTime() - startNanos - inserter.getInsertNanos());
+            long written = inserter.getRowsWritten();
+            progress.onShardProgress(index, written - reportedRows, JobStatus.COMPLETED);
+            progress.onProgress(written - reportedRows, bytes.addAndGet(counted.getCount() - countedBytes));
+            return written;
+        } catch (Exception e) {
+            progress.onShardProgress(index, 0, JobStatus.FAILED);
+            throw e;
+        }
+    }
+
+    private static String[] readHeader(FileChannel channel, long headerEnd, Charset charset, char delimiter)
+            throws IOException {
+        try (Reader reader = new InputStreamReader(new FileSegmentInputStream(channel, 0, headerEnd), charset);
+             CSVParser parser = CSVFormat.DEFAULT.builder().setDelimiter(delimiter).build().parse(reader)) {
+            List<CSVRecord> records = parser.getRecords();
+            if (records.isEmpty()) {
+                throw new IllegalArgumentException("File has no header");
+            }
+            String[] header = records.get(0).values();
+            // A UTF-8 byte order mark would otherwise stick to the first column name
+            if (header.length > 0 && header[0].startsWith("\uFEFF")) {
+                header[0] = header[0].substring(1);
+            }
+            return header;
+        }
+    }
+
+    private static int indexOf(String[] header, String column) {
+        for (int i = 0; i < header.length; i++) {
+            if (header[i].equals(column)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Column " + column + " not found in file header");
+    }
+}
@@ -0,0 +1,253 @@
+package com.clickhouse.ingestion.service.impl;
+
+import com.clickhouse.data.ClickHouseValues;
+import com.clickhouse.ingestion.dto.RowFilter;
+import com.clickhouse.ingestion.dto.RowSelection;
+import com.clickhouse.ingestion.dto.SortOrder;
+import com.clickhouse.ingestion.model.FilterOperator;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds a SELECT of some columns of a table with filters, order, sampling
+ * and paging pushed down to ClickHouse. The table and all columns are quoted
+ * as identifiers, and filter and order columns must exist in the table;
+ * filter values never become part of the SQL text but are bound as
+ * parameters, cast to the column type.
+ *
+ * <p>The statement is rendered either with {@code ?} placeholders for a
+ * {@link PreparedStatement}, or with the values inlined as quoted literals
+ * for the request API used by passthrough formats, which takes no parameters.
+ */
+public final class SelectBuilder {
+    private final String tableName;
+    private final List<String> columns;
+    private final Map<String, String> columnTypes;
+    private final List<List<Object>> prewhere = new ArrayList<>();
+    private final List<List<Object>> where = new ArrayList<>();
+    private final List<String> orderBy = new ArrayList<>();
+    private Double sample;
+    private Long limit;
+    private long offset;
+
+    /**
+     * A filter value, kept apart from the SQL text around it.
+     */
+    private static final class Param {
+        final String value;
+
+        Param(String value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * @param columns     columns to select, or empty for all of them
+     * @param columnTypes name-to-type map of the table, to validate and cast against; may be empty
+     *                    when no filters or order are added
+     */
+    public SelectBuilder(String tableName, List<String> columns, Map<String, String> columnTypes) {
+        this.tableName = tableName;
+        this.columns = columns;
+        this.columnTypes = columnTypes;
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    /**
+     * Applies the filters, order, limit and sample of {@code selection}; null adds nothing.
+     */
+    public SelectBuilder select(RowSelection selection) {
+        if (selection == null) {
+            return this;
+        }
+        filter(selection.getFilters());
+        orderBy(selection.getOrderBy());
+        sample(selection.getSample());
+        if (selection.getLimit() != null) {
+            if (selection.getLimit() < 0) {
+                throw new IllegalArgumentException("limit must not be negative");
+            }
+            limit(selection.getLimit());
+        }
+        return this;
+    }
+
+    public SelectBuilder filter(List<RowFilter> filters) {
+        if (filters == null) {
+            return this;
+        }
+        for (RowFilter filter : filters) {
+            String type = type(filter.getColumn());
+            FilterOperator operator = filter.getOperator() == null ? FilterOperator.EQ : filter.getOperator();
+            List<Object> parts = new ArrayList<>();
+            parts.add(quoteIdentifier(filter.getColumn()) + " " + operator.getSql());
+            switch (operator) {
+                case IS_NULL:
+                case IS_NOT_NULL:
+                    break;
+                case IN:
+                case NOT_IN: {
+                    List<String> values = filter.getValues();
+                    if (values == null || values.isEmpty()) {
+                        throw new IllegalArgumentException(operator + " on " + filter.getColumn() + " needs values");
+                    }
+                    for (int i = 0; i < values.size(); i++) {
+                        parts.add(i == 0 ? " (CAST(" : ", CAST(");
+                        parts.add(new Param(values.get(i)));
+                        parts.add(", " + quote(type) + ")");
+                    }
+                    parts.add(")");
+                    break;
+                }
+                case LIKE:
+                case NOT_LIKE:
+                    parts.add(" ");
+                    parts.add(new Param(value(filter)));
+                    break;
+                default:
+                    parts.add(" CAST(");
+                    parts.add(new Param(value(filter)));
+                    parts.add(", " + quote(type) + ")");
+                    break;
+            }
+            (filter.isPrewhere() ? prewhere : where).add(parts);
+        }
+        return this;
+    }
+
+    public SelectBuilder orderBy(List<SortOrder> order) {
+        if (order == null) {
+            return this;
+        }
+        for (SortOrder key : order) {
+            type(key.getColumn());
+            orderBy.add(quoteIdentifier(key.getColumn()) + (key.isDescending() ? " DESC" : " ASC"));
+        }
+        return this;
+    }
+
+    public SelectBuilder sample(Double fraction) {
+        if (fraction != null && !(fraction > 0 && fraction <= 1)) {
+            throw new IllegalArgumentException("sample must be in (0, 1]");
+        }
+        this.sample = fraction;
+        return this;
+    }
+
+    public SelectBuilder limit(long rows) {
+        this.limit = rows;
+        return this;
+    }
+
+    /**
+     * Rows to skip before the limit; ignored without one.
+     */
+    public SelectBuilder offset(long rows) {
+        this.offset = rows;
+        return this;
+    }
+
+    /**
+     * @return the statement with a {@code ?} per filter value, to be bound with {@link #bind}
+     */
+    public String toSql() {
+        return render(false);
+    }
+
+    /**
+     * @return the statement with filter values inlined as escaped literals
+     */
+    public String toInlineSql() {
+        return render(true);
+    }
+
+    /**
+     * Binds the filter values of {@link #toSql()}, in order.
+     */
+    public void bind(PreparedStatement stmt) throws SQLException {
+        int index = 1;
+        for (List<List<Object>> clause : List.of(prewhere, where)) {
+            for (List<Object> predicate : clause) {
+                for (Object part : predicate) {
+                    if (part instanceof Param) {
+                        stmt.setString(index++, ((Param) part).value);
+                    }
+                }
+            }
+        }
+    }
+
+    private String render(boolean inline) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        if (columns == null || columns.isEmpty()) {
+            sql.append('*');
+        } else {
+            for (int i = 0; i < columns.size(); i++) {
+                sql.append(i == 0 ? "" : ",").append(quoteIdentifier(columns.get(i)));
+            }
+        }
+        sql.append(" FROM ").append(quoteIdentifier(tableName));
+        if (sample != null) {
+            sql.append(" SAMPLE ").append(sample);
+        }
+        appendPredicates(sql, " PREWHERE ", prewhere, inline);
+        appendPredicates(sql, " WHERE ", where, inline);
+        if (!orderBy.isEmpty()) {
+            sql.append(" ORDER BY ").append(String.join(", ", orderBy));
+        }
+        if (limit != null) {
+            sql.append(" LIMIT ").append(limit);
+            if (offset > 0) {
+                sql.append(" OFFSET ").append(offset);
+            }
+        }
+        return sql.toString();
+    }
+
+    private static void appendPredicates(StringBuilder sql, String keyword, List<List<Object>> predicates,
+                                         boolean inline) {
+        for (int i = 0; i < predicates.size(); i++) {
+            sql.append(i == 0 ? keyword : " AND ").append('(');
+            for (Object part : predicates.get(i)) {
+                if (!(part instanceof Param)) {
+                    sql.append(part);
+                } else if (inline) {
+                    sql.append(ClickHouseValues.convertToQuotedString(((Param) part).value));
+                } else {
+                    sql.append('?');
+                }
+            }
+            sql.append(')');
+        }
+    }
+
+    private String type(String column) {
+        String type = column == null ? null : columnTypes.get(column);
+        if (type == null) {
+            throw new IllegalArgumentException("Column " + column + " not found in table " + tableName);
+        }
+        return type;
+    }
+
+    private static String value(RowFilter filter) {
+        if (filter.getValue() == null) {
+            throw new IllegalArgumentException(filter.getOperator() + " on " + filter.getColumn() + " needs a value");
+        }
+        return filter.getValue();
+    }
+
+    public static String quoteIdentifier(String name) {
+        return "`" + name.replace("\\", "\\\\").replace("`", "\\`") + "`";
+    }
+
+    private static String quote(String value) {
+        return "'" + value.replace("\\", "\\\\").replace("'", "\\'") + "'";
+    }
+}
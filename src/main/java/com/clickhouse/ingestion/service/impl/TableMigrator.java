@@ -0,0 +1,262 @@
+package com.clickhouse.ingestion.service.impl;
+
+import com.clickhouse.ingestion.dto.MigrationRequest;
+import com.clickhouse.ingestion.dto.PartitionedExportOptions;
+import com.clickhouse.ingestion.model.ConnectionConfig;
+import com.clickhouse.ingestion.model.DataFormat;
+import com.clickhouse.ingestion.model.JobStatus;
+import com.clickhouse.ingestion.model.MigrationMode;
+import com.clickhouse.ingestion.model.ShardStrategy;
+import com.clickhouse.ingestion.service.IngestionProgress;
+import com.clickhouse.ingestion.util.CountingInputStream;
+import com.clickhouse.ingestion.util.MdcContext;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Copies a table from one ClickHouse server to another, one source
+ * partition at a time with several partitions in flight. Either the target
+ * pulls each partition itself through {@code remote()}, or the partition is
+ * read in Native format and piped into the target's INSERT without decoding.
+ * Tables and columns are quoted as identifiers.
+ */
+@Slf4j
+public class TableMigrator {
+    private static final long PROGRESS_INTERVAL_BYTES = 8L * 1024 * 1024;
+    private static final int DEFAULT_NATIVE_PORT = 9000;
+    private static final Pattern COLLECTION_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    private final ConnectionSupplier source;
+    private final ConnectionSupplier target;
+
+    public TableMigrator(ConnectionSupplier source, ConnectionSupplier target) {
+        this.source = source;
+        this.target = target;
+    }
+
+    /**
+     * @param columns columns to copy, resolved by the caller
+     * @return the mode actually used
+     */
+    public MigrationMode migrate(MigrationRequest request, List<String> columns, IngestionProgress progress)
+            throws Exception {
+        String sourceTable = request.getSourceTable();
+        String targetTable = request.getTargetTable() != null ? request.getTargetTable() : sourceTable;
+
+        List<PartitionedExporter.Shard> shards;
+        try (Connection conn = source.get()) {
+            PartitionedExportOptions plan = new PartitionedExportOptions();
+            plan.setStrategy(ShardStrategy.PARTITION);
+            plan.setShards(Integer.MAX_VALUE); // one shard per partition
+            shards = PartitionedExporter.planShards(conn, request.getSource().getDatabase(), sourceTable, columns,
+                Map.of(), plan);
+        }
+        List<String> descriptions = new ArrayList<>();
+        for (PartitionedExporter.Shard shard : shards) {
+            descriptions.add(shard.description);
+        }
+        progress.onShardsPlanned(descriptions);
+
+        MigrationMode mode = request.getMode();
+        if (mode == MigrationMode.AUTO) {
+            mode = hasRemoteCollection(request) ? MigrationMode.REMOTE : MigrationMode.STREAM;
+        }
+        String remote = mode == MigrationMode.REMOTE ? remoteFunction(request, sourceTable) : null;
+
+        String columnList = PartitionedExporter.columnList(columns);
+        AtomicLong bytes = new AtomicLong();
+        int threads = Math.max(1, Math.min(request.getParallelism(), shards.size()));
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+            r -> new Thread(r, "table-migration-" + threadCount.incrementAndGet()));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < shards.size(); i++) {
+                int index = i;
+                PartitionedExporter.Shard shard = shards.get(i);
+                MigrationMode shardMode = mode;
+                futures.add(executor.submit(MdcContext.wrap(() -> {
+                    copyShard(index, shard, shardMode, sourceTable, targetTable, columnList, remote, bytes, progress);
+                    return null;
+                })));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+        } catch (Exception e) {
+            executor.shutdownNow();
+            throw e;
+        } finally {
+            executor.shutdown();
+        }
+
+        if (request.isVerify()) {
+            verify(shards, sourceTable, targetTable, columnList, progress);
+        }
+        return mode;
+    }
+
+    private void copyShard(int index, PartitionedExporter.Shard shard, MigrationMode mode, String sourceTable,
+                           String targetTable, String columnList, String remote, AtomicLong bytes,
+                           IngestionProgress progress) throws Exception {
+        if (progress.isCancelled()) {
+            throw new CancellationException("Job cancelled");
+        }
+        progress.onShardProgress(index, 0, JobStatus.IN_PROGRESS);
+        long rows;
+        try (Connection to = target.get()) {
+            if (mode == MigrationMode.REMOTE) {
+                try (Statement stmt = to.createStatement()) {
+                    rows = stmt.executeLargeUpdate("INSERT INTO " + SelectBuilder.quoteIdentifier(targetTable)
+                        + " (" + columnList + ") SELECT " + columnList + " FROM " + remote
+                        + " WHERE " + shard.predicate);
+                }
+            } else {
+                try (Connection from = source.get()) {
+                    rows = NativeFormatTransfer.copy(from,
+                        "SELECT " + columnList + " FROM " + SelectBuilder.quoteIdentifier(sourceTable)
+                            + " WHERE " + shard.predicate + " FORMAT " + DataFormat.NATIVE.getFormat().name(),
+                        to,
+                        "INSERT INTO " + SelectBuilder.quoteIdentifier(targetTable) + " (" + columnList
+                            + ") FORMAT " + DataFormat.NATIVE.getFormat().name(),
+                        DataFormat.NATIVE, in -> new ProgressInputStream(in, bytes, progress));
+                }
+            }
+        } catch (Exception e) {
+            progress.onShardProgress(index, 0, JobStatus.FAILED);
+            if (progress.isCancelled()) {
+                throw new CancellationException("Job cancelled");
+            }
+            throw e;
+        }
+        progress.onShardProgress(index, rows, JobStatus.COMPLETED);
+        progress.onProgress(rows, bytes.get());
+    }
+
+    /**
+     * Compares row count and an order-independent checksum of each shard on
+     * both sides, and marks the shards that differ as failed so that only
+     * those need copying again. The partition predicates are evaluated on the
+     * target too, so it must be partitioned like the source, and column types
+     * must match on both sides for the checksums to agree.
+     */
+    private void verify(List<PartitionedExporter.Shard> shards, String sourceTable, String targetTable,
+                        String columnList, IngestionProgress progress) throws SQLException {
+        String sql = "SELECT count(), sum(cityHash64(" + columnList + ")) FROM ";
+        List<String> mismatches = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            String where = " WHERE " + shards.get(i).predicate;
+            long[] expected = fingerprint(source, sql + SelectBuilder.quoteIdentifier(sourceTable) + where);
+            long[] actual = fingerprint(target, sql + SelectBuilder.quoteIdentifier(targetTable) + where);
+            if (expected[0] != actual[0] || expected[1] != actual[1]) {
+                progress.onShardProgress(i, 0, JobStatus.FAILED);
+                mismatches.add(shards.get(i).description + ": source has " + expected[0] + " rows (checksum "
+                    + Long.toUnsignedString(expected[1]) + "), target has " + actual[0] + " rows (checksum "
+                    + Long.toUnsignedString(actual[1]) + ")");
+            }
+        }
+        if (!mismatches.isEmpty()) {
+            throw new IllegalStateException("Verification failed for " + mismatches.size() + " of " + shards.size()
+                + " shards; " + String.join("; ", mismatches));
+        }
+    }
+
+    private static long[] fingerprint(ConnectionSupplier connections, String sql) throws SQLException {
+        try (Connection conn = connections.get();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            rs.next();
+            // The UInt64 sum wraps identically on both sides, so compare its bits
+            return new long[] {rs.getLong(1), rs.getBigDecimal(2).toBigInteger().longValue()};
+        }
+    }
+
+    private static boolean hasRemoteCollection(MigrationRequest request) {
+        return request.getRemoteCollection() != null && !request.getRemoteCollection().isBlank();
+    }
+
+    /**
+     * With a remote collection the target looks the source up itself;
+     * otherwise the password ends up in the query text, and so in the
+     * target's query log.
+     */
+    private static String remoteFunction(MigrationRequest request, String sourceTable) {
+        ConnectionConfig config = request.getSource();
+        if (hasRemoteCollection(request)) {
+            if (!COLLECTION_NAME.matcher(request.getRemoteCollection()).matches()) {
+                throw new IllegalArgumentException("Invalid remote collection name " + request.getRemoteCollection());
+            }
+            return "remote(" + request.getRemoteCollection()
+                + ", database = " + PartitionedExporter.quote(config.getDatabase())
+                + ", table = " + PartitionedExporter.quote(sourceTable) + ")";
+        }
+        log.warn("Migrating {} with remote() and inline credentials: the source password is written to the "
+            + "target's query log; configure a remote collection instead", sourceTable);
+        String address = request.getRemoteAddress() != null && !request.getRemoteAddress().isBlank()
+            ? request.getRemoteAddress()
+            : config.getHost() + ":" + DEFAULT_NATIVE_PORT;
+        return "remote(" + PartitionedExporter.quote(address) + ", " + PartitionedExporter.quote(config.getDatabase())
+            + ", " + PartitionedExporter.quote(sourceTable) + ", " + PartitionedExporter.quote(config.getUsername())
+            + ", " + PartitionedExporter.quote(config.getPassword() == null ? "" : config.getPassword()) + ")";
+    }
+
+    /**
+     * Adds streamed bytes to the migration total and aborts the copy once
+     * the job is cancelled.
+     */
+    private static final class ProgressInputStream extends CountingInputStream {
+        private final AtomicLong total;
+        private final IngestionProgress progress;
+        private long reported;
+
+        ProgressInputStream(InputStream in, AtomicLong total, IngestionProgress progress) {
+            super(in);
+            this.total = total;
+            this.progress = progress;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (getCount() - reported >= PROGRESS_INTERVAL_BYTES) {
+                progress.onProgress(0, total.addAndGet(getCount() - reported));
+                reported = getCount();
+                if (progress.isCancelled()) {
+                    throw new IOException("Job cancelled");
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            total.addAndGet(getCount() - reported);
+            reported = getCount();
+            super.close();
+        }
+    }
+}
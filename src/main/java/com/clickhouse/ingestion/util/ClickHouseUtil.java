@@ -1,8 +1,18 @@
 package com.clickhouse.ingestion.util;
 
 import com.clickhouse.ingestion.model.ConnectionConfig;
+import com.clickhouse.ingestion.model.WireCompression;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The one place where a {@link ConnectionConfig} becomes a JDBC URL and
+ * driver properties; connections are only opened through the pool, which
+ * builds its data sources here.
+ */
 @Component
 public class ClickHouseUtil {
     public String buildConnectionUrl(ConnectionConfig config) {
@@ -11,4 +21,49 @@ public class ClickHouseUtil {
             config.getPort(), 
             config.getDatabase());
     }
-} 
\ No newline at end of file
+
+    public Properties buildConnectionProperties(ConnectionConfig config) {
+        Properties properties = new Properties();
+        WireCompression compression = config.getCompression() == null ? WireCompression.NONE : config.getCompression();
+        if (compression == WireCompression.NONE) {
+            properties.setProperty("compress", "0");
+        } else {
+            // compress: server to client (results); decompress: client to server (insert bodies)
+            properties.setProperty("compress", "1");
+            properties.setProperty("compress_algorithm", compression.name());
+            properties.setProperty("decompress", "1");
+            properties.setProperty("decompress_algorithm", compression.name());
+        }
+        if (config.getUsername() != null) {
+            properties.setProperty("user", config.getUsername());
+        }
+        if (config.getPassword() != null && !config.getPassword().isEmpty()) {
+            properties.setProperty("password", config.getPassword());
+        }
+        if (config.getJwtToken() != null && !config.getJwtToken().isEmpty()) {
+            properties.setProperty("jwt", config.getJwtToken());
+        }
+        if (config.getSocketTimeoutMillis() != null) {
+            properties.setProperty("socket_timeout", config.getSocketTimeoutMillis().toString());
+        }
+        if (config.getConnectTimeoutMillis() != null) {
+            properties.setProperty("connect_timeout", config.getConnectTimeoutMillis().toString());
+        }
+        // Server settings sent with every query of the connection
+        List<String> settings = new ArrayList<>();
+        if (config.getMaxInsertBlockSize() != null) {
+            settings.add("max_insert_block_size=" + config.getMaxInsertBlockSize());
+        }
+        if (config.getAsyncInsert() != null) {
+            settings.add("async_insert=" + (config.getAsyncInsert() ? 1 : 0));
+            if (config.getAsyncInsert()) {
+                // Acknowledge an insert only once the server has flushed it to a part
+                settings.add("wait_for_async_insert=1");
+            }
+        }
+        if (!settings.isEmpty()) {
+            properties.setProperty("custom_settings", String.join(",", settings));
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,57 @@
+package com.clickhouse.ingestion.util;
+
+import org.slf4j.MDC;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Carries the MDC of the submitting thread, such as {@code requestId} and
+ * {@code jobId}, into work handed to pool threads, so that their log lines
+ * can be traced back to the request or job.
+ */
+public final class MdcContext {
+
+    private MdcContext() {
+    }
+
+    /**
+     * @return {@code task} running with the MDC captured now, and the thread's own MDC put back after
+     */
+    public static Runnable wrap(Runnable task) {
+        Map<String, String> context = MDC.getCopyOfContextMap();
+        return () -> {
+            Map<String, String> previous = MDC.getCopyOfContextMap();
+            set(context);
+            try {
+                task.run();
+            } finally {
+                set(previous);
+            }
+        };
+    }
+
+    /**
+     * @return {@code task} running with the MDC captured now, and the thread's own MDC put back after
+     */
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        Map<String, String> context = MDC.getCopyOfContextMap();
+        return () -> {
+            Map<String, String> previous = MDC.getCopyOfContextMap();
+            set(context);
+            try {
+                return task.call();
+            } finally {
+                set(previous);
+            }
+        };
+    }
+
+    private static void set(Map<String, String> context) {
+        if (context == null) {
+            MDC.clear();
+        } else {
+            MDC.setContextMap(context);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.clickhouse.ingestion.util;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Maps character positions back to UTF-8 byte offsets for the text read
+ * through it, so a CSV parser's record positions can be turned into file
+ * offsets to seek to. Positions are only resolvable while they lie within
+ * the last {@code historyChars} characters read, which must cover the
+ * consumer's read-ahead plus one record.
+ */
+public class Utf8PositionReader extends Reader {
+    private final Reader in;
+    private final char[] history;
+    private long charsRead;
+    private long bytesRead;
+
+    public Utf8PositionReader(Reader in, int historyChars) {
+        this.in = in;
+        this.history = new char[historyChars];
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        int n = in.read(cbuf, off, len);
+        for (int i = 0; i < n; i++) {
+            char c = cbuf[off + i];
+            bytesRead += utf8Length(c);
+            history[(int) ((charsRead + i) % history.length)] = c;
+        }
+        if (n > 0) {
+            charsRead += n;
+        }
+        return n;
+    }
+
+    /**
+     * @param charPosition characters from the start of this reader
+     * @return bytes from the start of this reader, or -1 if the position is no longer in the history
+     */
+    public long bytePosition(long charPosition) {
+        long back = charsRead - charPosition;
+        if (back < 0 || back > history.length) {
+            return -1;
+        }
+        long bytes = bytesRead;
+        for (long i = charPosition; i < charsRead; i++) {
+            bytes -= utf8Length(history[(int) (i % history.length)]);
+        }
+        return bytes;
+    }
+
+    // Each half of a surrogate pair counts two of the pair's four bytes
+    private static int utf8Length(char c) {
+        if (c < 0x80) {
+            return 1;
+        }
+        if (c < 0x800 || Character.isSurrogate(c)) {
+            return 2;
+        }
+        return 3;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,232 @@
+package com.clickhouse.ingestion.controller;
+
+import com.clickhouse.ingestion.service.ClickHouseConnectionPool;
+import com.clickhouse.ingestion.support.BenchmarkFixture;
+import com.clickhouse.ingestion.support.FakeClickHouse;
+import com.clickhouse.ingestion.support.FakeConnectionPool;
+import com.clickhouse.ingestion.support.SyntheticTable;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Drives the ingestion endpoints through the whole web stack against
+ * {@link FakeClickHouse}, checking status codes and the rows that come back.
+ */
+@SpringBootTest(properties = {
+    "file.upload.directory=target/test-uploads",
+    "ingestion.reject-directory=target/test-uploads/rejects",
+    "ingestion.coalesce-bytes=65536",
+    "ingestion.coalesce-delay-millis=50"
+})
+@AutoConfigureMockMvc
+class IngestionControllerTest {
+    private static final int WIDTH = 8;
+    private static final long ROWS = 500;
+    private static final String CONFIG =
+        "{\"host\":\"localhost\",\"port\":8123,\"database\":\"default\",\"username\":\"default\"}";
+    private static final FakeClickHouse SERVER = new FakeClickHouse(BenchmarkFixture.TABLE,
+        new SyntheticTable(WIDTH, ROWS));
+
+    @TestConfiguration
+    static class StandIn {
+        @Bean
+        @Primary
+        ClickHouseConnectionPool fakeConnectionPool() {
+            return new FakeConnectionPool(SERVER);
+        }
+    }
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Test
+    void uploadIsIngested() throws Exception {
+        long before = SERVER.getInsertedRows();
+        mvc.perform(multipart("/api/ingestion/ingest")
+                .file(configPart())
+                .file(new MockMultipartFile("file", "load.csv", "text/csv", csv(100)))
+                .param("tableName", BenchmarkFixture.TABLE)
+                .param("columns", "c0", "c1"))
+            .andExpect(status().isOk());
+        assertEquals(100, SERVER.getInsertedRows() - before);
+    }
+
+    @Test
+    void bufferedUploadIsInserted() throws Exception {
+        long before = SERVER.getInsertedRows();
+        mvc.perform(bufferedUpload(gzip(csv(100))))
+            .andExpect(status().isOk());
+        assertEquals(100, SERVER.getInsertedRows() - before);
+    }
+
+    @Test
+    void bufferedUploadIsLimitedByItsDecompressedSize() throws Exception {
+        byte[] compressed = gzip(csv(50_000));
+        assertTrue(compressed.length < 65536, "the upload should only be too large once decompressed");
+        long before = SERVER.getInsertedRows();
+        mvc.perform(bufferedUpload(compressed))
+            .andExpect(status().isPayloadTooLarge());
+        assertEquals(before, SERVER.getInsertedRows());
+    }
+
+    @Test
+    void downloadStreamsSelectedColumns() throws Exception {
+        MvcResult started = mvc.perform(post("/api/ingestion/export/download")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(CONFIG)
+                .param("tableName", BenchmarkFixture.TABLE)
+                .param("columns", "c0", "c1"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+        String csv = mvc.perform(asyncDispatch(started))
+            .andExpect(status().isOk())
+            .andReturn().getResponse().getContentAsString();
+        String[] lines = csv.split("\r\n");
+        assertEquals("c0,c1", lines[0]);
+        assertEquals(ROWS + 1, lines.length);
+    }
+
+    @Test
+    void exportWritesSelectedColumnsToFile(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("export.csv");
+        mvc.perform(post("/api/ingestion/export")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(CONFIG)
+                .param("tableName", BenchmarkFixture.TABLE)
+                .param("columns", "c0", "c1")
+                .param("filePath", file.toString()))
+            .andExpect(status().isOk());
+        List<String> lines = Files.readAllLines(file);
+        assertEquals("c0,c1", lines.get(0));
+        assertEquals(ROWS + 1, lines.size());
+    }
+
+    @Test
+    void downloadWithFilterOnUnknownColumnIsRefusedBeforeStreaming() throws Exception {
+        MvcResult result = mvc.perform(post("/api/ingestion/export/download")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(CONFIG)
+                .param("tableName", BenchmarkFixture.TABLE)
+                .param("columns", "c0")
+                .param("filters[0].column", "missing")
+                .param("filters[0].value", "1"))
+            .andExpect(status().isBadRequest())
+            .andReturn();
+        assertFalse(result.getRequest().isAsyncStarted());
+    }
+
+    @Test
+    void previewReturnsOnePageOfSelectedColumns() throws Exception {
+        mvc.perform(post("/api/ingestion/preview/compact")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(CONFIG)
+                .param("tableName", BenchmarkFixture.TABLE)
+                .param("columns", "c0", "c1")
+                .param("limit", "10"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.columns", contains("c0", "c1")))
+            .andExpect(jsonPath("$.rows", hasSize(10)))
+            .andExpect(jsonPath("$.hasMore").value(true));
+    }
+
+    @Test
+    void previewWithOrderOnUnknownColumnIsBadRequest() throws Exception {
+        mvc.perform(post("/api/ingestion/preview/compact")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(CONFIG)
+                .param("tableName", BenchmarkFixture.TABLE)
+                .param("orderBy[0].column", "missing"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void previewAboveTheRowCapIsBadRequest() throws Exception {
+        mvc.perform(post("/api/ingestion/preview/compact")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(CONFIG)
+                .param("tableName", BenchmarkFixture.TABLE)
+                .param("limit", "10001"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void partitionedExportToAFormatItCannotWriteIsBadRequest() throws Exception {
+        mvc.perform(post("/api/ingestion/ingestion/export/partitioned")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(CONFIG)
+                .param("tableName", BenchmarkFixture.TABLE)
+                .param("columns", "c0")
+                .param("filePath", "target/test-uploads/export.parquet"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void migrationWithoutATargetIsBadRequest() throws Exception {
+        mvc.perform(post("/api/ingestion/ingestion/migrate")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"source\":" + CONFIG + ",\"sourceTable\":\"" + BenchmarkFixture.TABLE
+                    + "\",\"targetTable\":\"copy\"}"))
+            .andExpect(status().isBadRequest());
+    }
+
+    private static RequestBuilder bufferedUpload(byte[] gzipped) {
+        return multipart("/api/ingestion/ingest")
+            .file(configPart())
+            .file(new MockMultipartFile("file", "small.csv.gz", "application/gzip", gzipped))
+            .param("tableName", BenchmarkFixture.TABLE)
+            .param("columns", "c0", "c1")
+            .param("smallUpload", "BUFFER");
+    }
+
+    private static MockMultipartFile configPart() {
+        return new MockMultipartFile("config", "", MediaType.APPLICATION_JSON_VALUE,
+            CONFIG.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] csv(int rows) {
+        StringBuilder csv = new StringBuilder("c0,c1\r\n");
+        for (int i = 0; i < rows; i++) {
+            csv.append("42,name\r\n");
+        }
+        return csv.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,73 @@
+package com.clickhouse.ingestion.service;
+
+import com.clickhouse.ingestion.config.ConnectionPoolProperties;
+import com.clickhouse.ingestion.model.ConnectionConfig;
+import com.clickhouse.ingestion.util.ClickHouseUtil;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Pool bookkeeping that needs no server: connections to a closed port fail,
+ * but the keyed pools and their meters are created all the same.
+ */
+class ClickHouseConnectionPoolTest {
+    private final ConnectionPoolProperties properties = new ConnectionPoolProperties();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private ClickHouseConnectionPool pool;
+
+    @AfterEach
+    void shutdown() {
+        pool.shutdown();
+    }
+
+    @Test
+    void keysDifferingOnlyInSecretsGetTheirOwnMeters() {
+        pool = new ClickHouseConnectionPool(properties, new ClickHouseUtil(), registry);
+        tryConnect(config("first"));
+        tryConnect(config("second"));
+
+        assertEquals(2, pool.getMetrics().size());
+        assertNotEquals(pool.getMetrics().get(0).getId(), pool.getMetrics().get(1).getId());
+        assertEquals(2, registry.find("clickhouse.connections.idle").gauges().size());
+        registry.getMeters().forEach(meter -> meter.getId().getTags().forEach(tag ->
+            assertFalse(tag.getValue().contains("first") || tag.getValue().contains("second"), tag.toString())));
+    }
+
+    @Test
+    void unusedPoolsAreDroppedWithTheirMeters() throws InterruptedException {
+        properties.setIdleTimeoutMillis(0);
+        pool = new ClickHouseConnectionPool(properties, new ClickHouseUtil(), registry);
+        tryConnect(config("secret"));
+        assertEquals(1, pool.getMetrics().size());
+
+        Thread.sleep(5); // past the (zero) idle timeout
+        pool.evictIdle();
+
+        assertTrue(pool.getMetrics().isEmpty());
+        assertTrue(registry.find("clickhouse.connections.idle").gauges().isEmpty());
+        assertTrue(registry.find("clickhouse.connection.acquire").timers().isEmpty());
+    }
+
+    private void tryConnect(ConnectionConfig config) {
+        assertThrows(SQLException.class, () -> pool.getConnection(config).close());
+    }
+
+    private static ConnectionConfig config(String password) {
+        ConnectionConfig config = new ConnectionConfig();
+        config.setHost("127.0.0.1");
+        config.setPort(1);
+        config.setDatabase("default");
+        config.setUsername("default");
+        config.setPassword(password);
+        return config;
+    }
+}
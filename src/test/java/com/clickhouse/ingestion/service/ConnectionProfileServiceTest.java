@@ -0,0 +1,62 @@
+package com.clickhouse.ingestion.service;
+
+import com.clickhouse.ingestion.config.ClickHouseConfig;
+import com.clickhouse.ingestion.model.ConnectionConfig;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConnectionProfileServiceTest {
+
+    @Test
+    void configuredProfilesCannotBeReplacedOrDeleted() {
+        ConnectionProfileService profiles = new ConnectionProfileService(config());
+
+        assertThrows(IllegalArgumentException.class,
+            () -> profiles.save(ConnectionProfileService.DEFAULT_PROFILE, server("elsewhere")));
+        assertThrows(IllegalArgumentException.class, () -> profiles.save("analytics", server("elsewhere")));
+        assertThrows(IllegalArgumentException.class, () -> profiles.delete(ConnectionProfileService.DEFAULT_PROFILE));
+        assertEquals("ch-default", profiles.resolve(null).getHost());
+        assertEquals("ch-analytics", profiles.resolve(named("analytics")).getHost());
+    }
+
+    @Test
+    void runtimeProfilesCanBeSavedAndDeleted() {
+        ConnectionProfileService profiles = new ConnectionProfileService(config());
+
+        profiles.save("scratch", server("ch-scratch"));
+        assertEquals("ch-scratch", profiles.resolve(named("scratch")).getHost());
+        assertTrue(profiles.delete("scratch"));
+        assertFalse(profiles.delete("scratch"));
+    }
+
+    private static ClickHouseConfig config() {
+        ClickHouseConfig config = new ClickHouseConfig();
+        config.setHost("ch-default");
+        config.setPort(8123);
+        config.setDatabase("default");
+        config.setUsername("default");
+        config.setProfiles(Map.of("analytics", server("ch-analytics")));
+        return config;
+    }
+
+    private static ConnectionConfig server(String host) {
+        ConnectionConfig config = new ConnectionConfig();
+        config.setHost(host);
+        config.setPort(8123);
+        config.setDatabase("default");
+        config.setUsername("default");
+        return config;
+    }
+
+    private static ConnectionConfig named(String profileId) {
+        ConnectionConfig config = new ConnectionConfig();
+        config.setProfileId(profileId);
+        return config;
+    }
+}
@@ -0,0 +1,70 @@
+package com.clickhouse.ingestion.service;
+
+import com.clickhouse.ingestion.config.IngestionProperties;
+import com.clickhouse.ingestion.support.BenchmarkFixture;
+import com.clickhouse.ingestion.support.FakeConnectionPool;
+import com.clickhouse.ingestion.support.SyntheticTable;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InsertCoalescerTest {
+    private static final int ROWS = 100;
+
+    private final BenchmarkFixture fixture = new BenchmarkFixture(4, ROWS);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private InsertCoalescer coalescer;
+
+    @AfterEach
+    void shutdown() {
+        coalescer.shutdown();
+        fixture.close();
+    }
+
+    @Test
+    void buffersOfOneTableShareItsMetersAndDropThemWhenIdle() throws Exception {
+        IngestionProperties properties = fixture.getIngestionProperties();
+        properties.setCoalesceDelayMillis(50);
+        coalescer = new InsertCoalescer(new FakeConnectionPool(fixture.getServer()), fixture.getService(),
+            properties, registry);
+        SyntheticTable table = fixture.getTable();
+
+        // Different column lists cannot share an INSERT, so they get a buffer each
+        CompletableFuture<Long> narrow = upload(table.columnNames().subList(0, 2));
+        CompletableFuture<Long> wide = upload(table.columnNames());
+        assertEquals(ROWS, narrow.get(10, TimeUnit.SECONDS));
+        assertEquals(ROWS, wide.get(10, TimeUnit.SECONDS));
+        assertEquals(2 * ROWS, fixture.getServer().getInsertedRows());
+        assertEquals(1, registry.find("ingestion.coalesce.buffered.bytes").gauges().size());
+
+        // Uploads return before their buffer has finished its send, so give the timer a few ticks
+        properties.setCoalesceIdleMillis(0);
+        for (int tick = 0; tick < 100 && !registry.find("ingestion.coalesce.flushes").counters().isEmpty(); tick++) {
+            Thread.sleep(50);
+        }
+
+        assertTrue(registry.find("ingestion.coalesce.buffered.bytes").gauges().isEmpty());
+        assertTrue(registry.find("ingestion.coalesce.flushes").counters().isEmpty());
+    }
+
+    private CompletableFuture<Long> upload(List<String> columns) {
+        List<String[]> rows = new ArrayList<>(ROWS);
+        for (int row = 0; row < ROWS; row++) {
+            String[] values = new String[columns.size()];
+            for (int column = 0; column < values.length; column++) {
+                values[column] = fixture.getTable().value(row, column);
+            }
+            rows.add(values);
+        }
+        return CompletableFuture.supplyAsync(() ->
+            coalescer.insert(fixture.getConfig(), BenchmarkFixture.TABLE, columns, rows, 1024));
+    }
+}
@@ -0,0 +1,58 @@
+package com.clickhouse.ingestion.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class UploadStoreTest {
+    private final UploadStore store = new UploadStore("target/test-uploads");
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void concurrentRetryOfTheSameChunkIsAConflict() throws Exception {
+        String id = store.create();
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        InputStream slowChunk = new ByteArrayInputStream("abc".getBytes()) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                reading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.read(b, off, len);
+            }
+        };
+        Future<Long> first = executor.submit(() -> store.append(id, 0, slowChunk));
+        reading.await();
+
+        // The retry waits for the first append and then finds the upload already past offset 0
+        Future<Long> retry = executor.submit(
+            () -> store.append(id, 0, new ByteArrayInputStream("abc".getBytes())));
+        release.countDown();
+
+        assertEquals(3, first.get());
+        ExecutionException e = assertThrows(ExecutionException.class, retry::get);
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        assertEquals(3, store.size(id));
+        store.delete(id);
+    }
+}
@@ -0,0 +1,115 @@
+package com.clickhouse.ingestion.service.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class ColumnConverterTest {
+    private final PreparedStatement statement = mock(PreparedStatement.class);
+
+    @Test
+    void nullForNonNullableTypeIsRejectedWithTheColumnName() {
+        ColumnConverter converter = ColumnConverter.forType("Int32");
+        IllegalArgumentException cause = assertThrows(IllegalArgumentException.class,
+            () -> converter.bind(null, 1, null));
+
+        RowRejectedException rejected = new RowRejectedException("id", null, cause);
+        assertEquals("NULL for non-Nullable column id", rejected.getMessage());
+    }
+
+    @Test
+    void invalidValueNamesTheValueAndColumn() {
+        ColumnConverter converter = ColumnConverter.forType("Int32");
+        NumberFormatException cause = assertThrows(NumberFormatException.class,
+            () -> converter.bind(null, 1, "x"));
+
+        RowRejectedException rejected = new RowRejectedException("id", "x", cause);
+        assertEquals("Invalid value 'x' for column id: " + cause.getMessage(), rejected.getMessage());
+    }
+
+    @Test
+    void eachTypeFamilyBindsWithItsOwnSetter() throws SQLException {
+        bind("Int8", "-128");
+        verify(statement).setInt(1, -128);
+        bind("UInt16", " 65535 ");
+        verify(statement).setInt(1, 65535);
+        bind("UInt32", "4294967295");
+        verify(statement).setLong(1, 4294967295L);
+        bind("Int64", "-9223372036854775808");
+        verify(statement).setLong(1, Long.MIN_VALUE);
+        bind("UInt64", "18446744073709551615");
+        verify(statement).setObject(1, new BigInteger("18446744073709551615"));
+        bind("Float64", "2.5");
+        verify(statement).setDouble(1, 2.5);
+        bind("Bool", "true");
+        verify(statement).setBoolean(1, true);
+        bind("Date", "2024-01-31");
+        verify(statement).setObject(1, LocalDate.of(2024, 1, 31));
+        bind("DateTime64(3)", "2024-01-31T12:00:00.250");
+        verify(statement).setObject(1, LocalDateTime.of(2024, 1, 31, 12, 0, 0, 250_000_000));
+        bind("UUID", "123e4567-e89b-12d3-a456-426614174000");
+        verify(statement).setObject(1, UUID.fromString("123e4567-e89b-12d3-a456-426614174000"));
+        bind("LowCardinality(String)", "text");
+        verify(statement).setString(1, "text");
+    }
+
+    @Test
+    void integersOutsideTheirTypeAreRejected() {
+        for (String[] outOfRange : new String[][] {
+                {"Int8", "128"}, {"Int8", "-129"}, {"Int16", "32768"}, {"UInt8", "256"}, {"UInt8", "-1"},
+                {"UInt16", "65536"}, {"UInt32", "4294967296"}, {"UInt32", "-1"},
+                {"UInt64", "18446744073709551616"}, {"UInt64", "-1"},
+                {"Int128", "170141183460469231731687303715884105728"},
+                {"UInt256", "-1"}}) {
+            assertThrows(IllegalArgumentException.class, () -> bind(outOfRange[0], outOfRange[1]),
+                outOfRange[0] + " " + outOfRange[1]);
+        }
+        assertThrows(NumberFormatException.class, () -> bind("Int32", "2147483648"));
+    }
+
+    @Test
+    void nullableTypesBindNullsAndOthersRejectThem() throws SQLException {
+        bind("Nullable(Int32)", null);
+        bind("Nullable(Int32)", "");
+        bind("Nullable(Int32)", "\\N");
+        verify(statement, times(3)).setNull(1, Types.OTHER);
+        bind("LowCardinality(Nullable(String))", null);
+        verify(statement).setNull(1, Types.VARCHAR);
+
+        for (String type : new String[] {"Int8", "UInt64", "Float32", "Decimal(10, 2)", "Date", "UUID"}) {
+            assertThrows(IllegalArgumentException.class, () -> bind(type, null), type);
+        }
+        // Text types leave null to the driver
+        bind("String", null);
+        verify(statement).setString(1, null);
+    }
+
+    @Test
+    void decimalsTakeTheColumnScaleAndRejectTooManyIntegerDigits() throws SQLException {
+        bind("Decimal(5, 2)", "123.456");
+        verify(statement).setBigDecimal(1, new BigDecimal("123.45"));
+        bind("Decimal32(2)", "-1.5");
+        verify(statement).setBigDecimal(1, new BigDecimal("-1.50"));
+
+        assertThrows(IllegalArgumentException.class, () -> bind("Decimal(5, 2)", "1000"));
+        assertThrows(IllegalArgumentException.class, () -> bind("Decimal32(4)", "100000"));
+        assertThrows(NumberFormatException.class, () -> bind("Decimal(5, 2)", "1,5"));
+    }
+
+    private void bind(String type, String value) throws SQLException {
+        ColumnConverter.forType(type).bind(statement, 1, value);
+    }
+}
@@ -0,0 +1,128 @@
+package com.clickhouse.ingestion.service.impl;
+
+import com.clickhouse.ingestion.config.IngestionProperties;
+import com.clickhouse.ingestion.format.FileFormats;
+import com.clickhouse.ingestion.model.Compression;
+import com.clickhouse.ingestion.service.IngestionProgress;
+import com.clickhouse.ingestion.support.BenchmarkFixture;
+import org.junit.jupiter.api.Test;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Streams a few million generated CSV rows through {@code ingestFile} into
+ * the fake driver and checks that the heap still live while they pass
+ * through stays within a bound set by the batch size, not the file size.
+ * The live heap is measured after a full collection every
+ * {@value #SAMPLE_EVERY_BYTES} bytes of input, in the middle of the load.
+ */
+class IngestMemoryTest {
+    private static final int WIDTH = 8;
+    private static final long ROWS = 2_000_000;
+    private static final int BATCH_ROWS = 10_000;
+    private static final long BATCH_BYTES = 1024 * 1024;
+    private static final int QUEUE_CAPACITY = 2;
+    private static final long SAMPLE_EVERY_BYTES = 8 * 1024 * 1024;
+
+    // A row held in a batch costs several times what BatchInserter counts for it: object headers,
+    // the String[] and its references come on top of the characters
+    private static final int HEAP_BYTES_PER_COUNTED_BYTE = 6;
+    private static final long SLACK_BYTES = 16 * 1024 * 1024;
+
+    @Test
+    void sequentialIngestHoldsOneBatch() {
+        ingestAndCheck(1, 2);
+    }
+
+    @Test
+    void parallelIngestHoldsQueuedAndInFlightBatches() {
+        int workers = 2;
+        // One batch per worker, the queue, and the one being filled by the parser
+        ingestAndCheck(workers, workers + QUEUE_CAPACITY + 2);
+    }
+
+    private void ingestAndCheck(int parallelism, int batchesInFlight) {
+        try (BenchmarkFixture fixture = new BenchmarkFixture(WIDTH, ROWS)) {
+            IngestionProperties properties = fixture.getIngestionProperties();
+            properties.setBatchRows(BATCH_ROWS);
+            properties.setBatchBytes(BATCH_BYTES);
+            properties.setParallelQueueCapacity(QUEUE_CAPACITY);
+
+            long before = liveHeap();
+            long bound = before + batchesInFlight * HEAP_BYTES_PER_COUNTED_BYTE * BATCH_BYTES + SLACK_BYTES;
+            SamplingInputStream input = new SamplingInputStream(fixture.getTable().openCsv());
+            fixture.getService().ingestFile(fixture.getConfig(), BenchmarkFixture.TABLE,
+                fixture.getTable().columnNames(), input, FileFormats.CSV, Compression.NONE, parallelism,
+                IngestionProgress.NONE);
+
+            assertEquals(ROWS, fixture.getServer().getInsertedRows());
+            assertTrue(input.samples > 0, "the input was too small to sample");
+            assertTrue(input.peak <= bound, String.format(
+                "live heap peaked at %d MB during the load, above the %d MB bound for %d batches of %d bytes",
+                input.peak >> 20, bound >> 20, batchesInFlight, BATCH_BYTES));
+        }
+    }
+
+    /**
+     * Heap in use right after a full collection, i.e. what is still reachable.
+     */
+    private static long liveHeap() {
+        System.gc();
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                used += pool.getUsage().getUsed();
+            }
+        }
+        return used;
+    }
+
+    /**
+     * Records the live heap each time another {@link #SAMPLE_EVERY_BYTES} have been read.
+     */
+    private static final class SamplingInputStream extends FilterInputStream {
+        long read;
+        long nextSample = SAMPLE_EVERY_BYTES;
+        long peak;
+        int samples;
+
+        SamplingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                advance(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                advance(n);
+            }
+            return n;
+        }
+
+        private void advance(int n) {
+            read += n;
+            if (read >= nextSample) {
+                nextSample += SAMPLE_EVERY_BYTES;
+                peak = Math.max(peak, liveHeap());
+                samples++;
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.clickhouse.ingestion.service.impl;
+
+import com.clickhouse.ingestion.model.DataFormat;
+import com.clickhouse.ingestion.support.BenchmarkFixture;
+import com.clickhouse.ingestion.support.FakeClickHouse;
+import com.clickhouse.ingestion.support.SyntheticTable;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.sql.Connection;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class NativeFormatTransferTest {
+    private final FakeClickHouse server = new FakeClickHouse(BenchmarkFixture.TABLE, new SyntheticTable(2, 1_000));
+
+    @Test
+    void selectCountsTheRowsStreamedNotTheRowsRead() throws Exception {
+        SelectBuilder select = new SelectBuilder(BenchmarkFixture.TABLE, List.of("c0", "c1"), Map.of()).limit(10);
+        for (DataFormat format : new DataFormat[] {DataFormat.TAB_SEPARATED, DataFormat.JSON_EACH_ROW}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (Connection conn = server.connection()) {
+                assertEquals(10, NativeFormatTransfer.select(conn, select, format, out), format.name());
+            }
+            assertEquals(10, out.toString().lines().count());
+        }
+    }
+}
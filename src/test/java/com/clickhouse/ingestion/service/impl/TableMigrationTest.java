@@ -0,0 +1,71 @@
+package com.clickhouse.ingestion.service.impl;
+
+import com.clickhouse.ingestion.config.ConnectionPoolProperties;
+import com.clickhouse.ingestion.config.IngestionProperties;
+import com.clickhouse.ingestion.config.MetadataCacheProperties;
+import com.clickhouse.ingestion.dto.MigrationRequest;
+import com.clickhouse.ingestion.model.ConnectionConfig;
+import com.clickhouse.ingestion.model.MigrationMode;
+import com.clickhouse.ingestion.service.CheckpointStore;
+import com.clickhouse.ingestion.service.IngestionProgress;
+import com.clickhouse.ingestion.service.SchemaMetadataCache;
+import com.clickhouse.ingestion.service.WatermarkStore;
+import com.clickhouse.ingestion.support.BenchmarkFixture;
+import com.clickhouse.ingestion.support.FakeClickHouse;
+import com.clickhouse.ingestion.support.FakeConnectionPool;
+import com.clickhouse.ingestion.support.SyntheticTable;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+/**
+ * Migrations against {@link FakeClickHouse}, through a pool that enforces
+ * its size limit like the real one.
+ */
+class TableMigrationTest {
+    private static final long ROWS = 1_000;
+    private static final int PARTITIONS = 4;
+
+    @Test
+    void streamCopyWithinOneServerDoesNotExhaustThePool() {
+        FakeClickHouse server = new FakeClickHouse(BenchmarkFixture.TABLE, new SyntheticTable(4, ROWS));
+        server.setPartitions(PARTITIONS);
+        ConnectionPoolProperties poolProperties = new ConnectionPoolProperties();
+        poolProperties.setMaxSizePerKey(2);
+        poolProperties.setAcquireTimeoutMillis(2_000);
+        FakeConnectionPool pool = new FakeConnectionPool(server, poolProperties);
+        IngestionServiceImpl service = new IngestionServiceImpl(new IngestionProperties(), pool, poolProperties,
+            new SchemaMetadataCache(new MetadataCacheProperties(), new SimpleMeterRegistry(), pool),
+            new CheckpointStore("target/test-uploads"), new WatermarkStore("target/test-uploads"));
+
+        MigrationRequest request = new MigrationRequest();
+        request.setSource(config());
+        request.setTarget(config());
+        request.setSourceTable(BenchmarkFixture.TABLE);
+        request.setTargetTable(BenchmarkFixture.TABLE + "_copy");
+        request.setMode(MigrationMode.STREAM);
+        request.setParallelism(PARTITIONS);
+
+        // Copies that each hold one connection and wait for a second would stall until the acquire timeout
+        MigrationMode mode = assertTimeoutPreemptively(Duration.ofSeconds(30),
+            () -> service.migrate(request, IngestionProgress.NONE));
+
+        assertEquals(MigrationMode.STREAM, mode);
+        // The stand-in ignores the partition predicate, so every partition copies the whole table
+        assertEquals(PARTITIONS * ROWS, server.getInsertedRows());
+        pool.shutdown();
+    }
+
+    private static ConnectionConfig config() {
+        ConnectionConfig config = new ConnectionConfig();
+        config.setHost("localhost");
+        config.setPort(8123);
+        config.setDatabase("default");
+        config.setUsername("default");
+        return config;
+    }
+}
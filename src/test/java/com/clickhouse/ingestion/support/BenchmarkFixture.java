@@ -0,0 +1,67 @@
+package com.clickhouse.ingestion.support;
+
+import com.clickhouse.ingestion.config.ConnectionPoolProperties;
+import com.clickhouse.ingestion.config.IngestionProperties;
+import com.clickhouse.ingestion.config.MetadataCacheProperties;
+import com.clickhouse.ingestion.model.ConnectionConfig;
+import com.clickhouse.ingestion.service.CheckpointStore;
+import com.clickhouse.ingestion.service.WatermarkStore;
+import com.clickhouse.ingestion.service.SchemaMetadataCache;
+import com.clickhouse.ingestion.service.impl.IngestionServiceImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Wires an {@link IngestionServiceImpl} with default settings to a
+ * {@link FakeClickHouse} serving one synthetic table.
+ */
+public final class BenchmarkFixture implements AutoCloseable {
+    public static final String TABLE = "bench";
+
+    private final SyntheticTable table;
+    private final FakeClickHouse server;
+    private final FakeConnectionPool pool;
+    private final IngestionProperties ingestionProperties = new IngestionProperties();
+    private final IngestionServiceImpl service;
+    private final ConnectionConfig config = new ConnectionConfig();
+
+    public BenchmarkFixture(int width, long rows) {
+        this.table = new SyntheticTable(width, rows);
+        this.server = new FakeClickHouse(TABLE, table);
+        this.pool = new FakeConnectionPool(server);
+        this.service = new IngestionServiceImpl(ingestionProperties, pool, new ConnectionPoolProperties(),
+            new SchemaMetadataCache(new MetadataCacheProperties(), new SimpleMeterRegistry(), pool),
+            new CheckpointStore(System.getProperty("java.io.tmpdir")),
+            new WatermarkStore(System.getProperty("java.io.tmpdir")));
+        // Rejected rows of a run are build output, not part of the working tree
+        ingestionProperties.setRejectDirectory("target/rejects");
+        config.setHost("localhost");
+        config.setPort(8123);
+        config.setDatabase("default");
+        config.setUsername("default");
+    }
+
+    public SyntheticTable getTable() {
+        return table;
+    }
+
+    public FakeClickHouse getServer() {
+        return server;
+    }
+
+    public IngestionProperties getIngestionProperties() {
+        return ingestionProperties;
+    }
+
+    public IngestionServiceImpl getService() {
+        return service;
+    }
+
+    public ConnectionConfig getConfig() {
+        return config;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+}
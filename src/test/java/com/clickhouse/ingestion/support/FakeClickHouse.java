@@ -0,0 +1,378 @@
+package com.clickhouse.ingestion.support;
+
+import com.clickhouse.client.ClickHouseException;
+import com.clickhouse.client.ClickHouseRequest;
+import com.clickhouse.client.ClickHouseResponse;
+import com.clickhouse.client.ClickHouseResponseSummary;
+import com.clickhouse.data.ClickHouseInputStream;
+import com.clickhouse.jdbc.ClickHouseStatement;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.math.BigDecimal;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * In-process stand-in for a ClickHouse JDBC connection serving one
+ * {@link SyntheticTable}. It answers the metadata, count and SELECT queries
+ * the service issues and accepts prepared INSERT batches, counting the rows
+ * and discarding them, so benchmarks measure our code rather than the network.
+ *
+ * <p>Requests with a FORMAT clause, sent through {@link ClickHouseStatement},
+ * are served as CSV lines whatever the format, and an INSERT with a body
+ * counts one row per line. Filters are ignored, so every partition
+ * (see {@link #setPartitions}) holds the whole table.
+ */
+public final class FakeClickHouse {
+    private static final Pattern LIMIT = Pattern.compile("\\bLIMIT\\s+(\\d+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern SELECT_LIST = Pattern.compile("^\\s*SELECT\\s+(.+?)\\s+FROM\\s",
+        Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private final String tableName;
+    private final SyntheticTable table;
+    private final AtomicLong insertedRows = new AtomicLong();
+    private final AtomicLong boundValues = new AtomicLong();
+    private volatile int partitions;
+
+    public FakeClickHouse(String tableName, SyntheticTable table) {
+        this.tableName = tableName;
+        this.table = table;
+    }
+
+    public long getInsertedRows() {
+        return insertedRows.get();
+    }
+
+    public long getBoundValues() {
+        return boundValues.get();
+    }
+
+    /**
+     * Sets the number of active partitions listed in {@code system.parts}; none by default.
+     */
+    public void setPartitions(int partitions) {
+        this.partitions = partitions;
+    }
+
+    public Connection connection() {
+        return proxy(Connection.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "createStatement":
+                    return statement(null);
+                case "prepareStatement":
+                    return statement((String) args[0]);
+                case "isValid":
+                    return true;
+                case "isClosed":
+                case "isReadOnly":
+                    return false;
+                case "getAutoCommit":
+                    return true;
+                case "unwrap":
+                    throw new SQLException("Not supported by the stand-in: unwrap");
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    private PreparedStatement statement(String preparedSql) {
+        long[] pending = new long[1];
+        return proxy(PreparedStatement.class, (proxy, method, args) -> {
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length == 2 && args[0] instanceof Integer) {
+                boundValues.incrementAndGet();
+                return null;
+            }
+            switch (name) {
+                case "setNull":
+                    boundValues.incrementAndGet();
+                    return null;
+                case "unwrap":
+                    if (args[0] == ClickHouseStatement.class) {
+                        return formatStatement();
+                    }
+                    throw new SQLException("Not supported by the stand-in: unwrap to " + args[0]);
+                case "addBatch":
+                    pending[0]++;
+                    return null;
+                case "executeBatch": {
+                    int[] counts = new int[(int) pending[0]];
+                    insertedRows.addAndGet(pending[0]);
+                    pending[0] = 0;
+                    return counts;
+                }
+                case "clearBatch":
+                    pending[0] = 0;
+                    return null;
+                case "executeQuery":
+                    return query(args == null || args.length == 0 ? preparedSql : (String) args[0]);
+                case "execute":
+                    return false;
+                case "executeUpdate":
+                    return 0;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    private ResultSet query(String sql) throws SQLException {
+        String normalized = sql.toLowerCase(Locale.ROOT);
+        if (normalized.contains("system.columns") || normalized.startsWith("describe")) {
+            List<String[]> rows = new ArrayList<>();
+            for (int i = 0; i < table.getWidth(); i++) {
+                rows.add(new String[] {table.columnName(i), table.columnType(i)});
+            }
+            return listResult(new String[] {"name", "type"}, rows);
+        }
+        if (normalized.contains("system.parts")) {
+            List<String[]> rows = new ArrayList<>();
+            for (int i = 0; i < partitions; i++) {
+                rows.add(new String[] {"p" + i});
+            }
+            return listResult(new String[] {"partition_id"}, rows);
+        }
+        if (normalized.contains("system.tables") || normalized.startsWith("show tables")) {
+            return listResult(new String[] {"name"}, List.<String[]>of(new String[] {tableName}));
+        }
+        if (normalized.startsWith("select count(), sum(")) {
+            // Both sides of a verified migration are this server, so any fixed checksum agrees
+            return listResult(new String[] {"count()", "checksum"},
+                List.<String[]>of(new String[] {Long.toString(table.getRows()), "0"}));
+        }
+        if (normalized.startsWith("select count()")) {
+            return listResult(new String[] {"count()"},
+                List.<String[]>of(new String[] {Long.toString(table.getRows())}));
+        }
+        if (normalized.startsWith("select 1")) {
+            return listResult(new String[] {"1"}, List.<String[]>of(new String[] {"1"}));
+        }
+        Matcher select = SELECT_LIST.matcher(sql);
+        if (!select.find()) {
+            throw new SQLException("Query not understood by the stand-in: " + sql);
+        }
+        int[] projection = projection(select.group(1).trim());
+        Matcher limit = LIMIT.matcher(sql);
+        long rows = limit.find() ? Math.min(table.getRows(), Long.parseLong(limit.group(1))) : table.getRows();
+        return tableResult(projection, rows);
+    }
+
+    private ClickHouseStatement formatStatement() {
+        return proxy(ClickHouseStatement.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getRequest":
+                    return selectRequest();
+                case "write":
+                    return insertRequest();
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private ClickHouseRequest<?> selectRequest() throws ClickHouseException {
+        String[] sql = new String[1];
+        ClickHouseRequest<?> request = mock(ClickHouseRequest.class, RETURNS_SELF);
+        when(request.query(anyString())).thenAnswer(call -> {
+            sql[0] = call.getArgument(0);
+            return request;
+        });
+        when(request.executeAndWait()).thenAnswer(call -> {
+            Matcher select = SELECT_LIST.matcher(sql[0]);
+            if (!select.find()) {
+                throw new SQLException("Query not understood by the stand-in: " + sql[0]);
+            }
+            int[] projection = projection(select.group(1).trim());
+            Matcher limit = LIMIT.matcher(sql[0]);
+            long rows = limit.find() ? Math.min(table.getRows(), Long.parseLong(limit.group(1))) : table.getRows();
+            StringBuilder body = new StringBuilder();
+            for (long row = 0; row < rows; row++) {
+                for (int i = 0; i < projection.length; i++) {
+                    body.append(i == 0 ? "" : ",").append(table.value(row, projection[i]));
+                }
+                body.append('\n');
+            }
+            // Like a real scan, the summary counts every row read, not just those the limit lets through
+            return response(new ByteArrayInputStream(body.toString().getBytes(StandardCharsets.UTF_8)),
+                new ClickHouseResponseSummary.Progress(table.getRows(), body.length(), table.getRows(), 0, 0));
+        });
+        return request;
+    }
+
+    private ClickHouseRequest.Mutation insertRequest() throws ClickHouseException {
+        InputStream[] data = new InputStream[1];
+        ClickHouseRequest.Mutation request = mock(ClickHouseRequest.Mutation.class, RETURNS_SELF);
+        when(request.data(any(InputStream.class))).thenAnswer(call -> {
+            data[0] = call.getArgument(0);
+            return request;
+        });
+        when(request.executeAndWait()).thenAnswer(call -> {
+            long rows = 0;
+            long bytes = 0;
+            int b;
+            while ((b = data[0].read()) != -1) {
+                bytes++;
+                if (b == '\n') {
+                    rows++;
+                }
+            }
+            insertedRows.addAndGet(rows);
+            return response(ClickHouseInputStream.empty(),
+                new ClickHouseResponseSummary.Progress(0, 0, 0, rows, bytes));
+        });
+        return request;
+    }
+
+    private static ClickHouseResponse response(InputStream body, ClickHouseResponseSummary.Progress progress) {
+        ClickHouseResponseSummary summary = new ClickHouseResponseSummary(progress, null);
+        ClickHouseInputStream input = ClickHouseInputStream.of(body);
+        return proxy(ClickHouseResponse.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getSummary":
+                    return summary;
+                case "getInputStream":
+                    return input;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    private int[] projection(String selectList) throws SQLException {
+        if ("*".equals(selectList)) {
+            int[] all = new int[table.getWidth()];
+            for (int i = 0; i < all.length; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+        String[] names = selectList.split("\\s*,\\s*");
+        int[] columns = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i].replace("`", "").replace("\"", "");
+            if (!name.startsWith("c")) {
+                throw new SQLException("Unknown column " + name);
+            }
+            columns[i] = Integer.parseInt(name.substring(1));
+        }
+        return columns;
+    }
+
+    private ResultSet tableResult(int[] projection, long rows) {
+        String[] labels = new String[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            labels[i] = table.columnName(projection[i]);
+        }
+        return result(labels, rows, (row, column) -> table.value(row, projection[column]));
+    }
+
+    private static ResultSet listResult(String[] labels, List<String[]> rows) {
+        return result(labels, rows.size(), (row, column) -> rows.get((int) row)[column]);
+    }
+
+    @FunctionalInterface
+    private interface Cells {
+        String get(long row, int column);
+    }
+
+    private static ResultSet result(String[] labels, long rows, Cells cells) {
+        long[] cursor = {-1};
+        boolean[] wasNull = new boolean[1];
+        ResultSetMetaData metaData = proxy(ResultSetMetaData.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getColumnCount":
+                    return labels.length;
+                case "getColumnName":
+                case "getColumnLabel":
+                    return labels[(Integer) args[0] - 1];
+                case "getColumnTypeName":
+                    return "String";
+                case "getColumnType":
+                    return java.sql.Types.VARCHAR;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+        return proxy(ResultSet.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "next":
+                    return ++cursor[0] < rows;
+                case "getMetaData":
+                    return metaData;
+                case "getString":
+                case "getObject": {
+                    String value = cells.get(cursor[0], (Integer) args[0] - 1);
+                    wasNull[0] = value == null;
+                    return value;
+                }
+                case "getLong":
+                    return Long.parseLong(cells.get(cursor[0], (Integer) args[0] - 1));
+                case "getBigDecimal":
+                    return new BigDecimal(cells.get(cursor[0], (Integer) args[0] - 1));
+                case "getInt":
+                    return Integer.parseInt(cells.get(cursor[0], (Integer) args[0] - 1));
+                case "wasNull":
+                    return wasNull[0];
+                case "isClosed":
+                    return false;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(FakeClickHouse.class.getClassLoader(), new Class<?>[] {type}, handler);
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        }
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == double.class) {
+            return 0.0;
+        }
+        if (type == float.class) {
+            return 0.0f;
+        }
+        if (type == char.class) {
+            return '\0';
+        }
+        if (type == byte.class) {
+            return (byte) 0;
+        }
+        if (type == short.class) {
+            return (short) 0;
+        }
+        return 0;
+    }
+}
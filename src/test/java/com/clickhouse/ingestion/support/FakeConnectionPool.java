@@ -0,0 +1,74 @@
+package com.clickhouse.ingestion.support;
+
+import com.clickhouse.ingestion.config.ConnectionPoolProperties;
+import com.clickhouse.ingestion.model.ConnectionConfig;
+import com.clickhouse.ingestion.service.ClickHouseConnectionPool;
+import com.clickhouse.ingestion.util.ClickHouseUtil;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pool that hands out {@link FakeClickHouse} connections instead of opening
+ * real ones, so services can be benchmarked unchanged. Built with
+ * {@link ConnectionPoolProperties} it also enforces {@code maxSizePerKey}
+ * and {@code acquireTimeoutMillis} like the real pool does.
+ */
+public class FakeConnectionPool extends ClickHouseConnectionPool {
+    private final FakeClickHouse server;
+    private final ConnectionPoolProperties limits;
+    private final Map<String, Semaphore> permits = new ConcurrentHashMap<>();
+
+    public FakeConnectionPool(FakeClickHouse server) {
+        this(server, null);
+    }
+
+    public FakeConnectionPool(FakeClickHouse server, ConnectionPoolProperties limits) {
+        super(limits != null ? limits : new ConnectionPoolProperties(), new ClickHouseUtil(),
+            new SimpleMeterRegistry());
+        this.server = server;
+        this.limits = limits;
+    }
+
+    @Override
+    public Connection getConnection(ConnectionConfig config) throws SQLException {
+        if (limits == null) {
+            return server.connection();
+        }
+        Semaphore pool = permits.computeIfAbsent(config.getUsername() + "@" + config.getHost() + ":"
+            + config.getPort() + "/" + config.getDatabase(), key -> new Semaphore(limits.getMaxSizePerKey()));
+        try {
+            if (!pool.tryAcquire(limits.getAcquireTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                throw new SQLTimeoutException("Timed out waiting for a connection to " + config.getHost());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+        Connection connection = server.connection();
+        AtomicBoolean closed = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(FakeConnectionPool.class.getClassLoader(),
+            new Class<?>[] {Connection.class}, (proxy, method, args) -> {
+                if (method.getName().equals("close")) {
+                    if (closed.compareAndSet(false, true)) {
+                        pool.release();
+                    }
+                    return null;
+                }
+                try {
+                    return method.invoke(connection, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            });
+    }
+}
@@ -0,0 +1,175 @@
+package com.clickhouse.ingestion.support;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A deterministic table of {@code width} columns and {@code rows} rows.
+ * Column types cycle through the kinds the typed insert path converts, and
+ * every cell is a pure function of its position so data sets are repeatable.
+ */
+public final class SyntheticTable {
+    private static final String[] TYPES = {
+        "Int64", "String", "Float64", "DateTime", "Nullable(Int32)", "LowCardinality(String)", "Date",
+        "Decimal(18, 4)"
+    };
+
+    private final int width;
+    private final long rows;
+
+    public SyntheticTable(int width, long rows) {
+        this.width = width;
+        this.rows = rows;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public String columnName(int column) {
+        return "c" + column;
+    }
+
+    public String columnType(int column) {
+        return TYPES[column % TYPES.length];
+    }
+
+    public List<String> columnNames() {
+        List<String> names = new ArrayList<>(width);
+        for (int i = 0; i < width; i++) {
+            names.add(columnName(i));
+        }
+        return names;
+    }
+
+    public Map<String, String> columnTypes() {
+        Map<String, String> types = new LinkedHashMap<>();
+        for (int i = 0; i < width; i++) {
+            types.put(columnName(i), columnType(i));
+        }
+        return types;
+    }
+
+    public String value(long row, int column) {
+        switch (column % TYPES.length) {
+            case 0:
+                return Long.toString(row * 7919);
+            case 1:
+                // Every 16th value needs quoting, as real text columns occasionally do
+                return row % 16 == 0 ? "name, \"quoted\" " + row : "name-" + row;
+            case 2:
+                return Double.toString(row / 3.0);
+            case 3:
+                return "2024-" + twoDigits(row % 12 + 1) + "-" + twoDigits(row % 28 + 1) + " "
+                    + twoDigits(row % 24) + ":" + twoDigits(row % 60) + ":" + twoDigits((row + column) % 60);
+            case 4:
+                return row % 10 == 0 ? "" : Long.toString(row % 100_000);
+            case 5:
+                return "category-" + row % 32;
+            case 6:
+                return "2024-" + twoDigits(row % 12 + 1) + "-" + twoDigits(row % 28 + 1);
+            default:
+                return (row % 1_000_000) + "." + twoDigits(row % 10_000 / 100) + twoDigits(row % 100);
+        }
+    }
+
+    // Cheap enough not to dominate benchmarks that generate cells on the fly
+    private static String twoDigits(long value) {
+        return value < 10 ? "0" + value : Long.toString(value);
+    }
+
+    /**
+     * Renders the table as CSV with a header line.
+     */
+    public byte[] toCsv() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (Writer out = new OutputStreamWriter(bytes, StandardCharsets.UTF_8)) {
+            StringBuilder line = new StringBuilder();
+            for (long row = -1; row < rows; row++) {
+                line.setLength(0);
+                out.append(csvLine(row, line));
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Streams the same CSV as {@link #toCsv()}, rendering one line at a time,
+     * so that tables far larger than the heap can be fed to an ingest.
+     */
+    public InputStream openCsv() {
+        return new InputStream() {
+            private final StringBuilder line = new StringBuilder();
+            private byte[] buffer = new byte[0];
+            private int position;
+            private long next = -1;
+
+            @Override
+            public int read() {
+                if (!fill()) {
+                    return -1;
+                }
+                return buffer[position++] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!fill()) {
+                    return -1;
+                }
+                int n = Math.min(len, buffer.length - position);
+                System.arraycopy(buffer, position, b, off, n);
+                position += n;
+                return n;
+            }
+
+            private boolean fill() {
+                while (position == buffer.length) {
+                    if (next >= rows) {
+                        return false;
+                    }
+                    line.setLength(0);
+                    buffer = csvLine(next++, line).toString().getBytes(StandardCharsets.UTF_8);
+                    position = 0;
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Appends one CSV line to {@code line}: the header for row -1, else the cells of the row.
+     */
+    private StringBuilder csvLine(long row, StringBuilder line) {
+        if (row < 0) {
+            return line.append(String.join(",", columnNames())).append("\r\n");
+        }
+        for (int column = 0; column < width; column++) {
+            if (column > 0) {
+                line.append(',');
+            }
+            String value = value(row, column);
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0) {
+                line.append('"').append(value.replace("\"", "\"\"")).append('"');
+            } else {
+                line.append(value);
+            }
+        }
+        return line.append("\r\n");
+    }
+}
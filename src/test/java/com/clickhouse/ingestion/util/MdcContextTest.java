@@ -0,0 +1,37 @@
+package com.clickhouse.ingestion.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MdcContextTest {
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+        MDC.clear();
+    }
+
+    @Test
+    void taskSeesTheContextOfTheSubmittingThread() throws Exception {
+        MDC.put("jobId", "job-1");
+        assertEquals("job-1", executor.submit(MdcContext.wrap(() -> MDC.get("jobId"))).get());
+    }
+
+    @Test
+    void poolThreadGetsItsOwnContextBackAfterTheTask() throws Exception {
+        MDC.put("jobId", "job-1");
+        executor.submit(MdcContext.wrap(() -> MDC.put("requestId", "leaked"))).get();
+
+        MDC.clear();
+        assertNull(executor.submit(() -> MDC.get("jobId")).get());
+        assertNull(executor.submit(() -> MDC.get("requestId")).get());
+    }
+}